@@ -0,0 +1,219 @@
+package com.example;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Sealed chunks of one resolution, appended to segments of {@code segmentSize} bytes: files mapped into memory when a
+ * directory is given, so that they are read back after a restart, heap buffers otherwise. Retention drops whole
+ * segments once their newest chunk is too old.
+ */
+@Slf4j
+class ChunkSegments implements Closeable {
+
+	/** The end of the chunks written so far. */
+	private static final int HEADER = Integer.BYTES;
+
+	interface ChunkConsumer {
+
+		void accept(String series, Chunk chunk);
+	}
+
+	/**
+	 * A chunk as stored, its points decoded from the segment on every read.
+	 */
+	static class Chunk {
+
+		final long start;
+		final long end;
+		final int count;
+		final int columns;
+		final Segment segment;
+		private final ByteBuffer data;
+
+		Chunk(long start, long end, int count, int columns, Segment segment, ByteBuffer data) {
+			this.start = start;
+			this.end = end;
+			this.count = count;
+			this.columns = columns;
+			this.segment = segment;
+			this.data = data;
+		}
+
+		void forEach(TimeSeriesChunk.PointConsumer consumer) {
+			TimeSeriesChunk.decode(data.duplicate(), columns, count, consumer);
+		}
+	}
+
+	static class Segment {
+
+		final int id;
+		final ByteBuffer buffer;
+		final File file;
+		long end = Long.MIN_VALUE;
+
+		Segment(int id, ByteBuffer buffer, File file) {
+			this.id = id;
+			this.buffer = buffer;
+			this.file = file;
+		}
+
+		int limit() {
+			return buffer.getInt(0);
+		}
+	}
+
+	private final File directory;
+	private final int segmentSize;
+	private final List<Segment> segments = new ArrayList<>();
+	private Segment current;
+	private int nextId;
+
+	/**
+	 * @param directory where to keep the segments, or null to keep them on the heap only
+	 */
+	ChunkSegments(File directory, int segmentSize) throws IOException {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create " + directory);
+		}
+	}
+
+	/**
+	 * Maps the segments left by an earlier run and hands over their chunks, oldest first.
+	 */
+	synchronized void open(ChunkConsumer consumer) throws IOException {
+		if (directory == null) {
+			return;
+		}
+		File[] files = directory.listFiles((dir, name) -> name.endsWith(".chunks"));
+		int[] ids = Arrays.stream(files != null ? files : new File[0])
+				.mapToInt(file -> Integer.parseInt(file.getName().substring(0, file.getName().indexOf('.'))))
+				.sorted().toArray();
+		for (int id : ids) {
+			File file = file(id);
+			Segment segment = new Segment(id, map(file, (int) file.length()), file);
+			nextId = id + 1;
+			if (segment.buffer.capacity() < HEADER || segment.limit() <= HEADER || segment.limit() > segment.buffer.capacity()) {
+				delete(segment);
+				continue;
+			}
+			ByteBuffer records = segment.buffer.duplicate();
+			records.position(HEADER).limit(segment.limit());
+			while (records.hasRemaining()) {
+				byte[] name = new byte[records.getShort()];
+				records.get(name);
+				long start = records.getLong();
+				long end = records.getLong();
+				int count = records.getInt();
+				int columns = records.get();
+				int length = records.getInt();
+				ByteBuffer data = records.slice();
+				data.limit(length);
+				records.position(records.position() + length);
+				segment.end = Math.max(segment.end, end);
+				consumer.accept(new String(name, StandardCharsets.UTF_8),
+						new Chunk(start, end, count, columns, segment, data.asReadOnlyBuffer()));
+			}
+			segments.add(segment);
+		}
+	}
+
+	synchronized Chunk write(String series, TimeSeriesChunk chunk) throws IOException {
+		byte[] name = series.getBytes(StandardCharsets.UTF_8);
+		int length = Short.BYTES + name.length + 2 * Long.BYTES + Integer.BYTES + 1 + Integer.BYTES + chunk.size();
+		if (current == null || current.limit() + length > current.buffer.capacity()) {
+			current = create(Math.max(segmentSize, HEADER + length));
+		}
+		ByteBuffer target = current.buffer.duplicate();
+		target.position(current.limit());
+		target.putShort((short) name.length).put(name)
+				.putLong(chunk.start()).putLong(chunk.end()).putInt(chunk.count()).put((byte) chunk.columns())
+				.putInt(chunk.size());
+		ByteBuffer data = target.slice();
+		data.limit(chunk.size());
+		chunk.writeTo(target);
+		current.buffer.putInt(0, target.position());
+		current.end = Math.max(current.end, chunk.end());
+		return new Chunk(chunk.start(), chunk.end(), chunk.count(), chunk.columns(), current, data.asReadOnlyBuffer());
+	}
+
+	/**
+	 * Drops the segments holding nothing newer than {@code before}, in seconds.
+	 *
+	 * @return the segments dropped, whose chunks must not be read any more
+	 */
+	synchronized List<Segment> expire(long before) {
+		List<Segment> expired = new ArrayList<>();
+		for (Iterator<Segment> segments = this.segments.iterator(); segments.hasNext(); ) {
+			Segment segment = segments.next();
+			if (segment.end < before) {
+				segments.remove();
+				expired.add(segment);
+				delete(segment);
+				if (segment == current) {
+					current = null;
+				}
+			}
+		}
+		return expired;
+	}
+
+	/**
+	 * @return bytes taken by the chunks kept
+	 */
+	synchronized long size() {
+		return segments.stream().mapToLong(Segment::limit).sum();
+	}
+
+	@Override
+	public synchronized void close() {
+		for (Segment segment : segments) {
+			if (segment.buffer instanceof MappedByteBuffer) {
+				((MappedByteBuffer) segment.buffer).force();
+			}
+		}
+	}
+
+	private Segment create(int size) throws IOException {
+		int id = nextId++;
+		File file = directory != null ? file(id) : null;
+		Segment segment = new Segment(id, file != null ? map(file, size) : ByteBuffer.allocate(size), file);
+		segment.buffer.putInt(0, HEADER);
+		segments.add(segment);
+		return segment;
+	}
+
+	private File file(int id) {
+		return new File(directory, id + ".chunks");
+	}
+
+	private static ByteBuffer map(File file, int size) throws IOException {
+		try (RandomAccessFile mapped = new RandomAccessFile(file, "rw")) {
+			mapped.setLength(size);
+			return mapped.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+	}
+
+	/**
+	 * Readers still holding chunks of the segment keep reading its mapping, which outlives the file.
+	 */
+	private static void delete(Segment segment) {
+		if (segment.file != null && !segment.file.delete()) {
+			log.warn("Unable to delete expired segment {}", segment.file);
+		}
+	}
+}
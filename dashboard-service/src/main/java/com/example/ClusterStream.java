@@ -0,0 +1,363 @@
+package com.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps the last report of every Hystrix command and thread pool from every instance and, every {@code interval},
+ * sends one merged report per command and thread pool to all subscribed dashboards. Counters are summed, the error
+ * percentage is recomputed from the sums, and latency percentiles are averaged weighted by the requests of each
+ * instance, an approximation as the instances' samples aren't available.
+ * <p>
+ * Every dashboard is sent to on a thread of its own, so a slow one never holds back the others. Ticks arriving while
+ * the previous report is still being sent to a dashboard are skipped for it, and a dashboard that hasn't taken a report
+ * for {@code sendTimeout} is dropped.
+ */
+@Slf4j
+class ClusterStream implements Closeable, PublicMetrics {
+
+	/** Averaged weighted by requests rather than summed. */
+	private static final Set<String> AVERAGED = new HashSet<>(Arrays.asList("latencyExecute_mean", "latencyTotal_mean"));
+
+	private static final TypeReference<Map<String, Object>> REPORT = new TypeReference<Map<String, Object>>() {
+	};
+
+	private final ClusterStreamConfig config;
+	private final LongSupplier clock;
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final Map<String, Map<String, Report>> reports = new ConcurrentHashMap<>();
+	private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong malformed = new AtomicLong();
+	private final AtomicLong skipped = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final ScheduledExecutorService emitter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "cluster-stream");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final ExecutorService senders = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "cluster-stream-send");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	ClusterStream(ClusterStreamConfig config) {
+		this(config, System::currentTimeMillis);
+	}
+
+	ClusterStream(ClusterStreamConfig config, LongSupplier clock) {
+		this.config = config;
+		this.clock = clock;
+	}
+
+	@PostConstruct
+	void start() {
+		emitter.scheduleAtFixedRate(this::emit, config.interval, config.interval, TimeUnit.MILLISECONDS);
+	}
+
+	SseEmitter subscribe() {
+		return subscribe(new SseEmitter(config.timeout));
+	}
+
+	SseEmitter subscribe(SseEmitter emitter) {
+		Subscriber subscriber = new Subscriber(emitter);
+		emitter.onCompletion(() -> subscribers.remove(subscriber));
+		emitter.onTimeout(() -> subscribers.remove(subscriber));
+		subscribers.add(subscriber);
+		return emitter;
+	}
+
+	/**
+	 * @param json the data of one event of an instance's Hystrix stream
+	 */
+	void accept(String instance, String json) {
+		Map<String, Object> report;
+		try {
+			report = mapper.readValue(json, REPORT);
+		} catch (IOException e) {
+			malformed.incrementAndGet();
+			return;
+		}
+		Object type = report.get("type");
+		Object name = report.get("name");
+		if (type == null || name == null) {
+			malformed.incrementAndGet();
+			return;
+		}
+		received.incrementAndGet();
+		reports.computeIfAbsent(type + "/" + name, key -> new ConcurrentHashMap<>())
+				.put(instance, new Report(report, clock.getAsLong()));
+	}
+
+	/** Leaves the reports of an instance out of the merge right away, rather than once they are stale. */
+	void remove(String instance) {
+		for (Map<String, Report> byInstance : reports.values()) {
+			byInstance.remove(instance);
+		}
+	}
+
+	/**
+	 * @return one report per command and thread pool, of all instances that reported it lately
+	 */
+	List<Map<String, Object>> merge() {
+		long oldest = clock.getAsLong() - config.staleAfter;
+		List<Map<String, Object>> merged = new ArrayList<>();
+		for (Map<String, Report> byInstance : reports.values()) {
+			byInstance.values().removeIf(report -> report.receivedAt < oldest);
+			List<Map<String, Object>> fresh = new ArrayList<>();
+			for (Report report : byInstance.values()) {
+				fresh.add(report.data);
+			}
+			if (!fresh.isEmpty()) {
+				merged.add(merge(fresh));
+			}
+		}
+		reports.values().removeIf(Map::isEmpty);
+		return merged;
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		return Arrays.asList(
+				new Metric<>("hystrix.cluster.subscribers", subscribers.size()),
+				new Metric<>("hystrix.cluster.reports", received.get()),
+				new Metric<>("hystrix.cluster.malformed", malformed.get()),
+				new Metric<>("hystrix.cluster.skipped", skipped.get()),
+				new Metric<>("hystrix.cluster.dropped", dropped.get()));
+	}
+
+	@Override
+	public void close() {
+		emitter.shutdownNow();
+		senders.shutdownNow();
+		for (Subscriber subscriber : subscribers) {
+			subscriber.emitter.complete();
+		}
+	}
+
+	void emit() {
+		if (subscribers.isEmpty()) {
+			return;
+		}
+		try {
+			List<String> events = new ArrayList<>();
+			for (Map<String, Object> report : merge()) {
+				events.add(mapper.writeValueAsString(report));
+			}
+			long now = clock.getAsLong();
+			for (Subscriber subscriber : subscribers) {
+				subscriber.offer(events, now);
+			}
+		} catch (RuntimeException | IOException e) {
+			// Thrown out of a scheduled task it would stop the stream for good
+			log.warn("Unable to send the cluster's Hystrix reports", e);
+		}
+	}
+
+	static Map<String, Object> merge(List<Map<String, Object>> reports) {
+		double[] weights = new double[reports.size()];
+		double requests = 0;
+		for (int index = 0; index < weights.length; index++) {
+			Object count = reports.get(index).get("requestCount");
+			weights[index] = count instanceof Number ? ((Number) count).doubleValue() : 0;
+			requests += weights[index];
+		}
+		if (requests == 0) {
+			Arrays.fill(weights, 1);
+		}
+		Set<String> keys = new LinkedHashSet<>();
+		for (Map<String, Object> report : reports) {
+			keys.addAll(report.keySet());
+		}
+		Map<String, Object> merged = new LinkedHashMap<>();
+		for (String key : keys) {
+			merged.put(key, merge(key, reports, weights));
+		}
+		Object errors = merged.get("errorCount");
+		Object total = merged.get("requestCount");
+		if (errors instanceof Number && total instanceof Number) {
+			long count = ((Number) total).longValue();
+			merged.put("errorPercentage", count == 0 ? 0 : Math.round(((Number) errors).doubleValue() * 100 / count));
+		}
+		return merged;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Object merge(String key, List<Map<String, Object>> reports, double[] weights) {
+		List<Object> values = new ArrayList<>();
+		List<Double> valueWeights = new ArrayList<>();
+		for (int index = 0; index < reports.size(); index++) {
+			if (reports.get(index).containsKey(key)) {
+				values.add(reports.get(index).get(key));
+				valueWeights.add(weights[index]);
+			}
+		}
+		Object first = values.get(0);
+		if (key.startsWith("propertyValue_")) {
+			return first;
+		}
+		if (first instanceof Boolean) {
+			return values.contains(Boolean.TRUE);
+		}
+		if (first instanceof Number) {
+			if ("currentTime".equals(key)) {
+				return values.stream().mapToLong(value -> ((Number) value).longValue()).max().getAsLong();
+			}
+			return AVERAGED.contains(key) ? average(values, valueWeights) : sum(values);
+		}
+		if (first instanceof Map) {
+			Map<String, Object> percentiles = new LinkedHashMap<>();
+			for (String percentile : ((Map<String, Object>) first).keySet()) {
+				List<Object> latencies = new ArrayList<>();
+				List<Double> latencyWeights = new ArrayList<>();
+				for (int index = 0; index < values.size(); index++) {
+					Object latency = values.get(index) instanceof Map ? ((Map<?, ?>) values.get(index)).get(percentile) : null;
+					if (latency instanceof Number) {
+						latencies.add(latency);
+						latencyWeights.add(valueWeights.get(index));
+					}
+				}
+				percentiles.put(percentile, latencies.isEmpty() ? null : average(latencies, latencyWeights));
+			}
+			return percentiles;
+		}
+		return first;
+	}
+
+	private static Object sum(List<Object> values) {
+		if (values.stream().allMatch(ClusterStream::integral)) {
+			return values.stream().mapToLong(value -> ((Number) value).longValue()).sum();
+		}
+		return values.stream().mapToDouble(value -> value instanceof Number ? ((Number) value).doubleValue() : 0).sum();
+	}
+
+	private static Object average(List<Object> values, List<Double> weights) {
+		double sum = 0;
+		double total = 0;
+		for (int index = 0; index < values.size(); index++) {
+			if (values.get(index) instanceof Number) {
+				sum += ((Number) values.get(index)).doubleValue() * weights.get(index);
+				total += weights.get(index);
+			}
+		}
+		if (total == 0) {
+			// None of the instances reporting it served requests, their values count alike
+			for (Object value : values) {
+				if (value instanceof Number) {
+					sum += ((Number) value).doubleValue();
+					total++;
+				}
+			}
+		}
+		if (total == 0) {
+			return 0;
+		}
+		if (values.stream().allMatch(ClusterStream::integral)) {
+			return Math.round(sum / total);
+		}
+		return sum / total;
+	}
+
+	private static boolean integral(Object value) {
+		return value instanceof Integer || value instanceof Long;
+	}
+
+	/**
+	 * A dashboard, sent to by at most one thread at a time.
+	 */
+	private class Subscriber {
+
+		final SseEmitter emitter;
+		final AtomicBoolean sending = new AtomicBoolean();
+		volatile long sendingSince;
+
+		Subscriber(SseEmitter emitter) {
+			this.emitter = emitter;
+		}
+
+		void offer(List<String> events, long now) {
+			if (!sending.compareAndSet(false, true)) {
+				if (now - sendingSince >= config.sendTimeout) {
+					drop(new IOException("No report taken for " + (now - sendingSince) + " ms"));
+				} else {
+					skipped.incrementAndGet();
+				}
+				return;
+			}
+			sendingSince = now;
+			try {
+				senders.execute(() -> send(events));
+			} catch (RuntimeException e) {
+				sending.set(false);
+				throw e;
+			}
+		}
+
+		/**
+		 * Builds events of its own, as building one changes it and the other dashboards are sent to at the same time.
+		 */
+		private void send(List<String> events) {
+			try {
+				if (events.isEmpty()) {
+					emitter.send(SseEmitter.event().comment("ping"));
+				}
+				for (String event : events) {
+					emitter.send(SseEmitter.event().data(event));
+				}
+			} catch (IOException | RuntimeException e) {
+				drop(e);
+			} finally {
+				sending.set(false);
+			}
+		}
+
+		private void drop(Exception cause) {
+			if (subscribers.remove(this)) {
+				dropped.incrementAndGet();
+				log.info("Dropped a cluster stream subscriber: {}", cause.toString());
+				// Waits for the monitor a stalled send holds, so not on the thread emitting to everyone
+				senders.execute(() -> emitter.completeWithError(cause));
+			}
+		}
+	}
+
+	private static class Report {
+
+		final Map<String, Object> data;
+		final long receivedAt;
+
+		Report(Map<String, Object> data, long receivedAt) {
+			this.data = data;
+			this.receivedAt = receivedAt;
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package com.example;
+
+import static org.springframework.web.bind.annotation.RequestMethod.GET;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import lombok.Data;
+
+@Configuration
+@ConditionalOnProperty(name = "hystrix.cluster.enabled", havingValue = "true", matchIfMissing = true)
+@EnableConfigurationProperties(ClusterStreamConfig.class)
+public class ClusterStreamConfiguration {
+
+	@Bean(initMethod = "start", destroyMethod = "close")
+	CloseableHttpAsyncClient instanceStreamClient(ClusterStreamConfig cluster) throws IOReactorException {
+		PoolingNHttpClientConnectionManager connections = new PoolingNHttpClientConnectionManager(
+				new DefaultConnectingIOReactor(IOReactorConfig.custom()
+						.setIoThreadCount(cluster.ioThreads)
+						.setConnectTimeout(cluster.connectTimeout)
+						.setSoTimeout(cluster.readTimeout)
+						.build()));
+		connections.setMaxTotal(Integer.MAX_VALUE);
+		connections.setDefaultMaxPerRoute(1);
+		return HttpAsyncClients.custom()
+				.setConnectionManager(connections)
+				.setDefaultRequestConfig(RequestConfig.custom()
+						.setConnectTimeout(cluster.connectTimeout)
+						.setSocketTimeout(cluster.readTimeout)
+						.build())
+				.disableCookieManagement()
+				.build();
+	}
+
+	@Bean
+	ClusterStream clusterStream(ClusterStreamConfig cluster) {
+		return new ClusterStream(cluster);
+	}
+
+	@Bean
+	InstanceStreams instanceStreams(ClusterStreamConfig cluster, CloseableHttpAsyncClient instanceStreamClient,
+			DiscoveryClient discovery, ClusterStream clusterStream) {
+		return new InstanceStreams(cluster, instanceStreamClient, discovery, clusterStream);
+	}
+
+	@Bean
+	ClusterStreamController clusterStreamController(ClusterStream clusterStream) {
+		return new ClusterStreamController(clusterStream);
+	}
+}
+
+@Data
+@ConfigurationProperties(prefix = "hystrix.cluster")
+class ClusterStreamConfig {
+
+	/** Service ids whose instances' Hystrix streams are merged. */
+	List<String> services = new ArrayList<>(Collections.singletonList("reservationclient"));
+
+	/** Path of the Hystrix stream on every instance. */
+	String path = "/hystrix.stream";
+
+	/** How often the merged reports are sent to the dashboards, in milliseconds. */
+	long interval = 1_000;
+
+	/** Reports of an instance older than this are left out of the merge, in milliseconds. */
+	long staleAfter = 10_000;
+
+	/** How long a dashboard stays subscribed before it has to reconnect, in milliseconds, 0 for never. */
+	long timeout = 0;
+
+	/** A dashboard still taking the previous report after this long is dropped, in milliseconds. */
+	long sendTimeout = 10_000;
+
+	/** Threads handling socket events for all instance streams. */
+	int ioThreads = 1;
+
+	/** In milliseconds. */
+	int connectTimeout = 1_000;
+
+	/** Silence after which an instance stream is dropped, Hystrix pings every few seconds, in milliseconds. */
+	int readTimeout = 30_000;
+
+	/** Longest event taken from an instance stream, longer ones are skipped. */
+	int bufferSize = 64 * 1024;
+}
+
+/**
+ * One Hystrix stream for the whole cluster: point the Hystrix dashboard at {@code /cluster.stream} of this service
+ * instead of at every instance.
+ */
+@RestController
+class ClusterStreamController {
+
+	private final ClusterStream stream;
+
+	ClusterStreamController(ClusterStream stream) {
+		this.stream = stream;
+	}
+
+	@RequestMapping(path = "/cluster.stream", method = GET)
+	public SseEmitter stream() {
+		return stream.subscribe();
+	}
+}
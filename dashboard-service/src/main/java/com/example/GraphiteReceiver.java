@@ -0,0 +1,181 @@
+package com.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Takes Graphite's plaintext protocol, {@code name value timestamp} lines, as sent by {@code GraphiteConfiguration}
+ * of the services, and adds the points to a {@link TimeSeriesStore}. One thread serves all reporters through a
+ * selector.
+ */
+@Slf4j
+class GraphiteReceiver implements Closeable {
+
+	/** Longest line taken, longer ones are skipped. */
+	private static final int MAX_LINE = 8 * 1024;
+
+	private final TimeSeriesStore store;
+	private final Selector selector;
+	private final ServerSocketChannel server;
+	private final Thread receiver;
+	private final AtomicLong malformed = new AtomicLong();
+
+	private volatile boolean running;
+
+	GraphiteReceiver(TimeSeriesStore store, int port) throws IOException {
+		this.store = store;
+		this.selector = Selector.open();
+		this.server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(port));
+		server.configureBlocking(false);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+		this.receiver = new Thread(this::run, "graphite-receiver");
+	}
+
+	@PostConstruct
+	void start() {
+		running = true;
+		receiver.setDaemon(true);
+		receiver.start();
+	}
+
+	@Override
+	public void close() throws IOException {
+		running = false;
+		selector.close();
+		server.close();
+		try {
+			receiver.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	int port() throws IOException {
+		return ((InetSocketAddress) server.getLocalAddress()).getPort();
+	}
+
+	/** Lines that were not a name, a number and a timestamp. */
+	long malformed() {
+		return malformed.get();
+	}
+
+	private void run() {
+		while (running) {
+			try {
+				selector.select();
+				for (Iterator<SelectionKey> keys = selector.selectedKeys().iterator(); keys.hasNext(); ) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (key.isValid() && key.isAcceptable()) {
+						accept();
+					} else if (key.isValid() && key.isReadable()) {
+						read(key);
+					}
+				}
+			} catch (ClosedSelectorException e) {
+				return;
+			} catch (IOException e) {
+				log.warn("Unable to take Graphite points: {}", e.getMessage());
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = server.accept();
+		if (channel != null) {
+			channel.configureBlocking(false);
+			channel.register(selector, SelectionKey.OP_READ, new Connection());
+		}
+	}
+
+	private void read(SelectionKey key) {
+		SocketChannel channel = (SocketChannel) key.channel();
+		Connection connection = (Connection) key.attachment();
+		try {
+			int read = channel.read(connection.buffer);
+			connection.buffer.flip();
+			parse(connection);
+			connection.buffer.compact();
+			if (read == -1) {
+				close(key);
+			}
+		} catch (IOException e) {
+			close(key);
+		}
+	}
+
+	/**
+	 * Takes the complete lines in the buffer, leaving the last one in it until its end arrives.
+	 */
+	private void parse(Connection connection) {
+		ByteBuffer buffer = connection.buffer;
+		int start = buffer.position();
+		for (int index = start; index < buffer.limit(); index++) {
+			if (buffer.get(index) == '\n') {
+				if (!connection.skipping) {
+					point(buffer, start, index);
+				}
+				connection.skipping = false;
+				start = index + 1;
+			}
+		}
+		buffer.position(start);
+		if (start == 0 && buffer.limit() == buffer.capacity()) {
+			connection.skipping = true;
+			malformed.incrementAndGet();
+			buffer.position(buffer.limit());
+		}
+	}
+
+	private void point(ByteBuffer buffer, int start, int end) {
+		byte[] bytes = new byte[end - start];
+		for (int index = 0; index < bytes.length; index++) {
+			bytes[index] = buffer.get(start + index);
+		}
+		String[] parts = new String(bytes, StandardCharsets.UTF_8).trim().split("\\s+");
+		if (parts.length == 1 && parts[0].isEmpty()) {
+			return;
+		}
+		try {
+			if (parts.length != 3) {
+				throw new NumberFormatException();
+			}
+			double value = Double.parseDouble(parts[1]);
+			if (!Double.isNaN(value) && !Double.isInfinite(value)) {
+				store.add(parts[0], value, (long) Double.parseDouble(parts[2]));
+			}
+		} catch (NumberFormatException e) {
+			malformed.incrementAndGet();
+		}
+	}
+
+	private static void close(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException ignored) {
+		}
+	}
+
+	private static class Connection {
+
+		final ByteBuffer buffer = ByteBuffer.allocate(MAX_LINE);
+		boolean skipping;
+	}
+}
@@ -0,0 +1,226 @@
+package com.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.cloud.client.discovery.event.HeartbeatEvent;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Holds one connection to the Hystrix stream of every instance of the configured services, all served by the
+ * non-blocking client's I/O threads, and hands each event to the {@link ClusterStream}. Instances are looked up again
+ * whenever the Eureka client refreshed its cache: new ones are subscribed to, gone ones dropped, and streams that
+ * ended or failed since are opened again.
+ */
+@Slf4j
+class InstanceStreams implements Closeable, PublicMetrics {
+
+	private final ClusterStreamConfig config;
+	private final CloseableHttpAsyncClient client;
+	private final DiscoveryClient discovery;
+	private final ClusterStream stream;
+	private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+	private final AtomicLong failures = new AtomicLong();
+
+	InstanceStreams(ClusterStreamConfig config, CloseableHttpAsyncClient client, DiscoveryClient discovery,
+			ClusterStream stream) {
+		this.config = config;
+		this.client = client;
+		this.discovery = discovery;
+		this.stream = stream;
+	}
+
+	@EventListener({ContextRefreshedEvent.class, HeartbeatEvent.class})
+	public synchronized void refresh() {
+		Set<String> current = new HashSet<>();
+		for (String service : config.services) {
+			for (ServiceInstance instance : discovery.getInstances(service)) {
+				String uri = instance.getUri() + config.path;
+				current.add(uri);
+				if (!subscriptions.containsKey(uri)) {
+					subscribe(uri);
+				}
+			}
+		}
+		for (String uri : subscriptions.keySet()) {
+			if (!current.contains(uri)) {
+				unsubscribe(uri);
+			}
+		}
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		return Arrays.asList(
+				new Metric<>("hystrix.cluster.instances", subscriptions.size()),
+				new Metric<>("hystrix.cluster.failures", failures.get()));
+	}
+
+	@Override
+	public synchronized void close() {
+		for (String uri : subscriptions.keySet()) {
+			unsubscribe(uri);
+		}
+	}
+
+	private void subscribe(String uri) {
+		Subscription subscription = new Subscription(uri);
+		subscriptions.put(uri, subscription);
+		subscription.call = client.execute(HttpAsyncMethods.createGet(uri),
+				new EventStreamConsumer(uri, stream, config.bufferSize), subscription);
+		log.info("Subscribed to the Hystrix stream of {}", uri);
+	}
+
+	private void unsubscribe(String uri) {
+		Subscription subscription = subscriptions.remove(uri);
+		if (subscription != null) {
+			Future<Void> call = subscription.call;
+			if (call != null) {
+				call.cancel(true);
+			}
+			stream.remove(uri);
+		}
+	}
+
+	/**
+	 * Forgets the stream once it's over, so that the next refresh opens it again if the instance is still there.
+	 */
+	private class Subscription implements FutureCallback<Void> {
+
+		private final String uri;
+
+		volatile Future<Void> call;
+
+		Subscription(String uri) {
+			this.uri = uri;
+		}
+
+		@Override
+		public void completed(Void result) {
+			log.info("Hystrix stream of {} ended", uri);
+			end();
+		}
+
+		@Override
+		public void failed(Exception e) {
+			log.warn("Hystrix stream of {} failed: {}", uri, e.toString());
+			failures.incrementAndGet();
+			end();
+		}
+
+		@Override
+		public void cancelled() {
+			end();
+		}
+
+		private void end() {
+			if (subscriptions.remove(uri, this)) {
+				stream.remove(uri);
+			}
+		}
+	}
+}
+
+/**
+ * Takes the {@code data:} lines of a server-sent event stream as they arrive, leaving an incomplete line in the
+ * buffer until its end arrives.
+ */
+class EventStreamConsumer extends AbstractAsyncResponseConsumer<Void> {
+
+	private final String instance;
+	private final ClusterStream stream;
+	private final ByteBuffer buffer;
+	private boolean skipping;
+
+	EventStreamConsumer(String instance, ClusterStream stream, int bufferSize) {
+		this.instance = instance;
+		this.stream = stream;
+		this.buffer = ByteBuffer.allocate(bufferSize);
+	}
+
+	@Override
+	protected void onResponseReceived(HttpResponse response) throws IOException {
+		if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+			throw new IOException("Unexpected status " + response.getStatusLine());
+		}
+	}
+
+	@Override
+	protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) {
+	}
+
+	@Override
+	protected void onContentReceived(ContentDecoder decoder, IOControl ioControl) throws IOException {
+		while (decoder.read(buffer) > 0) {
+			buffer.flip();
+			lines();
+			buffer.compact();
+		}
+	}
+
+	@Override
+	protected Void buildResult(HttpContext context) {
+		return null;
+	}
+
+	@Override
+	protected void releaseResources() {
+	}
+
+	private void lines() {
+		int start = buffer.position();
+		for (int index = start; index < buffer.limit(); index++) {
+			if (buffer.get(index) == '\n') {
+				if (!skipping) {
+					line(start, index);
+				}
+				skipping = false;
+				start = index + 1;
+			}
+		}
+		buffer.position(start);
+		if (start == 0 && buffer.limit() == buffer.capacity()) {
+			skipping = true;
+			buffer.position(buffer.limit());
+		}
+	}
+
+	private void line(int start, int end) {
+		byte[] bytes = new byte[end - start];
+		for (int index = 0; index < bytes.length; index++) {
+			bytes[index] = buffer.get(start + index);
+		}
+		String line = new String(bytes, StandardCharsets.UTF_8).trim();
+		if (line.startsWith("data:")) {
+			stream.accept(instance, line.substring("data:".length()).trim());
+		}
+	}
+}
@@ -0,0 +1,195 @@
+package com.example;
+
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.web.bind.annotation.RequestMethod.GET;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.Value;
+
+@Configuration
+@ConditionalOnProperty(name = "timeseries.enabled", havingValue = "true", matchIfMissing = true)
+@EnableConfigurationProperties(TimeSeriesConfig.class)
+public class TimeSeriesConfiguration {
+
+	@Bean
+	TimeSeriesStore timeSeriesStore(TimeSeriesConfig config) throws IOException {
+		return new TimeSeriesStore(config);
+	}
+
+	@Bean
+	GraphiteReceiver graphiteReceiver(TimeSeriesStore store, TimeSeriesConfig config) throws IOException {
+		return new GraphiteReceiver(store, config.port);
+	}
+
+	@Bean
+	TimeSeriesController timeSeriesController(TimeSeriesStore store) {
+		return new TimeSeriesController(store);
+	}
+}
+
+@Data
+@ConfigurationProperties(prefix = "timeseries")
+class TimeSeriesConfig {
+
+	/** Port taking Graphite's plaintext protocol, point the services' {@code graphite.port} here. */
+	int port = 2003;
+
+	/** Where to keep the points across restarts, only in memory when not set. */
+	String directory;
+
+	/** How long raw points are kept, in milliseconds. */
+	long retention = TimeUnit.HOURS.toMillis(6);
+
+	/** Coarser copies of every series, kept longer. */
+	List<Rollup> rollups = new ArrayList<>(Arrays.asList(
+			new Rollup(TimeUnit.MINUTES.toMillis(1), TimeUnit.DAYS.toMillis(7)),
+			new Rollup(TimeUnit.HOURS.toMillis(1), TimeUnit.DAYS.toMillis(90))));
+
+	/** Points compressed together, a chunk is written to its segment once full. */
+	int chunkSize = 720;
+
+	/**
+	 * How long points may still arrive out of order or be sent again, the last one sent for a second wins, in
+	 * milliseconds. Older ones are rejected.
+	 */
+	long lateness = TimeUnit.MINUTES.toMillis(1);
+
+	/** A chunk not full yet is written to its segment once its last point is this old, in milliseconds. */
+	long sealAfter = TimeUnit.HOURS.toMillis(1);
+
+	/** Series kept at most, the points of new ones are rejected beyond it. */
+	int maxSeries = 100_000;
+
+	/** Bytes of every segment, retention drops whole segments. */
+	int segmentSize = 8 * 1024 * 1024;
+
+	@Data
+	@NoArgsConstructor
+	@AllArgsConstructor
+	static class Rollup {
+
+		/** Time summarized by every point, in milliseconds. */
+		long step;
+
+		/** In milliseconds. */
+		long retention;
+	}
+}
+
+/**
+ * The part of Graphite's render API that dashboards use: series matching a pattern over a range, each as
+ * {@code [value, timestamp]} pairs.
+ */
+@RestController
+@RequestMapping("/timeseries")
+class TimeSeriesController {
+
+	private static final Pattern RELATIVE = Pattern.compile("-(\\d+)(s|min|h|d|w)");
+
+	private final TimeSeriesStore store;
+
+	TimeSeriesController(TimeSeriesStore store) {
+		this.store = store;
+	}
+
+	@RequestMapping(path = "/names", method = GET)
+	public List<String> names(@RequestParam(name = "query", defaultValue = "*") String query) {
+		return store.names(query);
+	}
+
+	/**
+	 * @param from          seconds since the epoch, {@code now} or relative to it like {@code -3h}
+	 * @param step          seconds per point, by default as much as keeps the points under {@code maxDataPoints}
+	 * @param aggregation   how the points of a step are summarized: avg, min, max, sum or count
+	 */
+	@RequestMapping(path = "/render", method = GET)
+	public List<Target> render(@RequestParam("target") String target,
+							   @RequestParam(name = "from", defaultValue = "-1h") String from,
+							   @RequestParam(name = "until", defaultValue = "now") String until,
+							   @RequestParam(name = "step", required = false) Long step,
+							   @RequestParam(name = "maxDataPoints", defaultValue = "1000") int maxDataPoints,
+							   @RequestParam(name = "aggregation", defaultValue = "avg") String aggregation) {
+		long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+		long start = seconds(from, now);
+		long end = seconds(until, now);
+		long seconds = step != null ? step : (end - start) / Math.max(maxDataPoints, 1) + 1;
+		TimeSeriesStore.Aggregation summary = aggregation(aggregation);
+		List<Target> targets = new ArrayList<>();
+		for (String name : store.names(target)) {
+			List<Object[]> datapoints = new ArrayList<>();
+			for (TimeSeriesStore.Point point : store.query(name, start, end, seconds, summary)) {
+				datapoints.add(new Object[] {point.value, point.timestamp});
+			}
+			targets.add(new Target(name, datapoints));
+		}
+		return targets;
+	}
+
+	private static long seconds(String time, long now) {
+		if ("now".equals(time)) {
+			return now;
+		}
+		Matcher relative = RELATIVE.matcher(time);
+		if (relative.matches()) {
+			long amount = Long.parseLong(relative.group(1));
+			switch (relative.group(2)) {
+				case "s":
+					return now - amount;
+				case "min":
+					return now - TimeUnit.MINUTES.toSeconds(amount);
+				case "h":
+					return now - TimeUnit.HOURS.toSeconds(amount);
+				case "d":
+					return now - TimeUnit.DAYS.toSeconds(amount);
+				default:
+					return now - TimeUnit.DAYS.toSeconds(7 * amount);
+			}
+		}
+		try {
+			return Long.parseLong(time);
+		} catch (NumberFormatException e) {
+			throw new InvalidQuery();
+		}
+	}
+
+	private static TimeSeriesStore.Aggregation aggregation(String aggregation) {
+		try {
+			return TimeSeriesStore.Aggregation.valueOf(aggregation.toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			throw new InvalidQuery();
+		}
+	}
+
+	@Value
+	static class Target {
+
+		String target;
+
+		List<Object[]> datapoints;
+	}
+}
+
+@ResponseStatus(value = BAD_REQUEST, reason = "Invalid time or aggregation!")
+class InvalidQuery extends RuntimeException {
+}
@@ -0,0 +1,507 @@
+package com.example;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps the points received from Graphite reporters compressed in {@link TimeSeriesChunk}s: raw points for
+ * {@code retention}, and for every rollup the min, max, sum and count of the raw points of each step for as long as
+ * the rollup is kept. Chunks being written stay on the heap; full ones move to {@link ChunkSegments}, one per
+ * resolution, and expire with them. Idle chunks and rollups are written too, once their series went quiet.
+ * <p>
+ * The points of the last {@code lateness} are held apart before being compressed, as Graphite does: a point sent again
+ * for the same second replaces the earlier one, and late points take their place among the others. Points older than
+ * that are final and ones sent for their seconds are rejected.
+ * <p>
+ * A query reads the coarsest resolution that is still fine enough for its step and still reaches back to its start.
+ */
+@Slf4j
+class TimeSeriesStore implements Closeable, PublicMetrics {
+
+	enum Aggregation {
+		AVG, MIN, MAX, SUM, COUNT
+	}
+
+	/** Value of one step of a query, null where no point was found. */
+	static class Point {
+
+		final long timestamp;
+		final Double value;
+
+		Point(long timestamp, Double value) {
+			this.timestamp = timestamp;
+			this.value = value;
+		}
+	}
+
+	private static final int MIN = 0;
+	private static final int MAX = 1;
+	private static final int SUM = 2;
+	private static final int COUNT = 3;
+
+	/** Steps returned by one query at most, the step grows when a range would need more. */
+	private static final int MAX_STEPS = 10_000;
+
+	private final List<Resolution> resolutions = new ArrayList<>();
+	private final int chunkSize;
+	private final long lateness;
+	private final long sealAfter;
+	private final int maxSeries;
+	private final LongSupplier clock;
+	private final NavigableMap<String, Series> series = new ConcurrentSkipListMap<>();
+	private final AtomicLong accepted = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final ScheduledExecutorService expiry = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "timeseries-expiry");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	TimeSeriesStore(TimeSeriesConfig config) throws IOException {
+		this(config, () -> TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+	}
+
+	TimeSeriesStore(TimeSeriesConfig config, LongSupplier clock) throws IOException {
+		this.chunkSize = config.chunkSize;
+		this.lateness = TimeUnit.MILLISECONDS.toSeconds(config.lateness);
+		this.sealAfter = TimeUnit.MILLISECONDS.toSeconds(config.sealAfter);
+		this.maxSeries = config.maxSeries;
+		this.clock = clock;
+		resolutions.add(new Resolution("raw", 0, config.retention, config));
+		for (TimeSeriesConfig.Rollup rollup : config.rollups) {
+			resolutions.add(new Resolution(TimeUnit.MILLISECONDS.toSeconds(rollup.step) + "s", rollup.step,
+					rollup.retention, config));
+		}
+		resolutions.sort((left, right) -> Long.compare(left.step, right.step));
+		for (int index = 0; index < resolutions.size(); index++) {
+			int resolution = index;
+			resolutions.get(index).segments.open((name, chunk) -> series(name).restore(resolution, chunk));
+		}
+		expiry.scheduleWithFixedDelay(this::expire, 1, 1, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * @param timestamp in seconds
+	 * @return false when the points of the series up to that second are final already, or when the series is new and
+	 * there are {@code maxSeries} already
+	 */
+	boolean add(String name, double value, long timestamp) {
+		Series series = this.series.get(name);
+		if (series == null && this.series.size() >= maxSeries) {
+			rejected.incrementAndGet();
+			return false;
+		}
+		boolean added = (series != null ? series : series(name)).add(value, timestamp, clock.getAsLong());
+		(added ? accepted : rejected).incrementAndGet();
+		return added;
+	}
+
+	/**
+	 * @param pattern Graphite's: {@code *} for any part of a name between dots, {@code {a,b}} for either
+	 */
+	List<String> names(String pattern) {
+		String prefix = literalPrefix(pattern);
+		Pattern regex = glob(pattern);
+		List<String> names = new ArrayList<>();
+		for (String name : series.subMap(prefix, true, prefix + Character.MAX_VALUE, false).keySet()) {
+			if (regex.matcher(name).matches()) {
+				names.add(name);
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * @param from    first second of the range
+	 * @param until   last second of the range
+	 * @param minStep seconds summarized by every point returned, more when the range would take too many
+	 */
+	List<Point> query(String name, long from, long until, long minStep, Aggregation aggregation) {
+		if (until < from) {
+			return new ArrayList<>();
+		}
+		long step = Math.max(minStep, Math.max(1, (until - from) / MAX_STEPS + 1));
+		long first = from - Math.floorMod(from, step);
+		int steps = (int) ((until - first) / step) + 1;
+		double[][] buckets = new double[steps][];
+		Series series = this.series.get(name);
+		if (series != null) {
+			int resolution = resolution(from, step);
+			// Segments expire whole, the points past retention they still hold aren't served
+			long oldest = Math.max(first, clock.getAsLong() - resolutions.get(resolution).retention);
+			long end = first + steps * step;
+			series.read(resolution, first, end, (timestamp, values) -> {
+				if (timestamp >= oldest && timestamp < end) {
+					int bucket = (int) ((timestamp - first) / step);
+					buckets[bucket] = merge(buckets[bucket], values);
+				}
+			});
+		}
+		List<Point> points = new ArrayList<>(steps);
+		for (int bucket = 0; bucket < steps; bucket++) {
+			points.add(new Point(first + bucket * step, value(buckets[bucket], aggregation)));
+		}
+		return points;
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		long bytes = resolutions.stream().mapToLong(resolution -> resolution.segments.size()).sum();
+		return Arrays.asList(
+				new Metric<>("timeseries.series", series.size()),
+				new Metric<>("timeseries.accepted", accepted.get()),
+				new Metric<>("timeseries.rejected", rejected.get()),
+				new Metric<>("timeseries.bytes", bytes));
+	}
+
+	/**
+	 * Writes the chunks still on the heap, rollups of unfinished steps included, so that a restart reads them back.
+	 */
+	@Override
+	public void close() {
+		expiry.shutdownNow();
+		for (Series series : this.series.values()) {
+			series.seal();
+		}
+		for (Resolution resolution : resolutions) {
+			resolution.segments.close();
+		}
+	}
+
+	/**
+	 * Settles the points older than {@code lateness}, writes the chunks of series gone quiet, then drops the segments
+	 * past their retention, along with the series left empty.
+	 */
+	void expire() {
+		long now = clock.getAsLong();
+		for (Series series : this.series.values()) {
+			series.idle(now);
+		}
+		for (int index = 0; index < resolutions.size(); index++) {
+			Resolution resolution = resolutions.get(index);
+			Set<ChunkSegments.Segment> expired = new HashSet<>(resolution.segments.expire(now - resolution.retention));
+			if (expired.isEmpty()) {
+				continue;
+			}
+			for (Series series : this.series.values()) {
+				series.expire(index, expired);
+			}
+		}
+		this.series.values().removeIf(Series::isEmpty);
+	}
+
+	private Series series(String name) {
+		return series.computeIfAbsent(name, Series::new);
+	}
+
+	/**
+	 * @return the coarsest resolution not coarser than the step that reaches back to {@code from}, else the finest
+	 * that reaches back to it, else the one kept longest
+	 */
+	private int resolution(long from, long step) {
+		long now = clock.getAsLong();
+		int chosen = -1;
+		for (int index = 0; index < resolutions.size(); index++) {
+			Resolution resolution = resolutions.get(index);
+			if (now - resolution.retention <= from && resolution.step <= step) {
+				chosen = index;
+			}
+		}
+		if (chosen != -1) {
+			return chosen;
+		}
+		for (int index = 0; index < resolutions.size(); index++) {
+			if (now - resolutions.get(index).retention <= from) {
+				return index;
+			}
+		}
+		return resolutions.size() - 1;
+	}
+
+	/**
+	 * Folds a raw point, or the min, max, sum and count of a rollup, into a bucket.
+	 */
+	private static double[] merge(double[] bucket, double[] values) {
+		boolean raw = values.length == 1;
+		double min = values[MIN];
+		double max = raw ? values[0] : values[MAX];
+		double sum = raw ? values[0] : values[SUM];
+		double count = raw ? 1 : values[COUNT];
+		if (bucket == null) {
+			return new double[] {min, max, sum, count};
+		}
+		bucket[MIN] = Math.min(bucket[MIN], min);
+		bucket[MAX] = Math.max(bucket[MAX], max);
+		bucket[SUM] += sum;
+		bucket[COUNT] += count;
+		return bucket;
+	}
+
+	private static Double value(double[] bucket, Aggregation aggregation) {
+		if (bucket == null) {
+			return null;
+		}
+		switch (aggregation) {
+			case MIN:
+				return bucket[MIN];
+			case MAX:
+				return bucket[MAX];
+			case SUM:
+				return bucket[SUM];
+			case COUNT:
+				return bucket[COUNT];
+			default:
+				return bucket[SUM] / bucket[COUNT];
+		}
+	}
+
+	private static String literalPrefix(String pattern) {
+		int wildcard = 0;
+		while (wildcard < pattern.length() && "*?{[".indexOf(pattern.charAt(wildcard)) == -1) {
+			wildcard++;
+		}
+		return pattern.substring(0, wildcard);
+	}
+
+	private static Pattern glob(String pattern) {
+		StringBuilder regex = new StringBuilder();
+		StringBuilder literal = new StringBuilder();
+		for (char c : pattern.toCharArray()) {
+			String replacement = c == '*' ? "[^.]*" : c == '?' ? "[^.]" : c == '{' ? "(?:" : c == '}' ? ")" : c == ',' ? "|" : null;
+			if (replacement == null) {
+				literal.append(c);
+				continue;
+			}
+			if (literal.length() > 0) {
+				regex.append(Pattern.quote(literal.toString()));
+				literal.setLength(0);
+			}
+			regex.append(replacement);
+		}
+		if (literal.length() > 0) {
+			regex.append(Pattern.quote(literal.toString()));
+		}
+		return Pattern.compile(regex.toString());
+	}
+
+	/**
+	 * One resolution: raw points, or a rollup summarizing {@code step} seconds in every point.
+	 */
+	private static class Resolution {
+
+		final long step;
+		final long retention;
+		final ChunkSegments segments;
+
+		/**
+		 * @param step      in milliseconds, zero for raw points
+		 * @param retention in milliseconds
+		 */
+		Resolution(String name, long step, long retention, TimeSeriesConfig config) throws IOException {
+			this.step = TimeUnit.MILLISECONDS.toSeconds(step);
+			this.retention = TimeUnit.MILLISECONDS.toSeconds(retention);
+			this.segments = new ChunkSegments(config.directory != null ? new File(config.directory, name) : null,
+					config.segmentSize);
+		}
+	}
+
+	private class Series {
+
+		final String name;
+		final List<TimeSeriesChunk> open = new ArrayList<>();
+		final List<List<ChunkSegments.Chunk>> sealed = new ArrayList<>();
+		/** Rollup of the step in progress for every resolution but raw: start, min, max, sum, count. */
+		final double[][] steps = new double[resolutions.size()][];
+		/** Points of the last {@code lateness}, not compressed yet as they may still change. */
+		final NavigableMap<Long, Double> pending = new TreeMap<>();
+		/** The last second compressed, or of a step rolled up, points up to it are final. */
+		long settled = Long.MIN_VALUE;
+
+		Series(String name) {
+			this.name = name;
+			for (Resolution resolution : resolutions) {
+				open.add(new TimeSeriesChunk(resolution.step == 0 ? 1 : 4));
+				sealed.add(new ArrayList<>());
+			}
+		}
+
+		synchronized boolean add(double value, long timestamp, long now) {
+			if (timestamp <= settled) {
+				return false;
+			}
+			pending.put(timestamp, value);
+			settle(now - lateness);
+			return true;
+		}
+
+		/**
+		 * Settles the points older than {@code lateness}, rolls up the steps that ended before, and writes the chunks
+		 * whose last point is older than {@code sealAfter}.
+		 */
+		synchronized void idle(long now) {
+			long until = now - lateness;
+			settle(until);
+			for (int index = 1; index < resolutions.size(); index++) {
+				if (steps[index] == null) {
+					continue;
+				}
+				long end = (long) steps[index][0] + resolutions.get(index).step - 1;
+				if (end <= until) {
+					roll(index);
+					settled = Math.max(settled, end);
+				}
+			}
+			for (int index = 0; index < resolutions.size(); index++) {
+				TimeSeriesChunk chunk = open.get(index);
+				if (chunk.count() > 0 && chunk.end() < now - sealAfter) {
+					seal(index);
+				}
+			}
+		}
+
+		/**
+		 * Compresses the pending points up to {@code until}.
+		 */
+		private void settle(long until) {
+			NavigableMap<Long, Double> due = pending.headMap(until, true);
+			for (Map.Entry<Long, Double> point : due.entrySet()) {
+				compress(point.getValue(), point.getKey());
+			}
+			due.clear();
+		}
+
+		private void compress(double value, long timestamp) {
+			if (!append(0, timestamp, value)) {
+				return;
+			}
+			settled = timestamp;
+			for (int index = 1; index < resolutions.size(); index++) {
+				long step = resolutions.get(index).step;
+				long start = timestamp - Math.floorMod(timestamp, step);
+				double[] current = steps[index];
+				if (current != null && (long) current[0] != start) {
+					roll(index);
+					current = null;
+				}
+				if (current == null) {
+					steps[index] = new double[] {start, value, value, value, 1};
+				} else {
+					current[1 + MIN] = Math.min(current[1 + MIN], value);
+					current[1 + MAX] = Math.max(current[1 + MAX], value);
+					current[1 + SUM] += value;
+					current[1 + COUNT]++;
+				}
+			}
+		}
+
+		synchronized void restore(int resolution, ChunkSegments.Chunk chunk) {
+			sealed.get(resolution).add(chunk);
+			if (resolution == 0) {
+				settled = Math.max(settled, chunk.end);
+			}
+		}
+
+		synchronized void read(int resolution, long from, long until, TimeSeriesChunk.PointConsumer consumer) {
+			for (ChunkSegments.Chunk chunk : sealed.get(resolution)) {
+				if (chunk.end >= from && chunk.start < until) {
+					chunk.forEach(consumer);
+				}
+			}
+			TimeSeriesChunk chunk = open.get(resolution);
+			if (chunk.count() > 0 && chunk.end() >= from && chunk.start() < until) {
+				chunk.forEach(consumer);
+			}
+			double[] step = steps[resolution];
+			if (step != null && step[0] >= from && step[0] < until) {
+				consumer.accept((long) step[0], Arrays.copyOfRange(step, 1, step.length));
+			}
+			long size = resolutions.get(resolution).step;
+			for (Map.Entry<Long, Double> point : pending.subMap(from, true, until, false).entrySet()) {
+				double value = point.getValue();
+				if (size == 0) {
+					consumer.accept(point.getKey(), new double[] {value});
+				} else {
+					consumer.accept(point.getKey() - Math.floorMod(point.getKey(), size), new double[] {value, value, value, 1});
+				}
+			}
+		}
+
+		synchronized void expire(int resolution, Set<ChunkSegments.Segment> expired) {
+			sealed.get(resolution).removeIf(chunk -> expired.contains(chunk.segment));
+		}
+
+		synchronized boolean isEmpty() {
+			for (int index = 0; index < resolutions.size(); index++) {
+				if (!sealed.get(index).isEmpty() || open.get(index).count() > 0 || steps[index] != null) {
+					return false;
+				}
+			}
+			return pending.isEmpty();
+		}
+
+		synchronized void seal() {
+			if (!pending.isEmpty()) {
+				settle(pending.lastKey());
+			}
+			for (int index = 1; index < resolutions.size(); index++) {
+				if (steps[index] != null) {
+					roll(index);
+				}
+			}
+			for (int index = 0; index < resolutions.size(); index++) {
+				if (open.get(index).count() > 0) {
+					seal(index);
+				}
+			}
+		}
+
+		private void roll(int resolution) {
+			double[] step = steps[resolution];
+			steps[resolution] = null;
+			append(resolution, (long) step[0], Arrays.copyOfRange(step, 1, step.length));
+		}
+
+		private boolean append(int resolution, long timestamp, double... values) {
+			TimeSeriesChunk chunk = open.get(resolution);
+			if (!chunk.append(timestamp, values)) {
+				return false;
+			}
+			if (chunk.count() >= chunkSize) {
+				seal(resolution);
+			}
+			return true;
+		}
+
+		private void seal(int resolution) {
+			TimeSeriesChunk chunk = open.get(resolution);
+			try {
+				sealed.get(resolution).add(resolutions.get(resolution).segments.write(name, chunk));
+				open.set(resolution, new TimeSeriesChunk(chunk.columns()));
+			} catch (IOException e) {
+				log.warn("Unable to write chunk of {}, keeping it on the heap: {}", name, e.getMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,275 @@
+package com.example;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.junit.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+
+public class ClusterStreamTest {
+
+	ClusterStreamConfig config = new ClusterStreamConfig();
+	long now = 1_476_000_000_000L;
+	ClusterStream stream = new ClusterStream(config, () -> now);
+
+	@Test
+	public void should_merge_the_reports_of_a_command_across_instances() {
+		// given
+		stream.accept("first", command(90, 10, false, 20, 100));
+		stream.accept("second", command(10, 10, true, 60, 300));
+
+		// when
+		List<Map<String, Object>> merged = stream.merge();
+
+		// then
+		assertThat(merged).hasSize(1);
+		Map<String, Object> report = merged.get(0);
+		assertThat(report).containsEntry("name", "listReservationsSafely")
+				.containsEntry("requestCount", 100L)
+				.containsEntry("errorCount", 20L)
+				.containsEntry("errorPercentage", 20L)
+				.containsEntry("reportingHosts", 2L)
+				.containsEntry("isCircuitBreakerOpen", true)
+				.containsEntry("propertyValue_circuitBreakerErrorThresholdPercentage", 50)
+				.containsEntry("latencyExecute_mean", 24L);
+		@SuppressWarnings("unchecked")
+		Map<String, Object> latencies = (Map<String, Object>) report.get("latencyExecute");
+		assertThat(latencies).containsEntry("50", 24L).containsEntry("99", 120L);
+	}
+
+	@Test
+	public void should_leave_out_instances_gone_or_silent() {
+		// given
+		stream.accept("first", command(90, 10, false, 20, 100));
+		stream.accept("second", command(10, 10, true, 60, 300));
+		stream.accept("third", command(5, 0, false, 5, 10));
+
+		// when
+		stream.remove("second");
+		now += config.staleAfter;
+		stream.accept("first", command(80, 0, false, 20, 100));
+		now += 1;
+		List<Map<String, Object>> merged = stream.merge();
+
+		// then
+		assertThat(merged).hasSize(1);
+		assertThat(merged.get(0)).containsEntry("requestCount", 80L).containsEntry("reportingHosts", 1L);
+	}
+
+	@Test
+	public void should_keep_sending_to_dashboards_while_one_is_stalled() throws Exception {
+		// given
+		CountDownLatch unstalled = new CountDownLatch(1);
+		CountDownLatch stalledFailed = new CountDownLatch(1);
+		BlockingQueue<SseEmitter.SseEventBuilder> sent = new LinkedBlockingQueue<>();
+		stream.subscribe(new SseEmitter() {
+
+			@Override
+			public void send(SseEventBuilder builder) throws IOException {
+				try {
+					unstalled.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			@Override
+			public synchronized void completeWithError(Throwable e) {
+				stalledFailed.countDown();
+			}
+		});
+		stream.subscribe(new SseEmitter() {
+
+			@Override
+			public void send(SseEventBuilder builder) {
+				sent.add(builder);
+			}
+		});
+		stream.accept("first", command(90, 10, false, 20, 100));
+
+		try {
+			// when
+			for (int tick = 0; tick < 3; tick++) {
+				assertThat(emitUntilSent(sent)).isTrue();
+				now += config.interval;
+			}
+			now += config.sendTimeout;
+			boolean sentAfterDrop = emitUntilSent(sent);
+
+			// then
+			assertThat(sentAfterDrop).isTrue();
+			assertThat(stalledFailed.await(1, TimeUnit.SECONDS)).isTrue();
+			assertThat(metric("hystrix.cluster.subscribers")).isEqualTo(1);
+			assertThat(metric("hystrix.cluster.skipped")).isGreaterThanOrEqualTo(2);
+			assertThat(metric("hystrix.cluster.dropped")).isEqualTo(1);
+		} finally {
+			unstalled.countDown();
+			stream.close();
+		}
+	}
+
+	@Test
+	public void should_send_every_dashboard_the_same_events() throws Exception {
+		// given
+		MockMvc mvc = MockMvcBuilders.standaloneSetup(new ClusterStreamController(stream)).build();
+		MockHttpServletResponse first = mvc.perform(get("/cluster.stream")).andReturn().getResponse();
+		MockHttpServletResponse second = mvc.perform(get("/cluster.stream")).andReturn().getResponse();
+		stream.accept("first", command(90, 10, false, 20, 100));
+		String event = "data:" + new ObjectMapper().writeValueAsString(stream.merge().get(0)) + "\n\n";
+		String events = event + event + event;
+
+		try {
+			// when
+			for (int tick = 0; tick < 3; tick++) {
+				stream.emit();
+				awaitSent(first, event.length() * (tick + 1));
+				awaitSent(second, event.length() * (tick + 1));
+			}
+
+			// then
+			assertThat(first.getContentAsString()).isEqualTo(events);
+			assertThat(second.getContentAsString()).isEqualTo(events);
+		} finally {
+			stream.close();
+		}
+	}
+
+	@Test
+	public void should_subscribe_to_the_streams_of_discovered_instances() throws Exception {
+		// given
+		CountDownLatch finished = new CountDownLatch(1);
+		HttpServer instance = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		instance.createContext("/hystrix.stream", exchange -> {
+			exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+			exchange.sendResponseHeaders(200, 0);
+			try (OutputStream body = exchange.getResponseBody()) {
+				body.write("ping: \n\n".getBytes(StandardCharsets.UTF_8));
+				body.flush();
+				String event = "data: " + command(42, 0, false, 5, 10) + "\n\n";
+				// Split mid line, the rest of it arrives later
+				body.write(event.substring(0, 20).getBytes(StandardCharsets.UTF_8));
+				body.flush();
+				Thread.sleep(50);
+				body.write(event.substring(20).getBytes(StandardCharsets.UTF_8));
+				body.flush();
+				finished.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		instance.start();
+		ServiceInstance discovered = new DefaultServiceInstance("reservationclient", "localhost",
+				instance.getAddress().getPort(), false);
+
+		try (CloseableHttpAsyncClient client = HttpAsyncClients.createDefault();
+			 InstanceStreams streams = new InstanceStreams(config, client, discovery(discovered), stream)) {
+			client.start();
+
+			// when
+			streams.refresh();
+
+			// then
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (stream.merge().isEmpty() && System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+			assertThat(stream.merge()).extracting(report -> report.get("requestCount")).containsExactly(42L);
+			assertThat(streams.metrics().stream()
+					.filter(metric -> metric.getName().equals("hystrix.cluster.instances"))
+					.map(metric -> metric.getValue().intValue())
+					.collect(Collectors.toList())).containsExactly(1);
+		} finally {
+			finished.countDown();
+			instance.stop(0);
+		}
+	}
+
+	/**
+	 * Emits again while the previous send to the fast dashboard is still finishing.
+	 */
+	private boolean emitUntilSent(BlockingQueue<SseEmitter.SseEventBuilder> sent) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (System.nanoTime() < deadline) {
+			stream.emit();
+			if (sent.poll(10, TimeUnit.MILLISECONDS) != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void awaitSent(MockHttpServletResponse dashboard, int length) throws Exception {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (dashboard.getContentAsString().length() < length && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+	}
+
+	private long metric(String name) {
+		return stream.metrics().stream()
+				.filter(metric -> metric.getName().equals(name))
+				.mapToLong(metric -> metric.getValue().longValue())
+				.sum();
+	}
+
+	private static String command(int requests, int errors, boolean open, int median, int p99) {
+		return "{\"type\":\"HystrixCommand\",\"name\":\"listReservationsSafely\",\"group\":\"ReservationApiGateway\","
+				+ "\"currentTime\":1476000000000,\"isCircuitBreakerOpen\":" + open + ","
+				+ "\"errorPercentage\":" + (requests == 0 ? 0 : errors * 100 / requests) + ","
+				+ "\"errorCount\":" + errors + ",\"requestCount\":" + requests + ","
+				+ "\"rollingCountSuccess\":" + (requests - errors) + ","
+				+ "\"latencyExecute_mean\":" + median + ","
+				+ "\"latencyExecute\":{\"0\":1,\"50\":" + median + ",\"99\":" + p99 + "},"
+				+ "\"propertyValue_circuitBreakerErrorThresholdPercentage\":50,\"reportingHosts\":1}";
+	}
+
+	private static DiscoveryClient discovery(ServiceInstance instance) {
+		return new DiscoveryClient() {
+
+			@Override
+			public String description() {
+				return "static";
+			}
+
+			@Override
+			public ServiceInstance getLocalServiceInstance() {
+				return null;
+			}
+
+			@Override
+			public List<ServiceInstance> getInstances(String serviceId) {
+				return serviceId.equals(instance.getServiceId()) ? Collections.singletonList(instance)
+						: Collections.emptyList();
+			}
+
+			@Override
+			public List<String> getServices() {
+				return Collections.singletonList(instance.getServiceId());
+			}
+		};
+	}
+}
@@ -0,0 +1,65 @@
+package com.example;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TimeSeriesChunkTest {
+
+	@Test
+	public void should_read_back_what_was_appended() {
+		// given
+		TimeSeriesChunk chunk = new TimeSeriesChunk(2);
+		Random random = new Random(42);
+		List<double[]> written = new ArrayList<>();
+		long timestamp = 1_476_000_000;
+
+		// when
+		for (int i = 0; i < 1_000; i++) {
+			timestamp += i % 100 == 0 ? random.nextInt(100_000) : 2;
+			double[] values = {random.nextGaussian() * 1_000, i % 10 == 0 ? random.nextDouble() : 42};
+			chunk.append(timestamp, values);
+			written.add(new double[] {timestamp, values[0], values[1]});
+		}
+
+		// then
+		List<double[]> read = new ArrayList<>();
+		chunk.forEach((at, values) -> read.add(new double[] {at, values[0], values[1]}));
+		assertThat(read).containsExactlyElementsOf(written);
+		assertThat(chunk.end()).isEqualTo(timestamp);
+	}
+
+	@Test
+	public void should_take_less_than_two_bytes_per_point_of_a_regular_counter() {
+		// given
+		TimeSeriesChunk chunk = new TimeSeriesChunk(1);
+
+		// when reported every two seconds, growing by a few requests at a time
+		for (int i = 0; i < 720; i++) {
+			chunk.append(1_476_000_000 + 2 * i, 1_000 + i / 3);
+		}
+
+		// then
+		assertThat(chunk.size()).isLessThan(2 * 720);
+	}
+
+	@Test
+	public void should_refuse_points_not_after_the_last_one() {
+		// given
+		TimeSeriesChunk chunk = new TimeSeriesChunk(1);
+		chunk.append(100, 1);
+
+		// when
+		boolean same = chunk.append(100, 2);
+		boolean older = chunk.append(99, 3);
+
+		// then
+		assertThat(same).isFalse();
+		assertThat(older).isFalse();
+		assertThat(chunk.count()).isEqualTo(1);
+	}
+}
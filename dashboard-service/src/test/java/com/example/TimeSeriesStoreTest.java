@@ -0,0 +1,208 @@
+package com.example;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TimeSeriesStoreTest {
+
+	static final long NOW = 1_476_000_000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	TimeSeriesConfig config = new TimeSeriesConfig();
+	long now = NOW;
+	TimeSeriesStore store;
+
+	@After
+	public void tearDown() {
+		if (store != null) {
+			store.close();
+		}
+	}
+
+	@Test
+	public void should_take_points_sent_over_graphite_plaintext() throws Exception {
+		// given
+		store = new TimeSeriesStore(config, () -> now);
+		try (GraphiteReceiver receiver = new GraphiteReceiver(store, 0)) {
+			receiver.start();
+
+			// when
+			try (Socket socket = new Socket("localhost", receiver.port());
+				 OutputStream out = socket.getOutputStream()) {
+				out.write(("reservations.counter.names 10 " + (NOW - 4) + "\n"
+						+ "reservations.counter.names 14 " + (NOW - 2) + "\n"
+						+ "not a point\n"
+						+ "reservations.gauge.heap 512.5 " + (NOW - 2) + "\n").getBytes(StandardCharsets.UTF_8));
+			}
+
+			// then
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (store.names("reservations.*.*").size() < 2 && System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+			assertThat(store.names("reservations.*.*"))
+					.containsExactly("reservations.counter.names", "reservations.gauge.heap");
+			assertThat(store.names("reservations.{gauge,timer}.*")).containsExactly("reservations.gauge.heap");
+			assertThat(receiver.malformed()).isEqualTo(1);
+		}
+		assertThat(values(store.query("reservations.counter.names", NOW - 10, NOW - 1, 10, TimeSeriesStore.Aggregation.MAX)))
+				.containsExactly(14.0);
+	}
+
+	@Test
+	public void should_aggregate_points_per_step() throws Exception {
+		// given
+		store = new TimeSeriesStore(config, () -> now);
+		for (long at = NOW - 60; at < NOW; at++) {
+			store.add("reservations.timer.latency", at % 2 == 0 ? 10 : 30, at);
+		}
+
+		// when
+		List<TimeSeriesStore.Point> avg = store.query("reservations.timer.latency", NOW - 60, NOW - 1, 20,
+				TimeSeriesStore.Aggregation.AVG);
+		List<TimeSeriesStore.Point> count = store.query("reservations.timer.latency", NOW - 60, NOW - 1, 20,
+				TimeSeriesStore.Aggregation.COUNT);
+		List<TimeSeriesStore.Point> gaps = store.query("reservations.timer.latency", NOW - 119, NOW - 1, 60,
+				TimeSeriesStore.Aggregation.MIN);
+
+		// then
+		assertThat(values(avg)).containsOnly(20.0);
+		assertThat(values(count)).containsExactly(20.0, 20.0, 20.0);
+		assertThat(values(gaps)).containsExactly(null, 10.0);
+	}
+
+	@Test
+	public void should_answer_from_rollups_once_raw_points_expired() throws Exception {
+		// given
+		config.setRetention(TimeUnit.MINUTES.toMillis(10));
+		config.setChunkSize(60);
+		config.setSegmentSize(4 * 1024);
+		store = new TimeSeriesStore(config, () -> now);
+		for (long at = NOW - TimeUnit.HOURS.toSeconds(2); at < NOW; at += 2) {
+			store.add("reservations.gauge.heap", 100 + at % 60, at);
+		}
+
+		// when
+		store.expire();
+		List<TimeSeriesStore.Point> lastHour = store.query("reservations.gauge.heap", NOW - 3_600, NOW - 1, 60,
+				TimeSeriesStore.Aggregation.MAX);
+
+		// then the rollup of a minute still knows the maximum of every minute
+		assertThat(values(lastHour)).hasSize(60).containsOnly(158.0);
+		assertThat(values(store.query("reservations.gauge.heap", NOW - 3_600, NOW - 3_600, 1,
+				TimeSeriesStore.Aggregation.COUNT))).containsExactly(30.0);
+	}
+
+	@Test
+	public void should_read_points_back_after_restart() throws Exception {
+		// given
+		config.setDirectory(folder.newFolder().getPath());
+		store = new TimeSeriesStore(config, () -> now);
+		for (long at = NOW - 1_000; at < NOW; at += 2) {
+			store.add("reservations.counter.names", at, at);
+		}
+		store.close();
+
+		// when
+		store = new TimeSeriesStore(config, () -> now);
+		boolean older = store.add("reservations.counter.names", 0, NOW - 2);
+		boolean newer = store.add("reservations.counter.names", NOW, NOW);
+
+		// then
+		assertThat(older).isFalse();
+		assertThat(newer).isTrue();
+		assertThat(values(store.query("reservations.counter.names", NOW - 10, NOW, 2, TimeSeriesStore.Aggregation.AVG)))
+				.containsExactly((double) NOW - 10, (double) NOW - 8, (double) NOW - 6, (double) NOW - 4,
+						(double) NOW - 2, (double) NOW);
+	}
+
+	@Test
+	public void should_keep_the_last_point_sent_for_a_second() throws Exception {
+		// given
+		store = new TimeSeriesStore(config, () -> now);
+		store.add("reservations.gauge.heap", 1, NOW - 5);
+		store.add("reservations.gauge.heap", 2, NOW - 10);
+		store.add("reservations.gauge.heap", 3, NOW - 5);
+
+		// when
+		List<Double> before = values(store.query("reservations.gauge.heap", NOW - 10, NOW - 1, 5,
+				TimeSeriesStore.Aggregation.SUM));
+		now += TimeUnit.MILLISECONDS.toSeconds(config.getLateness());
+		store.expire();
+		boolean resent = store.add("reservations.gauge.heap", 4, NOW - 5);
+
+		// then
+		assertThat(before).containsExactly(2.0, 3.0);
+		assertThat(resent).isFalse();
+		assertThat(values(store.query("reservations.gauge.heap", NOW - 10, NOW - 1, 5, TimeSeriesStore.Aggregation.SUM)))
+				.containsExactly(2.0, 3.0);
+		assertThat(values(store.query("reservations.gauge.heap", NOW - 60, NOW - 1, 60, TimeSeriesStore.Aggregation.COUNT)))
+				.containsExactly(2.0);
+	}
+
+	@Test
+	public void should_forget_series_gone_quiet_once_past_retention() throws Exception {
+		// given
+		config.setRetention(TimeUnit.MINUTES.toMillis(10));
+		config.setRollups(new ArrayList<>());
+		store = new TimeSeriesStore(config, () -> now);
+		store.add("reservations.gauge.heap", 1, NOW - TimeUnit.MINUTES.toSeconds(20));
+		store.add("reservations.gauge.heap", 2, NOW - 1);
+
+		// when
+		List<Double> lastHalfHour = values(store.query("reservations.gauge.heap", NOW - 1_800, NOW - 1, 60,
+				TimeSeriesStore.Aggregation.COUNT));
+		now += TimeUnit.DAYS.toSeconds(1);
+		store.expire();
+
+		// then
+		assertThat(lastHalfHour.stream().filter(count -> count != null).count()).isEqualTo(1);
+		assertThat(store.names("*.*.*")).isEmpty();
+		assertThat(metric("timeseries.series")).isEqualTo(0);
+	}
+
+	@Test
+	public void should_reject_points_of_new_series_beyond_the_limit() throws Exception {
+		// given
+		config.setMaxSeries(2);
+		store = new TimeSeriesStore(config, () -> now);
+		store.add("reservations.gauge.heap", 1, NOW - 2);
+		store.add("reservations.gauge.threads", 1, NOW - 2);
+
+		// when
+		boolean added = store.add("reservations.gauge.classes", 1, NOW - 1);
+		boolean existing = store.add("reservations.gauge.heap", 2, NOW - 1);
+
+		// then
+		assertThat(added).isFalse();
+		assertThat(existing).isTrue();
+		assertThat(store.names("reservations.gauge.*"))
+				.containsExactly("reservations.gauge.heap", "reservations.gauge.threads");
+		assertThat(metric("timeseries.rejected")).isEqualTo(1);
+	}
+
+	private long metric(String name) {
+		return store.metrics().stream()
+				.filter(metric -> metric.getName().equals(name))
+				.mapToLong(metric -> metric.getValue().longValue())
+				.sum();
+	}
+
+	private static List<Double> values(List<TimeSeriesStore.Point> points) {
+		return points.stream().map(point -> point.value).collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,716 @@
+package com.example;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.nio.protocol.BasicAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.protocol.HttpContext;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerClient;
+import org.springframework.cloud.netflix.ribbon.RibbonStatsRecorder;
+import org.springframework.cloud.netflix.ribbon.SpringClientFactory;
+import org.springframework.cloud.netflix.zuul.filters.Route;
+import org.springframework.cloud.netflix.zuul.filters.RouteLocator;
+import org.springframework.cloud.netflix.zuul.filters.ZuulProperties;
+import org.springframework.cloud.sleuth.Span;
+import org.springframework.cloud.sleuth.Tracer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+
+import com.netflix.loadbalancer.Server;
+import com.netflix.zuul.context.RequestContext;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+@Configuration
+@ConditionalOnProperty(name = "gateway.async.enabled", havingValue = "true")
+@EnableConfigurationProperties(AsyncProxyConfig.class)
+public class AsyncProxyConfiguration {
+
+	@Bean(initMethod = "start", destroyMethod = "close")
+	CloseableHttpAsyncClient asyncProxyClient(AsyncProxyConfig proxy) throws IOReactorException {
+		PoolingNHttpClientConnectionManager connections = new PoolingNHttpClientConnectionManager(
+				new DefaultConnectingIOReactor(IOReactorConfig.custom()
+						.setIoThreadCount(proxy.ioThreads)
+						.setConnectTimeout(proxy.connectTimeout)
+						.setSoTimeout(proxy.readTimeout)
+						.build()));
+		connections.setMaxTotal(proxy.maxConnections);
+		connections.setDefaultMaxPerRoute(proxy.maxConnectionsPerRoute);
+		return HttpAsyncClients.custom()
+				.setConnectionManager(connections)
+				.setDefaultRequestConfig(RequestConfig.custom()
+						.setConnectTimeout(proxy.connectTimeout)
+						.setSocketTimeout(proxy.readTimeout)
+						.setConnectionRequestTimeout(proxy.poolTimeout)
+						.setRedirectsEnabled(false)
+						.build())
+				.disableCookieManagement()
+				.build();
+	}
+
+	@Bean
+	AsyncProxyFilter asyncProxyFilter(AsyncProxyConfig proxy, CloseableHttpAsyncClient asyncProxyClient,
+			RouteLocator routes, ZuulProperties zuul, LoadBalancerClient loadBalancer, SpringClientFactory ribbon,
+			Limits limits, ResponseCache cache, ObjectProvider<Tracer> tracer) {
+		List<String> cached = proxy.routes.stream().filter(cache::isCached).collect(toList());
+		if (!cached.isEmpty()) {
+			throw new IllegalStateException("Routes " + cached + " are cached, so they can't be proxied asynchronously");
+		}
+		return new AsyncProxyFilter(proxy, asyncProxyClient, routes, zuul, loadBalancer, ribbon, limits, cache,
+				tracer.getIfAvailable());
+	}
+}
+
+@Data
+@ConfigurationProperties(prefix = "gateway.async")
+class AsyncProxyConfig {
+
+	/**
+	 * Proxy the routes without holding a servlet thread while the backend answers. Zuul filters don't
+	 * apply to requests proxied that way, the rate and concurrency limits are applied all the same.
+	 * Routes whose responses are cached are left to Zuul, listing one in {@code routes} fails startup.
+	 */
+	boolean enabled = false;
+
+	/** Ids of the routes proxied asynchronously, all of them when empty. */
+	List<String> routes = new ArrayList<>();
+
+	/** Threads handling socket events for all proxied requests. */
+	int ioThreads = Runtime.getRuntime().availableProcessors();
+
+	/** Pooled keep-alive connections across all backends. */
+	int maxConnections = 1_000;
+
+	/** Pooled keep-alive connections to a single backend instance. */
+	int maxConnectionsPerRoute = 500;
+
+	/** In milliseconds. */
+	int connectTimeout = 1_000;
+
+	/** In milliseconds. */
+	int readTimeout = 30_000;
+
+	/** How long to wait for a pooled connection, in milliseconds. */
+	int poolTimeout = 1_000;
+
+	/** How long a proxied request may take before it's answered with a 504, in milliseconds. */
+	long timeout = 60_000;
+
+	/** Bytes of the request and of the response body held per proxied request while the other side catches up. */
+	int bufferSize = 8 * 1024;
+}
+
+/**
+ * Proxies the requests of Zuul's routes with a non-blocking client instead of Zuul's filter chain.
+ * The servlet thread is given back as soon as the request is sent, and both bodies are passed on
+ * with the servlet's non-blocking I/O as they arrive, so that neither a slow client nor a slow
+ * backend ever blocks one of the few reactor threads. Routes are matched, stripped and their
+ * sensitive headers dropped just as Zuul does; service ids are balanced by Ribbon. The gateway's
+ * limits apply as they do to Zuul's routing, cached routes are left to Zuul. Runs right after
+ * tracing starts and before anything reads a form body, so the body is still there to pass on.
+ */
+@Slf4j
+class AsyncProxyFilter extends OncePerRequestFilter implements Ordered {
+
+	static final Set<String> HOP_BY_HOP = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+	static {
+		HOP_BY_HOP.addAll(asList(HttpHeaders.CONNECTION, "Keep-Alive", HttpHeaders.PROXY_AUTHENTICATE,
+				HttpHeaders.PROXY_AUTHORIZATION, HttpHeaders.TE, HttpHeaders.TRAILER,
+				HttpHeaders.TRANSFER_ENCODING, HttpHeaders.UPGRADE));
+	}
+
+	private final AsyncProxyConfig config;
+	private final CloseableHttpAsyncClient client;
+	private final RouteLocator routes;
+	private final ZuulProperties zuul;
+	private final LoadBalancerClient loadBalancer;
+	private final SpringClientFactory ribbon;
+	private final Limits limits;
+	private final ResponseCache cache;
+	private final Tracer tracer;
+	private final UrlPathHelper paths = new UrlPathHelper();
+
+	AsyncProxyFilter(AsyncProxyConfig config, CloseableHttpAsyncClient client, RouteLocator routes, ZuulProperties zuul,
+			LoadBalancerClient loadBalancer, SpringClientFactory ribbon, Limits limits, ResponseCache cache,
+			Tracer tracer) {
+		this.config = config;
+		this.client = client;
+		this.routes = routes;
+		this.zuul = zuul;
+		this.loadBalancer = loadBalancer;
+		this.ribbon = ribbon;
+		this.limits = limits;
+		this.cache = cache;
+		this.tracer = tracer;
+		this.paths.setUrlDecode(false);
+	}
+
+	@Override
+	public int getOrder() {
+		return Ordered.HIGHEST_PRECEDENCE + 10;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+		Route route;
+		try {
+			route = routes.getMatchingRoute(paths.getPathWithinApplication(request));
+		} finally {
+			// Matching looks at Zuul's thread bound context, which must not outlive this request
+			RequestContext.getCurrentContext().unset();
+		}
+		if (route == null || route.getLocation().startsWith("forward:") || cache.isCached(route.getId())
+				|| !config.routes.isEmpty() && !config.routes.contains(route.getId())) {
+			chain.doFilter(request, response);
+			return;
+		}
+		if (!limits.tryAcquireRate(route.getId(), limits.client(request))) {
+			reject(response, HttpStatus.TOO_MANY_REQUESTS);
+			return;
+		}
+		HttpHost target;
+		String path;
+		RibbonStatsRecorder stats = null;
+		if (route.getLocation().startsWith("http:") || route.getLocation().startsWith("https:")) {
+			URI url = URI.create(route.getLocation());
+			target = new HttpHost(url.getHost(), url.getPort(), url.getScheme());
+			path = url.getRawPath() + route.getPath();
+		} else {
+			ServiceInstance instance = loadBalancer.choose(route.getLocation());
+			if (instance == null) {
+				response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value());
+				return;
+			}
+			target = new HttpHost(instance.getHost(), instance.getPort(), instance.isSecure() ? "https" : "http");
+			path = route.getPath();
+			stats = new RibbonStatsRecorder(ribbon.getLoadBalancerContext(route.getLocation()),
+					new Server(instance.getHost(), instance.getPort()));
+		}
+		HttpRequest backendRequest = backendRequest(request, route, path.replaceAll("/{2,}", "/"));
+		Span span = tracer == null ? null : tracer.getCurrentSpan();
+		if (span != null) {
+			trace(backendRequest, span);
+		}
+		ConcurrencyLimiter backend = null;
+		if (limits.config.concurrency.enabled) {
+			backend = limits.tryAcquireBackend(route.getId());
+			if (backend == null) {
+				reject(response, HttpStatus.SERVICE_UNAVAILABLE);
+				return;
+			}
+		}
+
+		ProxyExchange exchange;
+		try {
+			AsyncContext async = request.startAsync();
+			async.setTimeout(config.timeout);
+			exchange = new ProxyExchange(async, config.bufferSize, stats, limits, backend, tracer, span);
+			async.addListener(exchange);
+		} catch (IOException | RuntimeException e) {
+			if (backend != null) {
+				backend.release(0, limits.config.concurrency);
+			}
+			throw e;
+		}
+		// Non-blocking servlet I/O can only be set up once the request is asynchronous
+		HttpAsyncRequestProducer producer;
+		if (backendRequest instanceof HttpEntityEnclosingRequest) {
+			StreamingRequestBody body = new StreamingRequestBody(request, config.bufferSize);
+			((HttpEntityEnclosingRequest) backendRequest).setEntity(body.entity());
+			producer = new StreamingRequestProducer(target, (HttpEntityEnclosingRequest) backendRequest, body);
+		} else {
+			producer = new BasicAsyncRequestProducer(target, backendRequest);
+		}
+		exchange.call = client.execute(producer, exchange.body, exchange);
+		if (span != null) {
+			// No MVC interceptor sees this request, so the span is handed over here and closed when it ends
+			tracer.detach(span);
+		}
+	}
+
+	private static void reject(HttpServletResponse response, HttpStatus status) {
+		response.setStatus(status.value());
+		response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+	}
+
+	private static void trace(HttpRequest backendRequest, Span span) {
+		backendRequest.setHeader(Span.TRACE_ID_NAME, Span.idToHex(span.getTraceId()));
+		backendRequest.setHeader(Span.SPAN_ID_NAME, Span.idToHex(span.getSpanId()));
+		backendRequest.setHeader(Span.SAMPLED_NAME, span.isExportable() ? Span.SPAN_SAMPLED : Span.SPAN_NOT_SAMPLED);
+		if (!span.getParents().isEmpty()) {
+			backendRequest.setHeader(Span.PARENT_ID_NAME, Span.idToHex(span.getParents().get(0)));
+		} else {
+			backendRequest.removeHeaders(Span.PARENT_ID_NAME);
+		}
+	}
+
+	private HttpRequest backendRequest(HttpServletRequest request, Route route, String path) {
+		String uri = request.getQueryString() == null ? path : path + "?" + request.getQueryString();
+		HttpRequest backendRequest;
+		if (request.getContentLengthLong() > 0 || request.getHeader(HttpHeaders.TRANSFER_ENCODING) != null) {
+			backendRequest = new BasicHttpEntityEnclosingRequest(request.getMethod(), uri);
+		} else {
+			backendRequest = new BasicHttpRequest(request.getMethod(), uri);
+		}
+		Set<String> sensitive = route.isCustomSensitiveHeaders() ? route.getSensitiveHeaders() : zuul.getSensitiveHeaders();
+		for (String name : Collections.list(request.getHeaderNames())) {
+			if (!HOP_BY_HOP.contains(name) && !HttpHeaders.HOST.equalsIgnoreCase(name)
+					&& !HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)
+					&& sensitive.stream().noneMatch(name::equalsIgnoreCase)) {
+				for (String value : Collections.list(request.getHeaders(name))) {
+					backendRequest.addHeader(name, value);
+				}
+			}
+		}
+		if (zuul.isAddProxyHeaders()) {
+			backendRequest.addHeader("X-Forwarded-Host", request.getHeader(HttpHeaders.HOST));
+			backendRequest.addHeader("X-Forwarded-Proto", request.getScheme());
+			if (route.getPrefix() != null && !route.getPrefix().isEmpty()) {
+				backendRequest.addHeader("X-Forwarded-Prefix", route.getPrefix());
+			}
+			String forwarded = request.getHeader("X-Forwarded-For");
+			backendRequest.setHeader("X-Forwarded-For",
+					forwarded == null ? request.getRemoteAddr() : forwarded + ", " + request.getRemoteAddr());
+		}
+		return backendRequest;
+	}
+
+	/**
+	 * Ends the client's request once the backend call is over and its body passed on, timed out
+	 * or failed, whichever happens first.
+	 */
+	private static class ProxyExchange implements FutureCallback<Void>, AsyncListener {
+
+		final StreamingResponseConsumer body;
+
+		private final AsyncContext async;
+		private final RibbonStatsRecorder stats;
+		private final Limits limits;
+		private final ConcurrencyLimiter backend;
+		private final long started = System.nanoTime();
+		private final Tracer tracer;
+		private final Span span;
+		private final AtomicBoolean done = new AtomicBoolean();
+
+		volatile Future<Void> call;
+
+		/** What the client is answered when the call is cancelled before anything was passed on. */
+		private volatile HttpStatus cancelledWith;
+
+		/**
+		 * @param backend the limiter whose slot this request took, {@code null} when none did
+		 */
+		ProxyExchange(AsyncContext async, int bufferSize, RibbonStatsRecorder stats, Limits limits,
+				ConcurrencyLimiter backend, Tracer tracer, Span span) throws IOException {
+			this.body = new StreamingResponseConsumer((HttpServletResponse) async.getResponse(), bufferSize, this::abort);
+			this.async = async;
+			this.stats = stats;
+			this.limits = limits;
+			this.backend = backend;
+			this.tracer = tracer;
+			this.span = span;
+		}
+
+		@Override
+		public void completed(Void result) {
+			if (stats != null) {
+				stats.recordStats(async.getResponse());
+			}
+			body.end(() -> finish(null));
+		}
+
+		@Override
+		public void failed(Exception e) {
+			if (done.get()) {
+				// Closed after the client's request timed out or went away
+				return;
+			}
+			log.warn("Proxied request to {} failed", ((HttpServletRequest) async.getRequest()).getRequestURI(), e);
+			if (stats != null) {
+				stats.recordStats(e);
+			}
+			finish(HttpStatus.BAD_GATEWAY);
+		}
+
+		@Override
+		public void cancelled() {
+			finish(cancelledWith);
+		}
+
+		@Override
+		public void onTimeout(AsyncEvent event) {
+			// Cancelling calls cancelled() right away, which must answer with the timeout
+			cancelledWith = HttpStatus.GATEWAY_TIMEOUT;
+			cancel();
+			finish(HttpStatus.GATEWAY_TIMEOUT);
+		}
+
+		@Override
+		public void onError(AsyncEvent event) {
+			cancel();
+		}
+
+		@Override
+		public void onComplete(AsyncEvent event) {
+		}
+
+		@Override
+		public void onStartAsync(AsyncEvent event) {
+		}
+
+		/**
+		 * The client is gone, so is any reason to go on with the backend call.
+		 */
+		private void abort() {
+			cancel();
+			finish(null);
+		}
+
+		private void cancel() {
+			Future<Void> call = this.call;
+			if (call != null) {
+				call.cancel(true);
+			}
+		}
+
+		private void finish(HttpStatus status) {
+			if (!done.compareAndSet(false, true)) {
+				return;
+			}
+			body.detach();
+			if (backend != null) {
+				backend.release(System.nanoTime() - started, limits.config.concurrency);
+			}
+			HttpServletResponse response = (HttpServletResponse) async.getResponse();
+			if (status != null && !response.isCommitted()) {
+				response.reset();
+				response.setStatus(status.value());
+			}
+			async.complete();
+			if (span != null) {
+				tracer.continueSpan(span);
+				tracer.close(span);
+			}
+		}
+	}
+}
+
+/**
+ * Passes the client's request body on to the backend as it arrives. The servlet input is read only
+ * while it has data ready and the backend connection waits for more meanwhile, so that a client
+ * sending slowly never blocks a reactor thread.
+ */
+class StreamingRequestBody implements HttpAsyncContentProducer, ReadListener {
+
+	private final ServletInputStream body;
+	private final long length;
+	private final String contentType;
+	private final ByteBuffer buffer;
+
+	/** The backend connection while it waits for the client, guarded by this. */
+	private IOControl waiting;
+	private boolean finished;
+	private Throwable failure;
+
+	StreamingRequestBody(HttpServletRequest request, int bufferSize) throws IOException {
+		this.body = request.getInputStream();
+		this.length = request.getContentLengthLong();
+		this.contentType = request.getContentType();
+		this.buffer = ByteBuffer.allocate(bufferSize);
+		body.setReadListener(this);
+	}
+
+	/**
+	 * @return the length and type of the body for the backend request's headers, its content is
+	 * produced by this
+	 */
+	HttpEntity entity() {
+		BasicHttpEntity entity = new BasicHttpEntity();
+		entity.setContentLength(length);
+		entity.setChunked(length < 0);
+		entity.setContentType(contentType);
+		return entity;
+	}
+
+	@Override
+	public synchronized void produceContent(ContentEncoder encoder, IOControl control) throws IOException {
+		if (failure != null) {
+			throw new IOException("Reading the client's request failed", failure);
+		}
+		boolean ready = read();
+		buffer.flip();
+		encoder.write(buffer);
+		buffer.compact();
+		if (buffer.position() > 0) {
+			// Called again once the backend connection takes more
+			return;
+		}
+		if (finished) {
+			encoder.complete();
+		} else if (!ready) {
+			waiting = control;
+			control.suspendOutput();
+		}
+	}
+
+	/**
+	 * @return {@code false} when the client has nothing more to read for now
+	 */
+	private boolean read() throws IOException {
+		while (!finished && buffer.hasRemaining()) {
+			if (body.isFinished()) {
+				finished = true;
+			} else if (!body.isReady()) {
+				return false;
+			} else {
+				int read = body.read(buffer.array(), buffer.position(), buffer.remaining());
+				if (read == -1) {
+					finished = true;
+				} else {
+					buffer.position(buffer.position() + read);
+				}
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public synchronized void onDataAvailable() {
+		resume();
+	}
+
+	@Override
+	public synchronized void onAllDataRead() {
+		finished = true;
+		resume();
+	}
+
+	@Override
+	public synchronized void onError(Throwable t) {
+		failure = t;
+		resume();
+	}
+
+	private void resume() {
+		if (waiting != null) {
+			waiting.requestOutput();
+			waiting = null;
+		}
+	}
+
+	@Override
+	public boolean isRepeatable() {
+		return false;
+	}
+
+	@Override
+	public void close() {
+	}
+}
+
+/**
+ * Sends the backend request with its body produced by a {@link StreamingRequestBody}.
+ */
+class StreamingRequestProducer extends BasicAsyncRequestProducer {
+
+	StreamingRequestProducer(HttpHost target, HttpEntityEnclosingRequest request, StreamingRequestBody body) {
+		super(target, request, body);
+	}
+}
+
+/**
+ * Copies the backend's status and headers to the client's response and passes its body on as it
+ * arrives. The servlet output is written only while it's ready to take more, and the backend
+ * connection isn't read any further until it is again, so that a client reading slowly holds back
+ * its own backend response only, never a reactor thread.
+ */
+class StreamingResponseConsumer extends AbstractAsyncResponseConsumer<Void> implements WriteListener {
+
+	private final HttpServletResponse response;
+	private final ServletOutputStream body;
+	private final ByteBuffer buffer;
+	private final Runnable abort;
+
+	/** The backend connection while it waits for the client, guarded by this. */
+	private IOControl waiting;
+	private Runnable end;
+	/** Set once the client's request is over, guarded by this: the response may be recycled for another one. */
+	private boolean detached;
+
+	/**
+	 * @param abort called when the client can't be written to anymore
+	 */
+	StreamingResponseConsumer(HttpServletResponse response, int bufferSize, Runnable abort) throws IOException {
+		this.response = response;
+		this.body = response.getOutputStream();
+		this.buffer = ByteBuffer.allocate(bufferSize);
+		this.abort = abort;
+		body.setWriteListener(this);
+	}
+
+	@Override
+	protected synchronized void onResponseReceived(HttpResponse backendResponse) {
+		if (detached) {
+			return;
+		}
+		response.setStatus(backendResponse.getStatusLine().getStatusCode());
+		for (Header header : backendResponse.getAllHeaders()) {
+			if (!AsyncProxyFilter.HOP_BY_HOP.contains(header.getName())) {
+				response.addHeader(header.getName(), header.getValue());
+			}
+		}
+	}
+
+	@Override
+	protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) {
+	}
+
+	@Override
+	protected synchronized void onContentReceived(ContentDecoder decoder, IOControl control) throws IOException {
+		if (detached) {
+			control.shutdown();
+			return;
+		}
+		while (buffer.hasRemaining() && decoder.read(buffer) > 0) {
+			// Fills the buffer with what the backend connection has
+		}
+		if (!write()) {
+			waiting = control;
+			control.suspendInput();
+		}
+	}
+
+	/**
+	 * Runs {@code end} once all of the body received is passed on.
+	 */
+	synchronized void end(Runnable end) {
+		if (buffer.position() == 0) {
+			end.run();
+		} else {
+			this.end = end;
+		}
+	}
+
+	/**
+	 * Stops passing anything on. Cancelling the backend call only ends its future, the connection goes
+	 * on until the backend answers, which must not reach a response handed over to another request by then.
+	 */
+	synchronized void detach() {
+		detached = true;
+		end = null;
+		if (waiting != null) {
+			try {
+				waiting.shutdown();
+			} catch (IOException e) {
+				// Closed already
+			}
+			waiting = null;
+		}
+	}
+
+	@Override
+	public synchronized void onWritePossible() throws IOException {
+		if (detached || !write()) {
+			return;
+		}
+		if (waiting != null) {
+			waiting.requestInput();
+			waiting = null;
+		}
+		if (end != null) {
+			end.run();
+			end = null;
+		}
+	}
+
+	@Override
+	public void onError(Throwable t) {
+		abort.run();
+	}
+
+	/**
+	 * @return {@code false} when the client isn't ready to take the buffer yet
+	 */
+	private boolean write() throws IOException {
+		if (buffer.position() == 0) {
+			return true;
+		}
+		if (!body.isReady()) {
+			return false;
+		}
+		body.write(buffer.array(), 0, buffer.position());
+		buffer.clear();
+		if (body.isReady()) {
+			body.flush();
+		}
+		return true;
+	}
+
+	@Override
+	protected Void buildResult(HttpContext context) {
+		return null;
+	}
+
+	@Override
+	protected void releaseResources() {
+	}
+}
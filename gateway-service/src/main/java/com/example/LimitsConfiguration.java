@@ -0,0 +1,384 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.netflix.zuul.ZuulFilter;
+import com.netflix.zuul.context.RequestContext;
+import lombok.Data;
+
+@Configuration
+@EnableConfigurationProperties(LimitsConfig.class)
+public class LimitsConfiguration {
+}
+
+/**
+ * Read on every request, so that limits refreshed from config-service apply at once.
+ */
+@Data
+@ConfigurationProperties(prefix = "gateway.limits")
+class LimitsConfig {
+
+	/** Rate limits by route id; routes not listed here are not rate limited. */
+	Map<String, Rate> routes = new HashMap<>();
+
+	/** Rate limit of every client address across all routes. */
+	Rate client = new Rate();
+
+	/** Adaptive limit of requests in flight to the backend of every route. */
+	Concurrency concurrency = new Concurrency();
+
+	/** Distinct client addresses tracked at most. */
+	long clients = 100_000;
+
+	/**
+	 * Addresses of the proxies in front of the gateway, whose {@code X-Forwarded-For} is trusted to name the client.
+	 * Requests from any other address are limited by that address, whatever the header says.
+	 */
+	List<String> trustedProxies = new ArrayList<>();
+
+	@Data
+	static class Rate {
+
+		/** Requests per second, zero for no limit. */
+		double rate = 0;
+
+		/** Requests allowed at once after a quiet period. */
+		int burst = 10;
+	}
+
+	@Data
+	static class Concurrency {
+
+		boolean enabled = true;
+
+		/** Requests in flight per route before any latency was seen. */
+		int initial = 100;
+
+		int min = 10;
+
+		int max = 1_000;
+
+		/** Responses slower than that shrink the limit, faster ones grow it, in milliseconds. */
+		long targetLatency = 500;
+
+		/** Factor applied to the limit at most once per target latency while responses are slow. */
+		double backoff = 0.9;
+	}
+}
+
+/**
+ * Token bucket kept as the time its next token is due (GCRA), so taking a token is a single CAS.
+ */
+class RateLimiter {
+
+	private final AtomicLong due = new AtomicLong(System.nanoTime());
+
+	boolean tryAcquire(LimitsConfig.Rate limit) {
+		if (limit.rate <= 0) {
+			return true;
+		}
+		long interval = (long) (TimeUnit.SECONDS.toNanos(1) / limit.rate);
+		long tolerance = interval * Math.max(limit.burst, 1);
+		while (true) {
+			long now = System.nanoTime();
+			long current = due.get();
+			long next = Math.max(current, now) + interval;
+			if (next - now > tolerance) {
+				return false;
+			}
+			if (due.compareAndSet(current, next)) {
+				return true;
+			}
+		}
+	}
+}
+
+/**
+ * Additive increase, multiplicative decrease of the requests allowed in flight, driven by the
+ * latency of the responses.
+ */
+class ConcurrencyLimiter {
+
+	private final AtomicInteger inflight = new AtomicInteger();
+	private final AtomicLong limit;
+	private final AtomicLong lastDecrease = new AtomicLong(System.nanoTime());
+
+	ConcurrencyLimiter(LimitsConfig.Concurrency config) {
+		this.limit = new AtomicLong(Double.doubleToLongBits(config.initial));
+	}
+
+	boolean tryAcquire() {
+		while (true) {
+			int current = inflight.get();
+			if (current >= (int) limit()) {
+				return false;
+			}
+			if (inflight.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	void release(long latency, LimitsConfig.Concurrency config) {
+		inflight.decrementAndGet();
+		long now = System.nanoTime();
+		long target = TimeUnit.MILLISECONDS.toNanos(config.targetLatency);
+		boolean slow = latency > target;
+		long last = lastDecrease.get();
+		if (slow && (now - last < target || !lastDecrease.compareAndSet(last, now))) {
+			return;
+		}
+		while (true) {
+			long bits = limit.get();
+			double current = Double.longBitsToDouble(bits);
+			double next = slow ? current * config.backoff : current + 1 / current;
+			next = Math.max(config.min, Math.min(config.max, next));
+			if (limit.compareAndSet(bits, Double.doubleToLongBits(next))) {
+				return;
+			}
+		}
+	}
+
+	double limit() {
+		return Double.longBitsToDouble(limit.get());
+	}
+
+	int inflight() {
+		return inflight.get();
+	}
+}
+
+/**
+ * Rate and concurrency limiters of all routes and clients. Their state and how many requests they
+ * turned away are published as {@code gateway.limits.*}.
+ */
+@Component
+class Limits implements PublicMetrics {
+
+	static final String ACQUIRED = "limitsAcquired";
+	static final String STARTED = "limitsStarted";
+
+	final LimitsConfig config;
+
+	private final ConcurrentMap<String, RateLimiter> routes = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, ConcurrencyLimiter> backends = new ConcurrentHashMap<>();
+	private final Cache<String, RateLimiter> clients;
+	private final AtomicLong throttled = new AtomicLong();
+	private final AtomicLong shed = new AtomicLong();
+
+	public Limits(LimitsConfig config) {
+		this.config = config;
+		this.clients = Caffeine.newBuilder()
+				.maximumSize(config.clients)
+				.expireAfterAccess(1, TimeUnit.MINUTES)
+				.build();
+	}
+
+	boolean tryAcquireRate(String route, String client) {
+		LimitsConfig.Rate routeLimit = config.routes.get(route);
+		boolean acquired = (routeLimit == null
+				|| routes.computeIfAbsent(route, r -> new RateLimiter()).tryAcquire(routeLimit))
+				&& (config.client.rate <= 0
+				|| clients.get(client, c -> new RateLimiter()).tryAcquire(config.client));
+		if (!acquired) {
+			throttled.incrementAndGet();
+		}
+		return acquired;
+	}
+
+	ConcurrencyLimiter tryAcquireBackend(String route) {
+		ConcurrencyLimiter limiter = backends.computeIfAbsent(route, r -> new ConcurrencyLimiter(config.concurrency));
+		if (limiter.tryAcquire()) {
+			return limiter;
+		}
+		shed.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * The nearest address that isn't one of the trusted proxies. Entries left of it in {@code X-Forwarded-For} were
+	 * written by the client itself, so they can't be told from made up ones.
+	 */
+	String client(HttpServletRequest request) {
+		String client = request.getRemoteAddr();
+		List<String> trusted = config.trustedProxies;
+		String forwarded = request.getHeader("X-Forwarded-For");
+		if (forwarded == null || !trusted.contains(client)) {
+			return client;
+		}
+		String[] hops = forwarded.split(",");
+		for (int index = hops.length - 1; index >= 0; index--) {
+			String hop = hops[index].trim();
+			if (hop.isEmpty()) {
+				break;
+			}
+			client = hop;
+			if (!trusted.contains(hop)) {
+				break;
+			}
+		}
+		return client;
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		metrics.add(new Metric<>("gateway.limits.throttled", throttled.get()));
+		metrics.add(new Metric<>("gateway.limits.shed", shed.get()));
+		backends.forEach((route, limiter) -> {
+			metrics.add(new Metric<>("gateway.limits." + route + ".concurrency", limiter.limit()));
+			metrics.add(new Metric<>("gateway.limits." + route + ".inflight", limiter.inflight()));
+		});
+		config.routes.forEach((route, limit) -> metrics.add(new Metric<>("gateway.limits." + route + ".rate", limit.rate)));
+		return metrics;
+	}
+}
+
+/**
+ * Turns requests away with a {@code 429} when their route or client is over its rate.
+ * Runs right after the route is known, ahead of the response cache.
+ */
+@Component
+class RateLimitFilter extends ZuulFilter {
+
+	private final Limits limits;
+
+	public RateLimitFilter(Limits limits) {
+		this.limits = limits;
+	}
+
+	@Override
+	public String filterType() {
+		return "pre";
+	}
+
+	@Override
+	public int filterOrder() {
+		return 7;
+	}
+
+	@Override
+	public boolean shouldFilter() {
+		RequestContext ctx = RequestContext.getCurrentContext();
+		return ctx.sendZuulResponse() && ctx.get("proxy") != null;
+	}
+
+	@Override
+	public Object run() {
+		RequestContext ctx = RequestContext.getCurrentContext();
+		if (!limits.tryAcquireRate((String) ctx.get("proxy"), limits.client(ctx.getRequest()))) {
+			reject(ctx, HttpStatus.TOO_MANY_REQUESTS);
+		}
+		return null;
+	}
+
+	static void reject(RequestContext ctx, HttpStatus status) {
+		ctx.setSendZuulResponse(false);
+		ctx.setResponseStatusCode(status.value());
+		ctx.addZuulResponseHeader(HttpHeaders.RETRY_AFTER, "1");
+	}
+}
+
+/**
+ * Sheds requests with a {@code 503} when the route's backend already has as many requests in flight
+ * as it can take. Runs after the response cache lookup, so that cached answers never take a slot.
+ */
+@Component
+class ConcurrencyLimitFilter extends ZuulFilter {
+
+	private final Limits limits;
+
+	public ConcurrencyLimitFilter(Limits limits) {
+		this.limits = limits;
+	}
+
+	@Override
+	public String filterType() {
+		return "pre";
+	}
+
+	@Override
+	public int filterOrder() {
+		return 20;
+	}
+
+	@Override
+	public boolean shouldFilter() {
+		RequestContext ctx = RequestContext.getCurrentContext();
+		return limits.config.concurrency.enabled && ctx.sendZuulResponse() && ctx.get("proxy") != null
+				&& (ctx.getRouteHost() != null || ctx.get("serviceId") != null);
+	}
+
+	@Override
+	public Object run() {
+		RequestContext ctx = RequestContext.getCurrentContext();
+		ConcurrencyLimiter backend = limits.tryAcquireBackend((String) ctx.get("proxy"));
+		if (backend == null) {
+			RateLimitFilter.reject(ctx, HttpStatus.SERVICE_UNAVAILABLE);
+			return null;
+		}
+		ctx.set(Limits.ACQUIRED, backend);
+		ctx.set(Limits.STARTED, System.nanoTime());
+		return null;
+	}
+}
+
+/**
+ * Gives the backend's slot back and tells its limiter how long the response took. Runs first
+ * among the post filters, which run after errors too.
+ */
+@Component
+class LimitsReleaseFilter extends ZuulFilter {
+
+	private final Limits limits;
+
+	public LimitsReleaseFilter(Limits limits) {
+		this.limits = limits;
+	}
+
+	@Override
+	public String filterType() {
+		return "post";
+	}
+
+	@Override
+	public int filterOrder() {
+		return 0;
+	}
+
+	@Override
+	public boolean shouldFilter() {
+		return RequestContext.getCurrentContext().containsKey(Limits.ACQUIRED);
+	}
+
+	@Override
+	public Object run() {
+		RequestContext ctx = RequestContext.getCurrentContext();
+		ConcurrencyLimiter backend = (ConcurrencyLimiter) ctx.remove(Limits.ACQUIRED);
+		long start = (Long) ctx.remove(Limits.STARTED);
+		backend.release(System.nanoTime() - start, limits.config.concurrency);
+		return null;
+	}
+}
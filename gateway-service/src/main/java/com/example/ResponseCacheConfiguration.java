@@ -0,0 +1,415 @@
+package com.example;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.joining;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.netflix.util.Pair;
+import com.netflix.zuul.ZuulFilter;
+import com.netflix.zuul.context.RequestContext;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Configuration
+@EnableConfigurationProperties(ResponseCacheConfig.class)
+public class ResponseCacheConfiguration {
+}
+
+@Data
+@ConfigurationProperties(prefix = "gateway.cache")
+class ResponseCacheConfig {
+
+	/** Ids of the routes whose GET responses are cached, e.g. {@code reservationservice}. */
+	List<String> routes = new ArrayList<>();
+
+	/**
+	 * Request headers the response depends on, part of the cache key. Responses that {@code Vary} on any other header
+	 * aren't cached.
+	 */
+	List<String> headers = new ArrayList<>(asList(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING));
+
+	/** Responses kept at most; the least valuable ones are evicted beyond that. */
+	long size = 1_000;
+
+	/**
+	 * How long a response is kept for revalidation after it went stale, in seconds, on top of its {@code max-age}.
+	 */
+	long retention = 600;
+
+	/** Bodies above this many bytes are passed through without being cached. */
+	int maxBodySize = 1024 * 1024;
+}
+
+@AllArgsConstructor
+class CachedResponse {
+
+	final int status;
+	final List<Pair<String, String>> headers;
+	final byte[] body;
+	final boolean gzipped;
+	final String etag;
+	final long freshUntil;
+
+	boolean isFresh() {
+		return System.currentTimeMillis() < freshUntil;
+	}
+
+	boolean isExpired(long retention) {
+		return System.currentTimeMillis() >= freshUntil + retention;
+	}
+
+	CachedResponse refreshed(long freshUntil) {
+		return new CachedResponse(status, headers, body, gzipped, etag, freshUntil);
+	}
+}
+
+/**
+ * Responses of the configured routes, fresh for as long as their {@code Cache-Control: max-age} says
+ * and revalidated with their {@code ETag} afterwards, until {@code retention} passed since they went stale.
+ * Caffeine here can only expire all entries after the same time, which would cut long {@code max-age}s short,
+ * so expired entries are dropped when looked up, and by the size bound otherwise. Hits, misses and
+ * revalidations are published as {@code gateway.cache.*}, along with the hit ratio.
+ */
+@Component
+class ResponseCache implements PublicMetrics {
+
+	static final String KEY = "responseCacheKey";
+	static final String STALE = "responseCacheStale";
+	static final String X_CACHE = "X-Cache";
+
+	private static final Pattern MAX_AGE = Pattern.compile("(?:s-maxage|max-age)\\s*=\\s*(\\d+)");
+
+	private final ResponseCacheConfig config;
+	private final Cache<String, CachedResponse> responses;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong revalidated = new AtomicLong();
+
+	public ResponseCache(ResponseCacheConfig config) {
+		this.config = config;
+		this.responses = Caffeine.newBuilder()
+				.maximumSize(config.size)
+				.build();
+	}
+
+	boolean isCached(String route) {
+		return route != null && config.routes.contains(route);
+	}
+
+	String key(String route, HttpServletRequest request) {
+		Map<String, String[]> parameters = new TreeMap<>(request.getParameterMap());
+		StringBuilder key = new StringBuilder(route).append(' ').append(request.getRequestURI()).append('?');
+		parameters.forEach((name, values) -> key.append(name).append('=').append(String.join(",", values)).append('&'));
+		for (String header : config.headers) {
+			key.append('\n').append(header.toLowerCase()).append(':')
+					.append(Collections.list(request.getHeaders(header)).stream().collect(joining(",")));
+		}
+		return key.toString();
+	}
+
+	CachedResponse get(String key) {
+		CachedResponse response = responses.getIfPresent(key);
+		if (response != null && response.isExpired(TimeUnit.SECONDS.toMillis(config.retention))) {
+			responses.asMap().remove(key, response);
+			return null;
+		}
+		return response;
+	}
+
+	int maxBodySize() {
+		return config.maxBodySize;
+	}
+
+	/**
+	 * Whether a response with these headers may be cached at all, told before its body is read.
+	 */
+	boolean isStorable(List<Pair<String, String>> headers) {
+		String cacheControl = header(headers, HttpHeaders.CACHE_CONTROL);
+		if (cacheControl != null && (cacheControl.contains("no-store") || cacheControl.contains("private"))) {
+			return false;
+		}
+		if (maxAge(cacheControl) == 0 && header(headers, HttpHeaders.ETAG) == null) {
+			return false;
+		}
+		for (Pair<String, String> header : headers) {
+			if (header.first().equalsIgnoreCase(HttpHeaders.VARY) && !isKeyed(header.second())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return {@code null} when the response must not be cached
+	 */
+	CachedResponse put(String key, int status, List<Pair<String, String>> headers, byte[] body, boolean gzipped) {
+		if (body.length > config.maxBodySize || !isStorable(headers)) {
+			return null;
+		}
+		long maxAge = maxAge(header(headers, HttpHeaders.CACHE_CONTROL));
+		String etag = header(headers, HttpHeaders.ETAG);
+		CachedResponse response = new CachedResponse(status, new ArrayList<>(headers), body, gzipped, etag,
+				System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(maxAge));
+		responses.put(key, response);
+		return response;
+	}
+
+	CachedResponse revalidate(String key, CachedResponse stale, List<Pair<String, String>> headers) {
+		revalidated.incrementAndGet();
+		CachedResponse response = stale.refreshed(System.currentTimeMillis()
+				+ TimeUnit.SECONDS.toMillis(maxAge(header(headers, HttpHeaders.CACHE_CONTROL))));
+		responses.put(key, response);
+		return response;
+	}
+
+	void hit() {
+		hits.incrementAndGet();
+	}
+
+	void miss() {
+		misses.incrementAndGet();
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		long hit = hits.get() + revalidated.get();
+		long all = hit + misses.get();
+		return asList(
+				new Metric<>("gateway.cache.hits", hits.get()),
+				new Metric<>("gateway.cache.misses", misses.get()),
+				new Metric<>("gateway.cache.revalidated", revalidated.get()),
+				new Metric<>("gateway.cache.size", responses.estimatedSize()),
+				new Metric<>("gateway.cache.hit-ratio", all == 0 ? 0.0 : (double) hit / all));
+	}
+
+	static String header(List<Pair<String, String>> headers, String name) {
+		return headers.stream()
+				.filter(header -> header.first().equalsIgnoreCase(name))
+				.map(Pair::second)
+				.findFirst().orElse(null);
+	}
+
+	/**
+	 * @return whether every request header named by a {@code Vary} value is part of the cache key
+	 */
+	private boolean isKeyed(String vary) {
+		for (String name : vary.split(",")) {
+			String header = name.trim();
+			if (!header.isEmpty() && config.headers.stream().noneMatch(header::equalsIgnoreCase)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static long maxAge(String cacheControl) {
+		if (cacheControl == null || cacheControl.contains("no-cache")) {
+			return 0;
+		}
+		Matcher maxAge = MAX_AGE.matcher(cacheControl);
+		return maxAge.find() ? Long.parseLong(maxAge.group(1)) : 0;
+	}
+}
+
+/**
+ * Answers GETs of cached routes from {@link ResponseCache} while the response is fresh. A stale one
+ * is revalidated by sending its {@code ETag} on to the backend. Runs right after the route is known.
+ */
+@Component
+class ResponseCacheLookupFilter extends ZuulFilter {
+
+	private final ResponseCache cache;
+
+	public ResponseCacheLookupFilter(ResponseCache cache) {
+		this.cache = cache;
+	}
+
+	@Override
+	public String filterType() {
+		return "pre";
+	}
+
+	@Override
+	public int filterOrder() {
+		return 10;
+	}
+
+	@Override
+	public boolean shouldFilter() {
+		RequestContext ctx = RequestContext.getCurrentContext();
+		HttpServletRequest request = ctx.getRequest();
+		String cacheControl = request.getHeader(HttpHeaders.CACHE_CONTROL);
+		return "GET".equals(request.getMethod()) && ctx.sendZuulResponse()
+				&& cache.isCached((String) ctx.get("proxy"))
+				&& (cacheControl == null || !cacheControl.contains("no-store"));
+	}
+
+	@Override
+	public Object run() {
+		RequestContext ctx = RequestContext.getCurrentContext();
+		HttpServletRequest request = ctx.getRequest();
+		String key = cache.key((String) ctx.get("proxy"), request);
+		String cacheControl = request.getHeader(HttpHeaders.CACHE_CONTROL);
+		CachedResponse cached = cacheControl != null && cacheControl.contains("no-cache") ? null : cache.get(key);
+		if (cached != null && cached.isFresh()) {
+			cache.hit();
+			// Without a target the routing filters stay out; not sending the Zuul response instead
+			// would keep SendResponseFilter from writing the cached body too
+			ctx.setRouteHost(null);
+			ctx.remove("serviceId");
+			String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+			if (cached.etag != null && cached.etag.equals(ifNoneMatch)) {
+				ctx.setResponseStatusCode(HttpStatus.NOT_MODIFIED.value());
+				ctx.addZuulResponseHeader(HttpHeaders.ETAG, cached.etag);
+			} else {
+				serve(ctx, cached);
+			}
+			ctx.addZuulResponseHeader(ResponseCache.X_CACHE, "HIT");
+			return null;
+		}
+		ctx.set(ResponseCache.KEY, key);
+		if (cached != null && cached.etag != null && request.getHeader(HttpHeaders.IF_NONE_MATCH) == null) {
+			ctx.set(ResponseCache.STALE, cached);
+			ctx.addZuulRequestHeader(HttpHeaders.IF_NONE_MATCH, cached.etag);
+		} else {
+			cache.miss();
+		}
+		return null;
+	}
+
+	static void serve(RequestContext ctx, CachedResponse cached) {
+		ctx.setResponseStatusCode(cached.status);
+		ctx.getZuulResponseHeaders().clear();
+		cached.headers.forEach(header -> ctx.addZuulResponseHeader(header.first(), header.second()));
+		ctx.setResponseGZipped(cached.gzipped);
+		ctx.setOriginContentLength((long) cached.body.length);
+		ctx.setResponseDataStream(new ByteArrayInputStream(cached.body));
+	}
+}
+
+/**
+ * Stores what the backend answered for a cached route, or serves the stale response it just
+ * confirmed with a {@code 304}. Runs before the response is sent.
+ */
+@Component
+class ResponseCacheStoreFilter extends ZuulFilter {
+
+	private final ResponseCache cache;
+
+	public ResponseCacheStoreFilter(ResponseCache cache) {
+		this.cache = cache;
+	}
+
+	@Override
+	public String filterType() {
+		return "post";
+	}
+
+	@Override
+	public int filterOrder() {
+		return 900;
+	}
+
+	@Override
+	public boolean shouldFilter() {
+		RequestContext ctx = RequestContext.getCurrentContext();
+		return ctx.containsKey(ResponseCache.KEY) && ctx.sendZuulResponse() && !ctx.containsKey("error.status_code");
+	}
+
+	@Override
+	public Object run() {
+		RequestContext ctx = RequestContext.getCurrentContext();
+		String key = (String) ctx.get(ResponseCache.KEY);
+		CachedResponse stale = (CachedResponse) ctx.get(ResponseCache.STALE);
+		int status = ctx.getResponseStatusCode();
+		if (stale != null && status == HttpStatus.NOT_MODIFIED.value()) {
+			ResponseCacheLookupFilter.serve(ctx, cache.revalidate(key, stale, ctx.getZuulResponseHeaders()));
+			ctx.addZuulResponseHeader(ResponseCache.X_CACHE, "REVALIDATED");
+			return null;
+		}
+		if (stale != null) {
+			cache.miss();
+		}
+		if (status == HttpStatus.OK.value() && ctx.getResponseDataStream() != null) {
+			store(ctx, key, status);
+			ctx.addZuulResponseHeader(ResponseCache.X_CACHE, "MISS");
+		}
+		return null;
+	}
+
+	/**
+	 * Buffers the body for the cache only while it fits, the rest of a larger one goes through as it arrives.
+	 */
+	private void store(RequestContext ctx, String key, int status) {
+		Long length = ctx.getOriginContentLength();
+		if (length != null && length > cache.maxBodySize() || !cache.isStorable(ctx.getZuulResponseHeaders())) {
+			return;
+		}
+		InputStream stream = ctx.getResponseDataStream();
+		byte[] head = read(stream, cache.maxBodySize() + 1);
+		if (head.length > cache.maxBodySize()) {
+			ctx.setResponseDataStream(new SequenceInputStream(new ByteArrayInputStream(head), stream));
+			return;
+		}
+		close(stream);
+		ctx.setResponseDataStream(new ByteArrayInputStream(head));
+		cache.put(key, status, ctx.getZuulResponseHeaders(), head, ctx.getResponseGZipped());
+	}
+
+	/**
+	 * @return the body up to {@code limit} bytes, fewer only when it ended before
+	 */
+	private static byte[] read(InputStream stream, int limit) {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(limit, StreamUtils.BUFFER_SIZE));
+			byte[] buffer = new byte[StreamUtils.BUFFER_SIZE];
+			int read;
+			while (out.size() < limit
+					&& (read = stream.read(buffer, 0, Math.min(buffer.length, limit - out.size()))) != -1) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} catch (IOException e) {
+			close(stream);
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void close(InputStream stream) {
+		try {
+			stream.close();
+		} catch (IOException e) {
+			// Fully read already
+		}
+	}
+}
@@ -0,0 +1,320 @@
+package com.example;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.embedded.LocalServerPort;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.util.StreamUtils;
+
+import com.sun.net.httpserver.HttpServer;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+		"zuul.routes.async.path=/async/**",
+		"zuul.routes.blocking.path=/blocking/**",
+		"gateway.async.enabled=true",
+		"gateway.async.routes=async",
+		"gateway.async.io-threads=1",
+		"server.tomcat.max-threads=10",
+		"spring.zipkin.enabled=false"})
+// Zuul caches its filters statically until the context that registered them closes
+@DirtiesContext
+public class AsyncProxyTest {
+
+	static final String ASYNC_URL = "zuul.routes.async.url";
+	static final String BLOCKING_URL = "zuul.routes.blocking.url";
+	static final long BACKEND_LATENCY = 500;
+	/** Well beyond Tomcat's async timeouts, which are checked once a second only. */
+	static final long STUCK_LATENCY = 5_000;
+	static final int CLIENTS = 50;
+	static final int LARGE = 64 * 1024 * 1024;
+
+	static HttpServer backend;
+	static final AtomicLong largeWritten = new AtomicLong();
+
+	@LocalServerPort int port;
+	@Autowired AsyncProxyConfig config;
+	@Autowired LimitsConfig limits;
+
+	@BeforeClass
+	public static void startBackend() throws Exception {
+		backend = HttpServer.create(new InetSocketAddress("localhost", 0), 200);
+		backend.setExecutor(Executors.newCachedThreadPool());
+		backend.createContext("/slow", exchange -> {
+			try {
+				Thread.sleep(BACKEND_LATENCY);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			byte[] body = "slow".getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		backend.createContext("/stuck", exchange -> {
+			try {
+				Thread.sleep(STUCK_LATENCY);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			exchange.sendResponseHeaders(200, -1);
+			exchange.close();
+		});
+		backend.createContext("/large", exchange -> {
+			byte[] chunk = new byte[64 * 1024];
+			Arrays.fill(chunk, (byte) 'x');
+			exchange.sendResponseHeaders(200, LARGE);
+			try (OutputStream out = exchange.getResponseBody()) {
+				for (int written = 0; written < LARGE; written += chunk.length) {
+					out.write(chunk);
+					largeWritten.addAndGet(chunk.length);
+				}
+			}
+		});
+		backend.createContext("/echo", exchange -> {
+			byte[] request = StreamUtils.copyToByteArray(exchange.getRequestBody());
+			byte[] body = (exchange.getRequestMethod() + " " + exchange.getRequestURI() + " "
+					+ exchange.getRequestHeaders().getFirst("X-Custom") + " "
+					+ new String(request, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().add("X-Backend", "stub");
+			exchange.sendResponseHeaders(201, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		backend.start();
+		String url = "http://localhost:" + backend.getAddress().getPort();
+		System.setProperty(ASYNC_URL, url);
+		System.setProperty(BLOCKING_URL, url);
+	}
+
+	@AfterClass
+	public static void stopBackend() {
+		System.clearProperty(ASYNC_URL);
+		System.clearProperty(BLOCKING_URL);
+		backend.stop(0);
+	}
+
+	@Test
+	public void should_proxy_request_and_response_through() throws Exception {
+		// given
+		HttpURLConnection connection = (HttpURLConnection) new URL(
+				"http://localhost:" + port + "/async/echo?name=Jan").openConnection();
+		connection.setRequestMethod("POST");
+		connection.setRequestProperty("X-Custom", "custom");
+		connection.setDoOutput(true);
+
+		// when
+		try (OutputStream out = connection.getOutputStream()) {
+			out.write("Jarek".getBytes(StandardCharsets.UTF_8));
+		}
+
+		// then
+		assertThat(connection.getResponseCode()).isEqualTo(201);
+		assertThat(connection.getHeaderField("X-Backend")).isEqualTo("stub");
+		try (InputStream in = connection.getInputStream()) {
+			assertThat(StreamUtils.copyToString(in, StandardCharsets.UTF_8))
+					.isEqualTo("POST /echo?name=Jan custom Jarek");
+		}
+	}
+
+	@Test
+	public void should_take_more_concurrent_requests_than_blocking_routing() throws Exception {
+		// given
+		get("/async/slow");
+		get("/blocking/slow");
+
+		// when
+		long async = load("/async/slow");
+		long blocking = load("/blocking/slow");
+
+		// then ten servlet threads take five rounds of the backend's latency when they block
+		assertThat(blocking).isGreaterThanOrEqualTo(4 * BACKEND_LATENCY);
+		assertThat(async).isLessThan(blocking / 2);
+	}
+
+	@Test
+	public void should_keep_answering_others_while_a_client_reads_slowly() throws Exception {
+		// given a client that doesn't read its large response for now
+		try (Socket slow = new Socket()) {
+			slow.setReceiveBufferSize(4 * 1024);
+			slow.connect(new InetSocketAddress("localhost", port));
+			slow.getOutputStream().write("GET /async/large HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"
+					.getBytes(StandardCharsets.US_ASCII));
+			long heldBack = awaitBackendHeldBack();
+
+			// when
+			ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+			List<Future<String>> answers = new ArrayList<>();
+			for (int i = 0; i < CLIENTS; i++) {
+				answers.add(clients.submit(() -> get("/async/slow")));
+			}
+
+			// then the only reactor thread isn't stuck writing to the slow client
+			try {
+				for (Future<String> answer : answers) {
+					assertThat(answer.get(5, TimeUnit.SECONDS)).isEqualTo("slow");
+				}
+			} finally {
+				clients.shutdownNow();
+			}
+			assertThat(heldBack).isLessThan(LARGE);
+			assertThat(bodyLength(slow.getInputStream())).isEqualTo(LARGE);
+		}
+	}
+
+	@Test
+	public void should_answer_gateway_timeout_when_the_backend_is_too_slow() throws Exception {
+		// given
+		long timeout = config.getTimeout();
+		config.setTimeout(BACKEND_LATENCY / 5);
+
+		try {
+			// when
+			int status = status("/async/stuck");
+
+			// then
+			assertThat(status).isEqualTo(504);
+		} finally {
+			config.setTimeout(timeout);
+		}
+	}
+
+	@Test
+	public void should_leave_the_response_alone_once_detached() throws Exception {
+		// given a backend answering after the client's request timed out
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		when(response.getOutputStream()).thenReturn(mock(ServletOutputStream.class));
+		StreamingResponseConsumer consumer = new StreamingResponseConsumer(response, 1024, () -> { });
+		consumer.detach();
+
+		// when
+		consumer.responseReceived(new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK"));
+
+		// then the response, recycled for another request by now, isn't touched
+		verify(response, never()).setStatus(anyInt());
+		verify(response, never()).addHeader(anyString(), anyString());
+	}
+
+	@Test
+	public void should_throttle_routes_over_their_rate() throws Exception {
+		// given
+		LimitsConfig.Rate rate = new LimitsConfig.Rate();
+		rate.setRate(0.1);
+		rate.setBurst(1);
+		limits.getRoutes().put("async", rate);
+
+		try {
+			// when
+			int first = status("/async/echo");
+			int second = status("/async/echo");
+
+			// then
+			assertThat(first).isEqualTo(201);
+			assertThat(second).isEqualTo(429);
+		} finally {
+			limits.getRoutes().remove("async");
+		}
+	}
+
+	/**
+	 * @return bytes the backend managed to write before everything on the way to the slow client was full
+	 */
+	private static long awaitBackendHeldBack() throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		long written = -1;
+		while (System.nanoTime() < deadline && (written <= 0 || written != largeWritten.get())) {
+			written = largeWritten.get();
+			Thread.sleep(200);
+		}
+		return written;
+	}
+
+	private static long bodyLength(InputStream response) throws IOException {
+		InputStream in = new BufferedInputStream(response);
+		for (int matched = 0; matched < 4; ) {
+			int read = in.read();
+			matched = read == "\r\n\r\n".charAt(matched) ? matched + 1 : read == '\r' ? 1 : 0;
+		}
+		long length = 0;
+		byte[] buffer = new byte[64 * 1024];
+		for (int read; (read = in.read(buffer)) != -1; ) {
+			length += read;
+		}
+		return length;
+	}
+
+	/**
+	 * @return milliseconds it took to get the answers of all clients at once
+	 */
+	private long load(String path) throws Exception {
+		ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+		try {
+			List<Callable<String>> calls = new ArrayList<>();
+			for (int i = 0; i < CLIENTS; i++) {
+				calls.add(() -> get(path));
+			}
+			long start = System.nanoTime();
+			for (Future<String> answer : clients.invokeAll(calls)) {
+				assertThat(answer.get()).isEqualTo("slow");
+			}
+			return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		} finally {
+			clients.shutdownNow();
+		}
+	}
+
+	private int status(String path) throws Exception {
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+		try {
+			return connection.getResponseCode();
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	private String get(String path) throws Exception {
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+		try (InputStream in = connection.getInputStream()) {
+			return StreamUtils.copyToString(in, StandardCharsets.UTF_8);
+		}
+	}
+}
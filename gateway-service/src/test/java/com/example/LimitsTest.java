@@ -0,0 +1,150 @@
+package com.example;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.netflix.zuul.context.RequestContext;
+
+public class LimitsTest {
+
+	LimitsConfig config = new LimitsConfig();
+
+	@After
+	public void tearDown() {
+		RequestContext.getCurrentContext().unset();
+	}
+
+	@Test
+	public void should_allow_burst_then_rate() throws Exception {
+		// given
+		LimitsConfig.Rate rate = new LimitsConfig.Rate();
+		rate.rate = 10;
+		rate.burst = 3;
+		RateLimiter limiter = new RateLimiter();
+
+		// when
+		boolean[] burst = {limiter.tryAcquire(rate), limiter.tryAcquire(rate), limiter.tryAcquire(rate),
+				limiter.tryAcquire(rate)};
+		Thread.sleep(120);
+
+		// then
+		assertThat(burst).containsExactly(true, true, true, false);
+		assertThat(limiter.tryAcquire(rate)).isTrue();
+	}
+
+	@Test
+	public void should_shrink_concurrency_while_backend_is_slow() throws Exception {
+		// given
+		config.concurrency.initial = 20;
+		config.concurrency.targetLatency = 10;
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(config.concurrency);
+		Thread.sleep(20);
+
+		// when
+		assertThat(limiter.tryAcquire()).isTrue();
+		limiter.release(TimeUnit.MILLISECONDS.toNanos(100), config.concurrency);
+		double shrunk = limiter.limit();
+		assertThat(limiter.tryAcquire()).isTrue();
+		limiter.release(TimeUnit.MILLISECONDS.toNanos(1), config.concurrency);
+
+		// then
+		assertThat(shrunk).isEqualTo(18);
+		assertThat(limiter.limit()).isGreaterThan(18).isLessThan(19);
+		assertThat(limiter.inflight()).isZero();
+	}
+
+	@Test
+	public void should_shed_once_backend_is_full() throws Exception {
+		// given
+		config.concurrency.initial = 1;
+		config.concurrency.min = 1;
+		Limits limits = new Limits(config);
+		ConcurrencyLimitFilter filter = new ConcurrencyLimitFilter(limits);
+		RequestContext ctx = context();
+		filter.run();
+
+		// when
+		RequestContext.getCurrentContext().unset();
+		RequestContext rejected = context();
+		filter.run();
+
+		// then
+		assertThat(ctx.get(Limits.ACQUIRED)).isNotNull();
+		assertThat(rejected.sendZuulResponse()).isFalse();
+		assertThat(rejected.getResponseStatusCode()).isEqualTo(503);
+	}
+
+	@Test
+	public void should_throttle_client_over_its_rate() throws Exception {
+		// given
+		config.client.rate = 1;
+		config.client.burst = 1;
+		RateLimitFilter filter = new RateLimitFilter(new Limits(config));
+		context();
+		filter.run();
+
+		// when
+		RequestContext.getCurrentContext().unset();
+		RequestContext throttled = context();
+		filter.run();
+
+		// then
+		assertThat(throttled.getResponseStatusCode()).isEqualTo(429);
+		assertThat(ResponseCache.header(throttled.getZuulResponseHeaders(), "Retry-After")).isEqualTo("1");
+	}
+
+	@Test
+	public void should_throttle_client_whatever_forwarded_for_it_makes_up() throws Exception {
+		// given
+		config.client.rate = 1;
+		config.client.burst = 1;
+		RateLimitFilter filter = new RateLimitFilter(new Limits(config));
+		context();
+		forwardedFor("10.0.0.1");
+		filter.run();
+
+		// when
+		RequestContext.getCurrentContext().unset();
+		RequestContext throttled = context();
+		forwardedFor("10.0.0.2");
+		filter.run();
+
+		// then
+		assertThat(throttled.getResponseStatusCode()).isEqualTo(429);
+	}
+
+	@Test
+	public void should_key_on_the_address_the_trusted_proxy_saw() {
+		// given
+		config.trustedProxies.add("127.0.0.1");
+		config.trustedProxies.add("10.1.1.1");
+		Limits limits = new Limits(config);
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/stub/names");
+		request.addHeader("X-Forwarded-For", "10.0.0.1, 192.168.1.7, 10.1.1.1");
+
+		// when
+		String client = limits.client(request);
+
+		// then
+		assertThat(client).isEqualTo("192.168.1.7");
+	}
+
+	private static void forwardedFor(String address) {
+		((MockHttpServletRequest) RequestContext.getCurrentContext().getRequest()).addHeader("X-Forwarded-For", address);
+	}
+
+	private static RequestContext context() {
+		RequestContext ctx = RequestContext.getCurrentContext();
+		ctx.setRequest(new MockHttpServletRequest("GET", "/stub/names"));
+		ctx.setResponse(new MockHttpServletResponse());
+		ctx.set("proxy", "stub");
+		ctx.set("serviceId", "stub");
+		return ctx;
+	}
+}
@@ -0,0 +1,174 @@
+package com.example;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.netflix.util.Pair;
+import com.sun.net.httpserver.HttpServer;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+		"zuul.routes.stub.path=/stub/**",
+		"gateway.cache.routes=stub",
+		"gateway.cache.max-body-size=" + ResponseCacheTest.MAX_BODY_SIZE,
+		"spring.zipkin.enabled=false"})
+// Zuul caches its filters statically until the context that registered them closes
+@DirtiesContext
+public class ResponseCacheTest {
+
+	static final String STUB_URL = "zuul.routes.stub.url";
+
+	static final int MAX_BODY_SIZE = 100;
+
+	static HttpServer backend;
+	static List<String> requests = new ArrayList<>();
+
+	@Autowired TestRestTemplate rest;
+
+	@BeforeClass
+	public static void startBackend() throws Exception {
+		backend = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		backend.createContext("/", exchange -> {
+			String ifNoneMatch = exchange.getRequestHeaders().getFirst(HttpHeaders.IF_NONE_MATCH);
+			requests.add(exchange.getRequestURI() + " " + ifNoneMatch);
+			if (exchange.getRequestURI().getPath().startsWith("/fresh")) {
+				exchange.getResponseHeaders().add(HttpHeaders.CACHE_CONTROL, "max-age=60");
+			}
+			exchange.getResponseHeaders().add(HttpHeaders.ETAG, "\"v1\"");
+			String vary = exchange.getRequestURI().getQuery();
+			if (vary != null && vary.startsWith("vary=")) {
+				exchange.getResponseHeaders().add(HttpHeaders.VARY, vary.substring("vary=".length()));
+			}
+			if ("\"v1\"".equals(ifNoneMatch)) {
+				exchange.sendResponseHeaders(304, -1);
+				exchange.close();
+				return;
+			}
+			byte[] body = ("[\"Jan\",\"" + exchange.getRequestURI() + "\"]").getBytes(StandardCharsets.UTF_8);
+			if (exchange.getRequestURI().getPath().startsWith("/large")) {
+				body = large().getBytes(StandardCharsets.UTF_8);
+			}
+			exchange.getResponseHeaders().add(HttpHeaders.CONTENT_TYPE, "application/json");
+			// Chunked bodies tell how large they are only once read
+			exchange.sendResponseHeaders(200, exchange.getRequestURI().getPath().endsWith("/chunked") ? 0 : body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		backend.start();
+		System.setProperty(STUB_URL, "http://localhost:" + backend.getAddress().getPort());
+	}
+
+	@AfterClass
+	public static void stopBackend() {
+		System.clearProperty(STUB_URL);
+		backend.stop(0);
+	}
+
+	@Before
+	public void setUp() {
+		requests.clear();
+	}
+
+	@Test
+	public void should_serve_fresh_response_from_cache() throws Exception {
+		// when
+		ResponseEntity<String> first = rest.getForEntity("/stub/fresh?page=1", String.class);
+		ResponseEntity<String> second = rest.getForEntity("/stub/fresh?page=1", String.class);
+		ResponseEntity<String> other = rest.getForEntity("/stub/fresh?page=2", String.class);
+
+		// then
+		assertThat(first.getHeaders().getFirst(ResponseCache.X_CACHE)).isEqualTo("MISS");
+		assertThat(second.getHeaders().getFirst(ResponseCache.X_CACHE)).isEqualTo("HIT");
+		assertThat(second.getBody()).isEqualTo(first.getBody()).contains("page=1");
+		assertThat(other.getBody()).contains("page=2");
+		assertThat(requests).containsExactly("/fresh?page=1 null", "/fresh?page=2 null");
+	}
+
+	@Test
+	public void should_revalidate_stale_response_with_etag() throws Exception {
+		// when
+		ResponseEntity<String> first = rest.getForEntity("/stub/etag", String.class);
+		ResponseEntity<String> second = rest.getForEntity("/stub/etag", String.class);
+
+		// then
+		assertThat(second.getStatusCodeValue()).isEqualTo(200);
+		assertThat(second.getHeaders().getFirst(ResponseCache.X_CACHE)).isEqualTo("REVALIDATED");
+		assertThat(second.getBody()).isEqualTo(first.getBody());
+		assertThat(requests).containsExactly("/etag null", "/etag \"v1\"");
+	}
+
+	@Test
+	public void should_pass_large_bodies_through_whole_without_caching_them() throws Exception {
+		// when
+		ResponseEntity<String> sized = rest.getForEntity("/stub/large/sized", String.class);
+		ResponseEntity<String> chunked = rest.getForEntity("/stub/large/chunked", String.class);
+		ResponseEntity<String> again = rest.getForEntity("/stub/large/chunked", String.class);
+
+		// then
+		assertThat(sized.getBody()).isEqualTo(large());
+		assertThat(chunked.getBody()).isEqualTo(large());
+		assertThat(again.getBody()).isEqualTo(large());
+		assertThat(again.getHeaders().getFirst(ResponseCache.X_CACHE)).isEqualTo("MISS");
+		assertThat(requests).containsExactly("/large/sized null", "/large/chunked null", "/large/chunked null");
+	}
+
+	@Test
+	public void should_cache_only_responses_varying_on_keyed_headers() throws Exception {
+		// when
+		rest.getForEntity("/stub/fresh?vary=Accept", String.class);
+		ResponseEntity<String> keyed = rest.getForEntity("/stub/fresh?vary=Accept", String.class);
+		rest.getForEntity("/stub/fresh?vary=Cookie", String.class);
+		ResponseEntity<String> unkeyed = rest.getForEntity("/stub/fresh?vary=Cookie", String.class);
+
+		// then
+		assertThat(keyed.getHeaders().getFirst(ResponseCache.X_CACHE)).isEqualTo("HIT");
+		assertThat(unkeyed.getHeaders().getFirst(ResponseCache.X_CACHE)).isEqualTo("MISS");
+		assertThat(requests).containsExactly("/fresh?vary=Accept null", "/fresh?vary=Cookie null",
+				"/fresh?vary=Cookie null");
+	}
+
+	@Test
+	public void should_keep_responses_fresh_beyond_retention_until_stale() throws Exception {
+		// given
+		ResponseCacheConfig config = new ResponseCacheConfig();
+		config.setRetention(0);
+		ResponseCache cache = new ResponseCache(config);
+		byte[] body = "[]".getBytes(StandardCharsets.UTF_8);
+
+		// when
+		cache.put("fresh", 200, asList(new Pair<>(HttpHeaders.CACHE_CONTROL, "max-age=60")), body, false);
+		cache.put("stale", 200, asList(new Pair<>(HttpHeaders.ETAG, "\"v1\"")), body, false);
+
+		// then
+		assertThat(cache.get("fresh")).isNotNull();
+		assertThat(cache.get("stale")).isNull();
+	}
+
+	private static String large() {
+		StringBuilder body = new StringBuilder("[");
+		while (body.length() < MAX_BODY_SIZE * 50) {
+			body.append("\"Jan\",");
+		}
+		return body.append("\"Maria\"]").toString();
+	}
+}
@@ -0,0 +1,329 @@
+package com.example.logging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import net.logstash.logback.LogstashFormatter;
+
+/**
+ * Ships logging events to Logstash as JSON lines without making the logging thread wait for
+ * encoding or the network. Events are queued, then encoded on a background thread into a reused
+ * buffer and sent several at a time, as many as fit into one UDP datagram or TCP write of
+ * {@code maxBatchSize} bytes. Once fewer than {@code discardingThreshold} queue slots are free,
+ * events below WARN are dropped to keep room for the rest; with the queue full, anything is.
+ * Queue depth, sent and dropped events are published by {@link LoggingMetrics}.
+ * <p>
+ * The JSON is the same as {@code LogstashSocketAppender}'s, one event per line, so Logstash
+ * reads it with the {@code json_lines} codec.
+ */
+public class AsyncLogstashAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+
+    public enum Protocol {
+        UDP, TCP
+    }
+
+    private static final int MAX_DRAIN = 256;
+
+    private final LogstashFormatter formatter = new LogstashFormatter(this);
+    private final Buffer buffer = new Buffer();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    private String host = "localhost";
+    private int port = 10042;
+    private Protocol protocol = Protocol.UDP;
+    private int queueSize = 8192;
+    private int discardingThreshold = -1;
+    private int maxBatchSize = 8192;
+    private long reconnectDelay = 1000;
+    private boolean includeCallerData;
+
+    private BlockingQueue<ILoggingEvent> queue;
+    private InetSocketAddress address;
+    private WritableByteChannel channel;
+    private long reconnectAt;
+    private Thread sender;
+    private volatile boolean running;
+
+    @Override
+    public void start() {
+        if (isStarted()) {
+            return;
+        }
+        if (port <= 0 || host == null) {
+            addError("No host and port set for appender [" + name + "]");
+            return;
+        }
+        if (discardingThreshold < 0) {
+            discardingThreshold = queueSize / 5;
+        }
+        formatter.setIncludeCallerData(includeCallerData);
+        formatter.start();
+        address = new InetSocketAddress(host, port);
+        queue = new ArrayBlockingQueue<>(queueSize);
+        running = true;
+        sender = new Thread(this::run, "logstash-" + name);
+        sender.setDaemon(true);
+        sender.start();
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        if (!isStarted()) {
+            return;
+        }
+        super.stop();
+        running = false;
+        try {
+            sender.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        formatter.stop();
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        if (queue.remainingCapacity() <= discardingThreshold && !event.getLevel().isGreaterOrEqual(Level.WARN)) {
+            dropped.incrementAndGet();
+            return;
+        }
+        event.prepareForDeferredProcessing();
+        if (includeCallerData) {
+            event.getCallerData();
+        }
+        if (!queue.offer(event)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private void run() {
+        List<ILoggingEvent> events = new ArrayList<>(MAX_DRAIN);
+        while (running || !queue.isEmpty()) {
+            try {
+                ILoggingEvent first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                events.add(first);
+                queue.drainTo(events, MAX_DRAIN - 1);
+                send(events);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                events.clear();
+            }
+        }
+        close();
+    }
+
+    private void send(List<ILoggingEvent> events) {
+        int batched = 0;
+        for (ILoggingEvent event : events) {
+            int mark = buffer.size();
+            try {
+                formatter.writeEventToOutputStream(event, buffer);
+                buffer.write('\n');
+            } catch (IOException | RuntimeException e) {
+                buffer.truncate(mark);
+                failed.incrementAndGet();
+                continue;
+            }
+            if (buffer.size() > maxBatchSize && mark > 0) {
+                write(mark, batched);
+                batched = 0;
+            }
+            batched++;
+        }
+        write(buffer.size(), batched);
+    }
+
+    /**
+     * Sends the first {@code length} bytes of the buffer, holding {@code count} events, and keeps the rest.
+     */
+    private void write(int length, int count) {
+        if (length == 0) {
+            return;
+        }
+        try {
+            WritableByteChannel channel = channel();
+            if (channel == null) {
+                failed.addAndGet(count);
+            } else if (protocol == Protocol.UDP) {
+                ((DatagramChannel) channel).send(buffer.slice(length), address);
+                sent.addAndGet(count);
+            } else {
+                ByteBuffer bytes = buffer.slice(length);
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                sent.addAndGet(count);
+            }
+        } catch (IOException e) {
+            failed.addAndGet(count);
+            addWarn("Failed to send " + count + " events to " + address + ", reconnecting", e);
+            close();
+            if (protocol == Protocol.TCP) {
+                reconnectAt = System.currentTimeMillis() + reconnectDelay;
+            }
+        } finally {
+            buffer.discard(length);
+        }
+    }
+
+    private WritableByteChannel channel() throws IOException {
+        if (channel == null && System.currentTimeMillis() >= reconnectAt) {
+            if (protocol == Protocol.UDP) {
+                channel = DatagramChannel.open();
+            } else {
+                try {
+                    channel = SocketChannel.open(address);
+                } catch (IOException e) {
+                    reconnectAt = System.currentTimeMillis() + reconnectDelay;
+                    throw e;
+                }
+            }
+        }
+        return channel;
+    }
+
+    private void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            channel = null;
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue == null ? 0 : queue.size();
+    }
+
+    /** Events turned away because the queue was (nearly) full. */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /** Events that could not be encoded or sent. */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public Protocol getProtocol() {
+        return protocol;
+    }
+
+    public void setProtocol(Protocol protocol) {
+        this.protocol = protocol;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /** Events waiting to be sent at most. */
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public int getDiscardingThreshold() {
+        return discardingThreshold;
+    }
+
+    /** Free queue slots below which events under WARN are dropped, a fifth of the queue by default. */
+    public void setDiscardingThreshold(int discardingThreshold) {
+        this.discardingThreshold = discardingThreshold;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /** Bytes sent in one datagram or write at most, unless a single event is bigger. */
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public long getReconnectDelay() {
+        return reconnectDelay;
+    }
+
+    /** How long to wait after a failed TCP connection before trying again, in milliseconds. */
+    public void setReconnectDelay(long reconnectDelay) {
+        this.reconnectDelay = reconnectDelay;
+    }
+
+    public boolean isIncludeCallerData() {
+        return includeCallerData;
+    }
+
+    public void setIncludeCallerData(boolean includeCallerData) {
+        this.includeCallerData = includeCallerData;
+    }
+
+    public void setCustomFields(String customFields) {
+        formatter.setCustomFieldsFromString(customFields);
+    }
+
+    /**
+     * Byte buffer reused for every batch, so encoding doesn't allocate once it has grown large enough.
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+
+        Buffer() {
+            super(16 * 1024);
+        }
+
+        ByteBuffer slice(int length) {
+            return ByteBuffer.wrap(buf, 0, length);
+        }
+
+        void truncate(int length) {
+            count = length;
+        }
+
+        void discard(int length) {
+            System.arraycopy(buf, length, buf, 0, count - length);
+            count -= length;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.logging;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+
+/**
+ * Publishes the state of every {@link AsyncLogstashAppender} as {@code logging.<appender>.*}.
+ */
+public class LoggingMetrics implements PublicMetrics {
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>();
+        for (AsyncLogstashAppender appender : appenders()) {
+            String prefix = "logging." + appender.getName();
+            metrics.add(new Metric<>(prefix + ".queue", appender.getQueueDepth()));
+            metrics.add(new Metric<>(prefix + ".sent", appender.getSent()));
+            metrics.add(new Metric<>(prefix + ".dropped", appender.getDropped()));
+            metrics.add(new Metric<>(prefix + ".failed", appender.getFailed()));
+        }
+        return metrics;
+    }
+
+    private static Set<AsyncLogstashAppender> appenders() {
+        Set<AsyncLogstashAppender> appenders = new LinkedHashSet<>();
+        if (!(LoggerFactory.getILoggerFactory() instanceof LoggerContext)) {
+            return appenders;
+        }
+        for (Logger logger : ((LoggerContext) LoggerFactory.getILoggerFactory()).getLoggerList()) {
+            for (Iterator<Appender<ILoggingEvent>> it = logger.iteratorForAppenders(); it.hasNext(); ) {
+                Appender<ILoggingEvent> appender = it.next();
+                if (appender instanceof AsyncLogstashAppender) {
+                    appenders.add((AsyncLogstashAppender) appender);
+                }
+            }
+        }
+        return appenders;
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.logging;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConditionalOnClass(PublicMetrics.class)
+public class LoggingMetricsAutoConfiguration {
+
+    @Bean
+    LoggingMetrics loggingMetrics() {
+        return new LoggingMetrics();
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.logging;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+public class AsyncLogstashAppenderTest {
+
+    static final int EVENTS = 100;
+
+    LoggerContext context = new LoggerContext();
+    Logger logger = context.getLogger("com.example.Reservations");
+    AsyncLogstashAppender appender = new AsyncLogstashAppender();
+
+    @After
+    public void tearDown() {
+        appender.stop();
+    }
+
+    @Test
+    public void should_send_several_events_per_datagram() throws Exception {
+        try (DatagramSocket logstash = new DatagramSocket(0)) {
+            // given
+            logstash.setSoTimeout(5000);
+            appender.setContext(context);
+            appender.setName("LOGSTASH");
+            appender.setPort(logstash.getLocalPort());
+            appender.setCustomFields("{\"service\":\"reservationservice\"}");
+            appender.start();
+            logger.addAppender(appender);
+
+            // when
+            for (int i = 0; i < EVENTS; i++) {
+                logger.info("found {}", i);
+            }
+
+            // then
+            List<String> lines = new ArrayList<>();
+            int datagrams = 0;
+            byte[] buffer = new byte[65536];
+            while (lines.size() < EVENTS) {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                logstash.receive(packet);
+                datagrams++;
+                lines.addAll(asList(new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8).split("\n")));
+            }
+            assertThat(datagrams).isLessThan(EVENTS);
+            assertThat(lines).hasSize(EVENTS);
+            assertThat(lines.get(0))
+                .contains("\"message\":\"found 0\"")
+                .contains("\"level\":\"INFO\"")
+                .contains("\"service\":\"reservationservice\"");
+            assertThat(lines.get(EVENTS - 1)).contains("\"message\":\"found " + (EVENTS - 1) + "\"");
+        }
+    }
+
+    @Test
+    public void should_drop_events_below_warn_first_while_queue_fills_up() {
+        // given a stopped sender, so nothing leaves the queue
+        appender.setContext(context);
+        appender.setQueueSize(10);
+        appender.setDiscardingThreshold(2);
+        appender.start();
+        appender.stop();
+
+        // when
+        for (int i = 0; i < 10; i++) {
+            appender.append(event(Level.INFO));
+        }
+        for (int i = 0; i < 3; i++) {
+            appender.append(event(Level.ERROR));
+        }
+
+        // then eight INFO fit before the threshold, two ERROR fill the queue up
+        assertThat(appender.getQueueDepth()).isEqualTo(10);
+        assertThat(appender.getDropped()).isEqualTo(3);
+    }
+
+    private LoggingEvent event(Level level) {
+        return new LoggingEvent(Logger.class.getName(), logger, level, "message", null, null);
+    }
+}
@@ -0,0 +1,211 @@
+package com.example;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.springframework.web.bind.annotation.RequestMethod.GET;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerClient;
+import org.springframework.cloud.netflix.ribbon.RibbonStatsRecorder;
+import org.springframework.cloud.netflix.ribbon.SpringClientFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.hateoas.MediaTypes;
+import org.springframework.hateoas.Resource;
+import org.springframework.hateoas.Resources;
+import org.springframework.hateoas.hal.Jackson2HalModule;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.HttpComponentsAsyncClientHttpRequestFactory;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.client.AsyncRestTemplate;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.netflix.loadbalancer.Server;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+@Configuration
+@EnableConfigurationProperties(AsyncHttpConfig.class)
+public class AsyncClientConfiguration {
+
+    @Bean(destroyMethod = "close")
+    CloseableHttpAsyncClient asyncHttpClient(AsyncHttpConfig http) throws IOReactorException {
+        PoolingNHttpClientConnectionManager connections = new PoolingNHttpClientConnectionManager(
+            new DefaultConnectingIOReactor(IOReactorConfig.custom()
+                .setIoThreadCount(http.ioThreads)
+                .setConnectTimeout(http.connectTimeout)
+                .setSoTimeout(http.readTimeout)
+                .build()));
+        connections.setMaxTotal(http.maxConnections);
+        connections.setDefaultMaxPerRoute(http.maxConnectionsPerRoute);
+        return HttpAsyncClients.custom()
+            .setConnectionManager(connections)
+            .setDefaultRequestConfig(RequestConfig.custom()
+                .setConnectTimeout(http.connectTimeout)
+                .setSocketTimeout(http.readTimeout)
+                .setConnectionRequestTimeout(http.poolTimeout)
+                .build())
+            .build();
+    }
+
+    @Bean
+    AsyncRestTemplate asyncRestTemplate(CloseableHttpAsyncClient asyncHttpClient) {
+        ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().build().registerModule(new Jackson2HalModule());
+        MappingJackson2HttpMessageConverter converter = new MappingJackson2HttpMessageConverter(mapper);
+        converter.setSupportedMediaTypes(asList(MediaTypes.HAL_JSON, MediaType.APPLICATION_JSON));
+        AsyncRestTemplate rest = new AsyncRestTemplate(new HttpComponentsAsyncClientHttpRequestFactory(asyncHttpClient));
+        rest.setMessageConverters(asList(converter));
+        return rest;
+    }
+}
+
+@Data
+@ConfigurationProperties(prefix = "reservations.client.http")
+class AsyncHttpConfig {
+
+    /** Threads handling socket events for all in-flight requests. */
+    int ioThreads = Runtime.getRuntime().availableProcessors();
+
+    /** Pooled connections across all reservation-service instances. */
+    int maxConnections = 500;
+
+    /** Pooled connections to a single reservation-service instance. */
+    int maxConnectionsPerRoute = 200;
+
+    /** In milliseconds. */
+    int connectTimeout = 1_000;
+
+    /** In milliseconds. */
+    int readTimeout = 5_000;
+
+    /** How long to wait for a pooled connection, in milliseconds. */
+    int poolTimeout = 1_000;
+}
+
+/**
+ * Calls reservation-service without holding a thread while the response is on its way.
+ * {@link AsyncRestTemplate} can't be {@code @LoadBalanced} yet, so the instance is picked
+ * with {@link LoadBalancerClient} before every call, and the call is recorded in Ribbon's
+ * stats for {@link LeastLoadedRule} by hand.
+ */
+@Component
+class AsyncReservationsClient {
+
+    static final String SERVICE = "reservationservice";
+
+    private final AsyncRestTemplate rest;
+    private final LoadBalancerClient loadBalancer;
+    private final SpringClientFactory ribbon;
+
+    public AsyncReservationsClient(AsyncRestTemplate rest, LoadBalancerClient loadBalancer, SpringClientFactory ribbon) {
+        this.rest = rest;
+        this.loadBalancer = loadBalancer;
+        this.ribbon = ribbon;
+    }
+
+    public CompletableFuture<ResponseEntity<Reservation>> findByName(String name) {
+        return get("/custom-reservations/{name}", new ParameterizedTypeReference<Reservation>() {}, name);
+    }
+
+    public CompletableFuture<ResponseEntity<Resource<Reservation>>> findById(Long id) {
+        return get("/reservations/{id}", new ParameterizedTypeReference<Resource<Reservation>>() {}, id);
+    }
+
+    public CompletableFuture<ResponseEntity<Resources<Reservation>>> findAll() {
+        return get("/reservations", new ParameterizedTypeReference<Resources<Reservation>>() {});
+    }
+
+    private <T> CompletableFuture<ResponseEntity<T>> get(String path, ParameterizedTypeReference<T> type,
+                                                         Object... variables) {
+        CompletableFuture<ResponseEntity<T>> result = new CompletableFuture<>();
+        ServiceInstance instance = loadBalancer.choose(SERVICE);
+        if (instance == null) {
+            result.completeExceptionally(new NoReservationsServiceAvailable());
+            return result;
+        }
+        URI uri = UriComponentsBuilder.fromUri(instance.getUri()).path(path)
+            .buildAndExpand(variables).encode().toUri();
+        HttpHeaders headers = new HttpHeaders();
+        headers.setAccept(asList(MediaTypes.HAL_JSON, MediaType.APPLICATION_JSON));
+        RibbonStatsRecorder stats = new RibbonStatsRecorder(ribbon.getLoadBalancerContext(SERVICE),
+            new Server(instance.getHost(), instance.getPort()));
+        rest.exchange(uri, HttpMethod.GET, new HttpEntity<>(headers), type).addCallback(
+            response -> {
+                stats.recordStats(response);
+                result.complete(response);
+            },
+            e -> {
+                stats.recordStats(e);
+                result.completeExceptionally(e);
+            });
+        return result;
+    }
+}
+
+@Slf4j
+@RestController
+@RequestMapping("/reservations/async")
+class AsyncReservationsController {
+
+    private final AsyncReservationsClient client;
+
+    public AsyncReservationsController(AsyncReservationsClient client) {
+        this.client = client;
+    }
+
+    @RequestMapping(path = "/byName/{name}", method = GET)
+    CompletableFuture<ResponseEntity<Reservation>> getReservationByName(@PathVariable("name") String name) {
+        log.info("calling async getReservationByName");
+        return client.findByName(name).exceptionally(AsyncReservationsController::downstreamStatus);
+    }
+
+    @RequestMapping(path = "/byId/{id}", method = GET)
+    CompletableFuture<ResponseEntity<Resource<Reservation>>> getReservationById(@PathVariable("id") Long id) {
+        return client.findById(id).exceptionally(AsyncReservationsController::downstreamStatus);
+    }
+
+    @RequestMapping(path = "/names", method = GET)
+    public CompletableFuture<List<String>> names() {
+        log.info("Calling async names...");
+        return client.findAll().thenApply(response -> response.getBody().getContent().stream()
+            .map(Reservation::getName)
+            .collect(toList()));
+    }
+
+    /**
+     * Answers with the error status reservation-service gave rather than a 500.
+     */
+    private static <T> ResponseEntity<T> downstreamStatus(Throwable e) {
+        Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+        if (cause instanceof HttpStatusCodeException) {
+            return new ResponseEntity<>(((HttpStatusCodeException) cause).getStatusCode());
+        }
+        throw new CompletionException(cause);
+    }
+}
@@ -0,0 +1,111 @@
+package com.example;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.stereotype.Component;
+
+import com.netflix.hystrix.HystrixCollapser.Scope;
+import com.netflix.hystrix.contrib.javanica.annotation.HystrixCollapser;
+import com.netflix.hystrix.contrib.javanica.annotation.HystrixCommand;
+import com.netflix.hystrix.contrib.javanica.annotation.HystrixProperty;
+import lombok.extern.slf4j.Slf4j;
+
+@Configuration
+public class CollapsingConfiguration {
+
+    @Bean
+    SingleFlight singleFlight(CounterService counter) {
+        return new SingleFlight(counter);
+    }
+}
+
+/**
+ * Lets concurrent callers asking for the same thing share one in-flight downstream call,
+ * instead of each sending their own. Nothing is kept once the call completes.
+ */
+class SingleFlight {
+
+    static final String SHARED = "single-flight.shared";
+
+    private final ConcurrentMap<String, CompletableFuture<?>> inFlight = new ConcurrentHashMap<>();
+    private final CounterService counter;
+
+    SingleFlight(CounterService counter) {
+        this.counter = counter;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T call(String key, Supplier<T> call) {
+        CompletableFuture<T> mine = new CompletableFuture<>();
+        CompletableFuture<T> current = (CompletableFuture<T>) inFlight.putIfAbsent(key, mine);
+        if (current != null) {
+            counter.increment(SHARED);
+            return join(current);
+        }
+        try {
+            T result = call.get();
+            mine.complete(result);
+            return result;
+        } catch (Throwable e) {
+            // Errors too, or the callers sharing this call would wait for good
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> call) {
+        try {
+            return call.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+}
+
+/**
+ * Collects lookups by id arriving within a few milliseconds, from all requests, into one
+ * {@code /custom-reservations/_by-ids} call. The window and batch size can be tuned with
+ * {@code hystrix.collapser.findById.*} properties.
+ * <p>
+ * There is no fallback: a failed batch fails every lookup in it, rather than answering that none of the
+ * reservations exist.
+ */
+@Slf4j
+@Component
+class ReservationsByIdCollapser {
+
+    private final ReservationsClient client;
+
+    public ReservationsByIdCollapser(ReservationsClient client) {
+        this.client = client;
+    }
+
+    @HystrixCollapser(batchMethod = "findByIds", scope = Scope.GLOBAL, collapserProperties = {
+        @HystrixProperty(name = "timerDelayInMilliseconds", value = "10"),
+        @HystrixProperty(name = "maxRequestsInBatch", value = "100")
+    })
+    public Reservation findById(Long id) {
+        // Javanica's aspect answers calls to a @HystrixCollapser method from its batchMethod, which takes the list of
+        // their arguments and returns the results in the same order; the body only runs if the aspect is bypassed
+        throw new UnsupportedOperationException("Collapsed into findByIds");
+    }
+
+    @HystrixCommand
+    public List<Reservation> findByIds(List<Long> ids) {
+        log.debug("Looking up {} reservations at once", ids.size());
+        return client.findByIds(ids);
+    }
+}
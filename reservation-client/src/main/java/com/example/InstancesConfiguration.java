@@ -0,0 +1,93 @@
+package com.example;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableMap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.cloud.client.discovery.event.HeartbeatEvent;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+@Configuration
+public class InstancesConfiguration {
+}
+
+@AllArgsConstructor
+class InstancesSnapshot {
+
+    final Map<String, List<ServiceInstance>> instances;
+    final long takenAt;
+}
+
+/**
+ * Instances of every service as of the Eureka client's last cache refresh, which it announces
+ * with a {@link HeartbeatEvent}. The snapshot is immutable and swapped as a whole, so a lookup
+ * is a single volatile read. How long ago it was taken and how long after the refresh it was
+ * swapped in are published as {@value #AGE} and {@value #LAG}, in milliseconds.
+ */
+@Slf4j
+@Component
+class ServiceInstances implements PublicMetrics {
+
+    static final String AGE = "instances.snapshot.age";
+    static final String LAG = "instances.snapshot.lag";
+
+    private final DiscoveryClient discovery;
+
+    private volatile InstancesSnapshot snapshot = new InstancesSnapshot(emptyMap(), 0);
+    private volatile long lag;
+
+    public ServiceInstances(DiscoveryClient discovery) {
+        this.discovery = discovery;
+    }
+
+    public List<ServiceInstance> get(String serviceId) {
+        return snapshot.instances.getOrDefault(serviceId.toLowerCase(Locale.ROOT), emptyList());
+    }
+
+    /**
+     * On context refresh as well, so that application runners already find the instances.
+     */
+    @EventListener({ContextRefreshedEvent.class, HeartbeatEvent.class})
+    public void refresh(ApplicationEvent event) {
+        Map<String, List<ServiceInstance>> instances = new HashMap<>();
+        for (String serviceId : discovery.getServices()) {
+            instances.put(serviceId.toLowerCase(Locale.ROOT),
+                unmodifiableList(new ArrayList<>(discovery.getInstances(serviceId))));
+        }
+        long now = System.currentTimeMillis();
+        snapshot = new InstancesSnapshot(unmodifiableMap(instances), now);
+        lag = now - event.getTimestamp();
+        log.debug("Refreshed instances of {} services in {} ms", instances.size(), lag);
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        InstancesSnapshot current = snapshot;
+        if (current.takenAt == 0) {
+            return emptyList();
+        }
+        return asList(
+            new Metric<>(AGE, System.currentTimeMillis() - current.takenAt),
+            new Metric<>(LAG, lag));
+    }
+}
@@ -0,0 +1,91 @@
+package com.example;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.netflix.client.config.CommonClientConfigKey;
+import com.netflix.client.config.IClientConfig;
+import com.netflix.loadbalancer.AbstractLoadBalancer;
+import com.netflix.loadbalancer.AbstractLoadBalancerRule;
+import com.netflix.loadbalancer.ILoadBalancer;
+import com.netflix.loadbalancer.LoadBalancerStats;
+import com.netflix.loadbalancer.Server;
+import com.netflix.loadbalancer.ServerStats;
+
+/**
+ * Power of two choices: of two random instances, the one with the lower latency times outstanding
+ * requests wins. Both come from Ribbon's own per-server stats, which the {@code @LoadBalanced}
+ * {@code RestTemplate}, Feign and {@code LoadBalancerClient#execute} keep up to date.
+ * <p>
+ * Public, as Ribbon clones the rule reflectively for every zone; how fast latency is forgotten is
+ * therefore read from {@code <client>.ribbon.}{@value #DECAY}, in milliseconds.
+ */
+public class LeastLoadedRule extends AbstractLoadBalancerRule {
+
+    static final String DECAY = "LatencyDecay";
+
+    private final ConcurrentMap<Server, Latency> latencies = new ConcurrentHashMap<>();
+
+    private long decay = 10_000;
+
+    @Override
+    public void initWithNiwsConfig(IClientConfig clientConfig) {
+        decay = clientConfig.getPropertyAsInteger(CommonClientConfigKey.valueOf(DECAY), (int) decay);
+    }
+
+    @Override
+    public Server choose(Object key) {
+        ILoadBalancer loadBalancer = getLoadBalancer();
+        List<Server> servers = loadBalancer.getReachableServers();
+        if (servers.size() < 2 || !(loadBalancer instanceof AbstractLoadBalancer)) {
+            return servers.isEmpty() ? null : servers.get(ThreadLocalRandom.current().nextInt(servers.size()));
+        }
+        if (latencies.size() > servers.size()) {
+            latencies.keySet().retainAll(loadBalancer.getAllServers());
+        }
+        LoadBalancerStats stats = ((AbstractLoadBalancer) loadBalancer).getLoadBalancerStats();
+        int first = ThreadLocalRandom.current().nextInt(servers.size());
+        int second = ThreadLocalRandom.current().nextInt(servers.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        long now = System.currentTimeMillis();
+        Server a = servers.get(first);
+        Server b = servers.get(second);
+        return cost(a, stats.getSingleServerStat(a), now) <= cost(b, stats.getSingleServerStat(b), now) ? a : b;
+    }
+
+    private double cost(Server server, ServerStats stats, long now) {
+        if (stats.isCircuitBreakerTripped(now)) {
+            return Double.MAX_VALUE;
+        }
+        double latency = latencies.computeIfAbsent(server, s -> new Latency()).update(stats, now, decay);
+        return (latency + 1) * (stats.getActiveRequestsCount(now) + 1);
+    }
+
+    /**
+     * Peak EWMA of the response times Ribbon measured since the last look: jumps up on a slow response
+     * at once, and decays towards faster ones, or towards zero while the instance gets no traffic.
+     */
+    static class Latency {
+
+        private long measured;
+        private double total;
+        private double value;
+        private long updated;
+
+        synchronized double update(ServerStats stats, long now, long decay) {
+            long count = stats.getTotalRequestsCount();
+            double sum = stats.getResponseTimeAvg() * count;
+            double sample = count > measured ? (sum - total) / (count - measured) : 0;
+            double weight = Math.exp(-Math.max(now - updated, 0) / (double) decay);
+            value = sample > value ? sample : value * weight + sample * (1 - weight);
+            measured = count;
+            total = sum;
+            updated = now;
+            return value;
+        }
+    }
+}
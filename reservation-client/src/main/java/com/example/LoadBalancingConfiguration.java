@@ -0,0 +1,39 @@
+package com.example;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.netflix.ribbon.RibbonClient;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.netflix.client.config.IClientConfig;
+import com.netflix.discovery.EurekaClient;
+import com.netflix.loadbalancer.IRule;
+import com.netflix.loadbalancer.ServerListUpdater;
+import com.netflix.niws.loadbalancer.EurekaNotificationServerListUpdater;
+
+@Configuration
+@RibbonClient(name = AsyncReservationsClient.SERVICE, configuration = ReservationServiceRibbonConfiguration.class)
+public class LoadBalancingConfiguration {
+}
+
+/**
+ * Only for the Ribbon context of reservationservice, hence not a {@code @Configuration} that would be scanned.
+ */
+class ReservationServiceRibbonConfiguration {
+
+    /**
+     * Takes new server lists as soon as the Eureka client refreshed its cache, instead of polling it.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "ribbon.eureka.enabled", matchIfMissing = true)
+    ServerListUpdater eurekaNotificationServerListUpdater(EurekaClient eurekaClient) {
+        return new EurekaNotificationServerListUpdater(() -> eurekaClient);
+    }
+
+    @Bean
+    IRule leastLoadedRule(IClientConfig config) {
+        LeastLoadedRule rule = new LeastLoadedRule();
+        rule.initWithNiwsConfig(config);
+        return rule;
+    }
+}
@@ -0,0 +1,220 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.cloud.stream.messaging.Source;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+@Configuration
+@EnableConfigurationProperties(PublishConfig.class)
+public class PublishingConfiguration {
+}
+
+@Data
+@ConfigurationProperties(prefix = "reservations.client.publish")
+class PublishConfig {
+
+    /**
+     * Send names in batches; every consumer has to understand batch messages first,
+     * as reservation-service does.
+     */
+    boolean batch = false;
+
+    /** Maximum number of names in one message. */
+    int size = 100;
+
+    /** How long a name may wait for its batch to fill up, in milliseconds. */
+    long timeout = 50;
+
+    /** Names waiting to be sent before new ones get turned away. */
+    int capacity = 10_000;
+
+    /**
+     * Times a batch that couldn't be sent is tried again before its names are given up on. Its names keep taking
+     * {@code capacity} meanwhile, so that new ones are turned away rather than accepted while the broker is down.
+     */
+    int retries = 5;
+
+    /** Wait before the first retry of a batch, in milliseconds, doubled for every further one. */
+    long backoff = 100;
+
+    /** Encoding of batch messages; reservation-service reads both. */
+    BatchFormat format = BatchFormat.JSON;
+
+    enum BatchFormat {
+
+        JSON(MediaType.APPLICATION_JSON_VALUE),
+
+        /** Binary JSON, smaller and cheaper to parse. */
+        SMILE("application/x-jackson-smile");
+
+        final String contentType;
+
+        BatchFormat(String contentType) {
+            this.contentType = contentType;
+        }
+    }
+}
+
+/**
+ * Sends reservation names on {@link Source#OUTPUT}, one message per name, or in batch mode as
+ * arrays encoded in the configured {@link PublishConfig.BatchFormat} and flagged with
+ * {@value #BATCH_HEADER}, whenever {@code size} names are waiting and at
+ * least every {@code timeout}. Callers only ever enqueue, nothing on their path takes a lock.
+ * <p>
+ * In batch mode a name is accepted before it's sent, so its creation is best effort: a batch the
+ * broker keeps refusing is given up on after {@code retries}. Retries and names given up on are
+ * published as {@value #RETRIED} and {@value #LOST}.
+ */
+@Slf4j
+@Component
+class ReservationPublisher implements PublicMetrics {
+
+    static final String BATCH_HEADER = "reservationBatch";
+    static final String RETRIED = "reservations.publish.retried";
+    static final String LOST = "reservations.publish.lost";
+
+    private final Source source;
+    private final PublishConfig config;
+    private final ObjectMapper mapper;
+    private final Queue<String> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+    private final Thread sender;
+
+    private volatile boolean running;
+
+    public ReservationPublisher(Source source, PublishConfig config, ObjectMapper mapper) {
+        this.source = source;
+        this.config = config;
+        this.mapper = config.format == PublishConfig.BatchFormat.SMILE
+            ? new ObjectMapper(new SmileFactory())
+            : mapper;
+        this.sender = new Thread(this::run, "reservation-publisher");
+    }
+
+    /**
+     * @return {@code false} when too many names are already waiting
+     */
+    public boolean publish(String name) {
+        if (!config.batch) {
+            return source.output().send(MessageBuilder.withPayload(name).build());
+        }
+        int waiting = size.incrementAndGet();
+        if (waiting > config.capacity) {
+            size.decrementAndGet();
+            return false;
+        }
+        pending.offer(name);
+        if (waiting == config.size) {
+            LockSupport.unpark(sender);
+        }
+        return true;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        return Arrays.asList(new Metric<>(RETRIED, retried.get()), new Metric<>(LOST, lost.get()));
+    }
+
+    @PostConstruct
+    void start() {
+        if (config.batch) {
+            running = true;
+            sender.setDaemon(true);
+            sender.start();
+        }
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(sender);
+        sender.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    private void run() {
+        long timeout = TimeUnit.MILLISECONDS.toNanos(config.timeout);
+        long deadline = System.nanoTime() + timeout;
+        while (running || size.get() > 0) {
+            if (size.get() >= config.size || System.nanoTime() >= deadline || !running) {
+                flush();
+                deadline = System.nanoTime() + timeout;
+            } else {
+                LockSupport.parkNanos(this, deadline - System.nanoTime());
+            }
+        }
+    }
+
+    private void flush() {
+        List<String> batch = new ArrayList<>(config.size);
+        String name;
+        while (batch.size() < config.size && (name = pending.poll()) != null) {
+            batch.add(name);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            send(MessageBuilder.withPayload(mapper.writeValueAsBytes(batch))
+                .setHeader(BATCH_HEADER, true)
+                .setHeader(MessageHeaders.CONTENT_TYPE, config.format.contentType)
+                .build());
+        } catch (JsonProcessingException | RuntimeException e) {
+            lost.addAndGet(batch.size());
+            log.error("Gave up on a batch of {} reservations", batch.size(), e);
+        } finally {
+            size.addAndGet(-batch.size());
+        }
+    }
+
+    private void send(Message<byte[]> message) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                source.output().send(message);
+                return;
+            } catch (RuntimeException e) {
+                if (attempt >= config.retries) {
+                    throw e;
+                }
+                log.warn("Failed to send a batch of reservations, retrying: {}", e.toString());
+                retried.incrementAndGet();
+            }
+            try {
+                // Sleeping rather than parking, which new names would cut short
+                Thread.sleep(config.backoff << Math.min(attempt, 16));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting to retry", e);
+            }
+        }
+    }
+}
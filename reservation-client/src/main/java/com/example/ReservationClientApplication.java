@@ -1,45 +1,59 @@
 package com.example;
 
-import static java.util.Arrays.asList;
-import static java.util.stream.Collectors.toList;
+import static com.example.RevalidatingCache.ifNoneMatch;
+import static org.springframework.hateoas.mvc.ControllerLinkBuilder.linkTo;
 import static org.springframework.web.bind.annotation.RequestMethod.GET;
 import static org.springframework.web.bind.annotation.RequestMethod.POST;
 
-import java.net.URI;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.HttpClients;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.cloud.client.ServiceInstance;
 import org.springframework.cloud.client.circuitbreaker.EnableCircuitBreaker;
-import org.springframework.cloud.client.discovery.DiscoveryClient;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
 import org.springframework.cloud.client.loadbalancer.LoadBalanced;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerClient;
 import org.springframework.cloud.netflix.feign.EnableFeignClients;
 import org.springframework.cloud.netflix.feign.FeignClient;
 import org.springframework.cloud.stream.annotation.EnableBinding;
-import org.springframework.cloud.stream.annotation.Output;
 import org.springframework.cloud.stream.messaging.Source;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
 import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.hateoas.Link;
 import org.springframework.hateoas.Resource;
-import org.springframework.hateoas.Resources;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.messaging.Message;
-import org.springframework.messaging.MessageChannel;
-import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.stereotype.Component;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.client.RestTemplate;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.netflix.hystrix.contrib.javanica.annotation.HystrixCommand;
+import com.netflix.hystrix.contrib.javanica.annotation.HystrixProperty;
+import feign.Response;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -56,43 +70,113 @@ public class ReservationClientApplication {
 		SpringApplication.run(ReservationClientApplication.class, args);
 	}
 
-    @Bean @LoadBalanced
+    @Bean @LoadBalanced @Primary
     public RestTemplate restTemplate() {
         return new RestTemplate();
     }
+
+    /**
+     * For calls to an instance already picked by {@link LoadBalancerClient}, keeping connections to it across
+     * requests.
+     */
+    @Bean
+    RestTemplate instanceRestTemplate(AsyncHttpConfig http) {
+        return new RestTemplate(new HttpComponentsClientHttpRequestFactory(HttpClients.custom()
+            .setMaxConnTotal(http.maxConnections)
+            .setMaxConnPerRoute(http.maxConnectionsPerRoute)
+            .setDefaultRequestConfig(RequestConfig.custom()
+                .setConnectTimeout(http.connectTimeout)
+                .setSocketTimeout(http.readTimeout)
+                .setConnectionRequestTimeout(http.poolTimeout)
+                .build())
+            .build()));
+    }
 }
 
 @Slf4j
 @Component
 class ReservationsService {
 
+    static final TypeReference<List<String>> NAMES = new TypeReference<List<String>>() {};
+
     private final ReservationsClient client;
+    private final RevalidatingCache responses;
+    private final SingleFlight flights;
+    private final ReservationsSnapshot snapshot;
+    private final ObjectMapper mapper;
 
-    public ReservationsService(ReservationsClient client) {
+    public ReservationsService(ReservationsClient client, RevalidatingCache responses, SingleFlight flights,
+                               ReservationsSnapshot snapshot, ObjectMapper mapper) {
         this.client = client;
+        this.responses = responses;
+        this.flights = flights;
+        this.snapshot = snapshot;
+        this.mapper = mapper;
+    }
+
+    public List<String> listNames() {
+        return snapshot.update(fetchNames()).names;
+    }
+
+    /**
+     * The snapshot fallback makes a tight timeout affordable. Keeps the command key it had before returning names,
+     * which dashboards, alerts and {@code hystrix.command.*} properties refer to.
+     */
+    @HystrixCommand(commandKey = "listReservationsSafely", fallbackMethod = "listNamesFallback", commandProperties =
+        @HystrixProperty(name = "execution.isolation.thread.timeoutInMilliseconds", value = "500"))
+    public NamesSnapshot listNamesSafely() {
+        log.info("Calling listNamesSafely...");
+        return snapshot.update(fetchNames());
+    }
+
+    /**
+     * Last known good names, kept fresh by {@link SnapshotRefresher}, null before the first one. Doesn't throw, as
+     * Hystrix would hand the command's failure to the caller instead.
+     */
+    public NamesSnapshot listNamesFallback() {
+        log.info("Calling listNamesFallback...");
+        return snapshot.current().orElse(null);
     }
 
-    @HystrixCommand(fallbackMethod = "listReservationsFallback")
-    public Resources<Reservation> listReservationsSafely() {
-        log.info("Calling listReservationsSafely...");
-        return client.listReservations();
+    private List<String> fetchNames() {
+        return flights.call(ReservationsClient.NAMES_PATH, () -> responses.get(
+            ReservationsClient.NAMES_PATH, etag -> decodeNames(client.listNames(etag))).getBody());
     }
 
-    public Resources<Reservation> listReservationsFallback() {
-        log.info("Calling listReservationsFallback...");
-        return new Resources(
-            asList("This is fallback".split(" ")).stream()
-                .map(Reservation::new)
-                .collect(toList())
-        );
+    /**
+     * Feign only leaves 304s alone when handed the raw response, so the body is decoded here.
+     */
+    private ResponseEntity<List<String>> decodeNames(Response response) {
+        try (Response closed = response) {
+            HttpStatus status = HttpStatus.valueOf(response.status());
+            HttpHeaders headers = new HttpHeaders();
+            response.headers().forEach((name, values) -> headers.put(name, new ArrayList<>(values)));
+            if (status.is4xxClientError()) {
+                throw new HttpClientErrorException(status);
+            }
+            if (status.is5xxServerError()) {
+                throw new HttpServerErrorException(status);
+            }
+            if (status != HttpStatus.OK) {
+                return new ResponseEntity<>(headers, status);
+            }
+            return new ResponseEntity<>(mapper.readValue(response.body().asInputStream(), NAMES), headers, status);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 }
 
 @FeignClient("reservationservice")
 interface ReservationsClient {
 
-    @RequestMapping(path = "/reservations", method = GET)
-    Resources<Reservation> listReservations();
+    String NAMES_PATH = "/custom-reservations/_names";
+
+    @RequestMapping(path = NAMES_PATH, method = GET)
+    Response listNames(@RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String etag);
+
+    @RequestMapping(path = "/custom-reservations/_by-ids", method = GET)
+    List<Reservation> findByIds(@RequestParam("ids") List<Long> ids);
 }
 
 @Slf4j
@@ -100,81 +184,102 @@ interface ReservationsClient {
 @RequestMapping("/reservations")
 class ReservationsController {
 
-    private final DiscoveryClient discovery;
+    private final LoadBalancerClient loadBalancer;
     private final RestTemplate rest;
-    private final ReservationsClient client;
+    private final RestTemplate instanceRest;
     private final ReservationsService service;
-
-    public ReservationsController(DiscoveryClient discovery, RestTemplate rest,
-                                  ReservationsClient client, ReservationsService service) {
-        this.discovery = discovery;
+    private final RevalidatingCache responses;
+    private final SingleFlight flights;
+    private final ReservationsByIdCollapser byId;
+
+    public ReservationsController(LoadBalancerClient loadBalancer, RestTemplate rest,
+                                  @Qualifier("instanceRestTemplate") RestTemplate instanceRest,
+                                  ReservationsService service, RevalidatingCache responses, SingleFlight flights,
+                                  ReservationsByIdCollapser byId) {
+        this.loadBalancer = loadBalancer;
         this.rest = rest;
-        this.client = client;
+        this.instanceRest = instanceRest;
         this.service = service;
+        this.responses = responses;
+        this.flights = flights;
+        this.byId = byId;
     }
 
     @RequestMapping(path = "/byName/{name}", method = GET)
-    ResponseEntity<Reservation> getReservationByName(@PathVariable("name") String name) {
+    ResponseEntity<Reservation> getReservationByName(@PathVariable("name") String name) throws IOException {
         log.info("calling getReservationByName");
-        return new RestTemplate().getForEntity(
-            url().toString() + "/custom-reservations/" + name,
-            Reservation.class);
-    }
-
-    private URI url() {
-        return discovery.getInstances("reservationservice").stream()
-            .findFirst().map(ServiceInstance::getUri)
-            .orElseThrow(NoReservationsServiceAvailable::new);
+        return loadBalancer.execute(AsyncReservationsClient.SERVICE, instance -> instanceRest.getForEntity(
+            instance.getUri().toString() + "/custom-reservations/{name}",
+            Reservation.class, name));
     }
 
+    /**
+     * Links to itself as {@code self} and {@code reservation}, the rels reservation-service gives its reservations.
+     * The links reservation-service adds on top, such as {@code photo}, aren't passed on, as the lookups are collapsed
+     * into calls answering plain reservations.
+     */
     @RequestMapping(path = "/byId/{id}", method = GET)
     ResponseEntity<Resource<Reservation>> getReservationById(@PathVariable("id") Long id) {
-        // FIXME marshaling !!!
-        ParameterizedTypeReference<Resource<Reservation>> responseType =
-            new ParameterizedTypeReference<Resource<Reservation>>() { };
-        return rest.exchange("http://reservationservice/reservations/{id}", HttpMethod.GET, null, responseType, id);
+        Reservation reservation;
+        try {
+            reservation = byId.findById(id);
+        } catch (RuntimeException e) {
+            log.warn("Looking up reservation {} failed: {}", id, e.toString());
+            throw new NoReservationsServiceAvailable();
+        }
+        if (reservation == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        Link self = linkTo(ReservationsController.class).slash("byId").slash(id).withSelfRel();
+        return ResponseEntity.ok(new Resource<>(reservation, self, self.withRel("reservation")));
     }
 
     @RequestMapping(path = "/names", method = GET)
     public List<String> names() {
         log.info("Calling names...");
-        ParameterizedTypeReference<Resources<Reservation>> responseType =
-            new ParameterizedTypeReference<Resources<Reservation>>() {};
-        ResponseEntity<Resources<Reservation>> exchange =
-            rest.exchange("http://reservationservice/reservations", HttpMethod.GET, null, responseType);
-        return exchange.getBody().getContent().stream()
-            .map(Reservation::getName)
-            .collect(toList());
+        ParameterizedTypeReference<List<String>> responseType =
+            new ParameterizedTypeReference<List<String>>() {};
+        return flights.call(ReservationsClient.NAMES_PATH, () -> responses.get(ReservationsClient.NAMES_PATH,
+            etag -> rest.exchange("http://reservationservice" + ReservationsClient.NAMES_PATH, HttpMethod.GET,
+                ifNoneMatch(etag), responseType))
+            .getBody());
     }
 
     @RequestMapping(path = "/feign-names", method = GET)
     public List<String> feignNames() {
         log.info("Calling feign-names...");
-        return client.listReservations().getContent().stream()
-            .map(Reservation::getName)
-            .collect(toList());
+        return service.listNames();
     }
 
+    /**
+     * Answers with the {@code Age} of the names in seconds, which is above zero when served from a snapshot.
+     */
     @RequestMapping(path = "/hystrix-names", method = GET)
-    public List<String> hystrixNames() {
+    public ResponseEntity<List<String>> hystrixNames() {
         log.info("Calling hystrix-names...");
-        return service.listReservationsSafely().getContent().stream()
-            .map(Reservation::getName)
-            .collect(toList());
+        NamesSnapshot snapshot = service.listNamesSafely();
+        if (snapshot == null) {
+            throw new NoReservationsServiceAvailable();
+        }
+        return ResponseEntity.ok()
+            .header(HttpHeaders.AGE, String.valueOf(TimeUnit.MILLISECONDS.toSeconds(snapshot.age())))
+            .body(snapshot.names);
     }
 
     @Autowired
-    @Output(Source.OUTPUT)
-    private MessageChannel out;
+    private ReservationPublisher publisher;
 
     @RequestMapping(method = POST)
-    public void createReservation(@RequestBody Reservation reservation) {
-        log.info("Sending message to create reservation for {}", reservation.name);
-        Message<String> message = MessageBuilder.withPayload(reservation.getName()).build();
-        out.send(message);
+    public ResponseEntity<Void> createReservation(@RequestBody Reservation reservation) {
+        log.debug("Sending message to create reservation for {}", reservation.name);
+        if (!publisher.publish(reservation.getName())) {
+            return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        return new ResponseEntity<>(HttpStatus.ACCEPTED);
     }
 }
 
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
 class NoReservationsServiceAvailable extends RuntimeException {
 }
 
@@ -190,11 +295,11 @@ class Reservation {
 @Component
 class DiscoveryClientExample implements ApplicationRunner {
 
-	private final DiscoveryClient discoveryClient;
+	private final ServiceInstances instances;
 
 	@Autowired
-	public DiscoveryClientExample(DiscoveryClient discoveryClient) {
-		this.discoveryClient = discoveryClient;
+	public DiscoveryClientExample(ServiceInstances instances) {
+		this.instances = instances;
 	}
 
     @Override
@@ -203,7 +308,7 @@ class DiscoveryClientExample implements ApplicationRunner {
 			log.info("------------------------------");
 			log.info("DiscoveryClient Example");
 
-			discoveryClient.getInstances("reservationservice").forEach(instance -> {
+			instances.get("reservationservice").forEach(instance -> {
 				log.info("Reservation service: ");
 				log.info("  ID: {}", instance.getServiceId());
 				log.info("  URI: {}", instance.getUri());
@@ -0,0 +1,93 @@
+package com.example;
+
+import static org.springframework.http.HttpStatus.NOT_MODIFIED;
+import static org.springframework.http.HttpStatus.OK;
+
+import java.util.function.Function;
+
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Configuration
+@EnableConfigurationProperties(ResponseCacheConfig.class)
+public class ResponseCacheConfiguration {
+
+    @Bean
+    RevalidatingCache revalidatingCache(ResponseCacheConfig cache, CounterService counter) {
+        return new RevalidatingCache(cache, counter);
+    }
+}
+
+@Data
+@ConfigurationProperties(prefix = "reservations.client.cache")
+class ResponseCacheConfig {
+
+    /** Maximum number of responses kept. */
+    long size = 1_000;
+}
+
+/**
+ * Bounded cache of decoded reservation-service responses, keyed by resource path.
+ * Entries are never served blindly: every lookup goes out with {@code If-None-Match},
+ * and a 304 hands back the value decoded the last time instead of a fresh body.
+ */
+class RevalidatingCache {
+
+    static final String NOT_MODIFIED_COUNT = "responses.cache.not-modified";
+    static final String FETCHED_COUNT = "responses.cache.fetched";
+
+    private final Cache<String, Validated<?>> responses;
+    private final CounterService counter;
+
+    RevalidatingCache(ResponseCacheConfig config, CounterService counter) {
+        this.responses = Caffeine.newBuilder().maximumSize(config.size).build();
+        this.counter = counter;
+    }
+
+    /**
+     * @param fetch performs the request, with the given ETag (possibly {@code null}) as {@code If-None-Match}
+     */
+    @SuppressWarnings("unchecked")
+    public <T> ResponseEntity<T> get(String path, Function<String, ResponseEntity<T>> fetch) {
+        Validated<T> cached = (Validated<T>) responses.getIfPresent(path);
+        ResponseEntity<T> response = fetch.apply(cached != null ? cached.etag : null);
+        if (response.getStatusCode() == NOT_MODIFIED && cached != null) {
+            counter.increment(NOT_MODIFIED_COUNT);
+            return ResponseEntity.ok().eTag(cached.etag).body(cached.value);
+        }
+        counter.increment(FETCHED_COUNT);
+        String etag = response.getHeaders().getETag();
+        if (response.getStatusCode() == OK && etag != null) {
+            responses.put(path, new Validated<>(etag, response.getBody()));
+        } else {
+            responses.invalidate(path);
+        }
+        return response;
+    }
+
+    static HttpEntity<Void> ifNoneMatch(String etag) {
+        HttpHeaders headers = new HttpHeaders();
+        if (etag != null) {
+            headers.setIfNoneMatch(etag);
+        }
+        return new HttpEntity<>(headers);
+    }
+
+    @AllArgsConstructor
+    private static class Validated<T> {
+
+        final String etag;
+        final T value;
+    }
+}
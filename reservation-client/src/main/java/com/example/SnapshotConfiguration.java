@@ -0,0 +1,134 @@
+package com.example;
+
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singleton;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+@Configuration
+@EnableConfigurationProperties(SnapshotConfig.class)
+public class SnapshotConfiguration {
+}
+
+@Data
+@ConfigurationProperties(prefix = "reservations.client.snapshot")
+class SnapshotConfig {
+
+    /** How often the names snapshot is refreshed in the background, in milliseconds. */
+    long refresh = 5_000;
+}
+
+@AllArgsConstructor
+class NamesSnapshot {
+
+    final List<String> names;
+    final long takenAt;
+
+    long age() {
+        return System.currentTimeMillis() - takenAt;
+    }
+}
+
+/**
+ * Last reservation names reservation-service gave us, served when it can't give us fresh ones.
+ * Its age in milliseconds is published as {@code reservations.snapshot.age}.
+ */
+@Component
+class ReservationsSnapshot implements PublicMetrics {
+
+    static final String AGE = "reservations.snapshot.age";
+
+    private final AtomicReference<NamesSnapshot> last = new AtomicReference<>();
+
+    public NamesSnapshot update(List<String> names) {
+        NamesSnapshot snapshot = new NamesSnapshot(names, System.currentTimeMillis());
+        last.set(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Empty until reservation-service answered for the first time.
+     */
+    public Optional<NamesSnapshot> current() {
+        return Optional.ofNullable(last.get());
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        NamesSnapshot snapshot = last.get();
+        if (snapshot == null) {
+            return emptySet();
+        }
+        return singleton(new Metric<>(AGE, snapshot.age()));
+    }
+}
+
+/**
+ * Keeps {@link ReservationsSnapshot} fresh without anyone waiting for it. Skips a round when
+ * regular traffic refreshed the snapshot recently; thanks to ETags a refresh of unchanged
+ * names costs a 304.
+ */
+@Slf4j
+@Component
+class SnapshotRefresher {
+
+    private final ReservationsService service;
+    private final ReservationsSnapshot snapshot;
+    private final SnapshotConfig config;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "snapshot-refresher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public SnapshotRefresher(ReservationsService service, ReservationsSnapshot snapshot, SnapshotConfig config) {
+        this.service = service;
+        this.snapshot = snapshot;
+        this.config = config;
+    }
+
+    /**
+     * Not any earlier, Ribbon and Hystrix aren't configured before the application is ready.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::refresh, 0, config.refresh, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        scheduler.shutdownNow();
+    }
+
+    private void refresh() {
+        if (snapshot.current().filter(current -> current.age() < config.refresh).isPresent()) {
+            return;
+        }
+        try {
+            service.listNames();
+        } catch (RuntimeException e) {
+            log.warn("Unable to refresh snapshot of reservation names: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.example;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.hamcrest.Matchers;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Ribbon keeps the stub instances of this class in the context, which is dropped afterwards for the next class to
+ * start its own.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {
+    "ribbon.eureka.enabled=false",
+    "reservationservice.ribbon.NIWSServerListClassName=com.netflix.loadbalancer.ConfigurationBasedServerList",
+    "spring.zipkin.enabled=false"})
+@DirtiesContext
+public class AsyncReservationsTest {
+
+    static final String SERVERS = "reservationservice.ribbon.listOfServers";
+
+    static final int REQUESTS = 20;
+
+    static HttpServer instance;
+    static volatile long delay;
+
+    @Autowired WebApplicationContext webApplicationContext;
+
+    MockMvc mvc;
+
+    @BeforeClass
+    public static void startInstance() throws Exception {
+        instance = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        instance.setExecutor(Executors.newCachedThreadPool());
+        instance.createContext("/custom-reservations/", exchange -> {
+            String name = exchange.getRequestURI().getPath().substring("/custom-reservations/".length());
+            if (name.equals("Nobody")) {
+                respond(exchange, 404, "{}");
+            } else {
+                respond(exchange, 200, "{\"name\":\"" + name + "\"}");
+            }
+        });
+        instance.createContext("/reservations", exchange -> {
+            if (exchange.getRequestURI().getPath().equals("/reservations")) {
+                respond(exchange, 200, "{\"_embedded\":{\"reservations\":[{\"name\":\"Jan\"},{\"name\":\"Maria\"}]}}");
+            } else {
+                respond(exchange, 200,
+                    "{\"name\":\"Jan\",\"_links\":{\"self\":{\"href\":\"http://localhost/reservations/1\"}}}");
+            }
+        });
+        instance.start();
+        System.setProperty(SERVERS, "localhost:" + instance.getAddress().getPort());
+    }
+
+    @AfterClass
+    public static void stopInstance() {
+        System.clearProperty(SERVERS);
+        instance.stop(0);
+    }
+
+    @Before
+    public void setUp() {
+        mvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+        delay = 0;
+    }
+
+    @Test
+    public void should_hand_back_the_request_thread_while_reservation_service_answers() throws Exception {
+        // given
+        mvc.perform(asyncDispatch(mvc.perform(get("/reservations/async/byName/{name}", "Warmup")).andReturn()));
+        delay = TimeUnit.SECONDS.toMillis(2);
+
+        // when
+        long start = System.nanoTime();
+        List<MvcResult> results = new ArrayList<>();
+        for (int i = 0; i < REQUESTS; i++) {
+            results.add(mvc.perform(get("/reservations/async/byName/{name}", "Jan " + i))
+                .andExpect(request().asyncStarted())
+                .andReturn());
+        }
+        long handedBack = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // then all requests left the request thread before the first answer came back
+        assertThat(handedBack).isLessThan(delay);
+        for (int i = 0; i < REQUESTS; i++) {
+            mvc.perform(asyncDispatch(results.get(i)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("@.name").value("Jan " + i));
+        }
+    }
+
+    @Test
+    public void should_answer_with_the_status_reservation_service_gave() throws Exception {
+        // when
+        MvcResult result = mvc.perform(get("/reservations/async/byName/{name}", "Nobody"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+        // then
+        mvc.perform(asyncDispatch(result)).andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void should_read_hal_resources() throws Exception {
+        // when
+        MvcResult byId = mvc.perform(get("/reservations/async/byId/{id}", 1))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+        MvcResult names = mvc.perform(get("/reservations/async/names"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+        // then
+        mvc.perform(asyncDispatch(byId))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("@.name").value("Jan"));
+        mvc.perform(asyncDispatch(names))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("@").value(Matchers.contains("Jan", "Maria")));
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/hal+json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
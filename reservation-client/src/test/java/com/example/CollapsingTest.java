@@ -0,0 +1,141 @@
+package com.example;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Ribbon keeps the stub instances of this class in the context, which is dropped afterwards for the next class to
+ * start its own.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {
+    "ribbon.eureka.enabled=false",
+    "reservationservice.ribbon.NIWSServerListClassName=com.netflix.loadbalancer.ConfigurationBasedServerList",
+    "spring.zipkin.enabled=false"})
+@DirtiesContext
+public class CollapsingTest {
+
+    static final String SERVERS = "reservationservice.ribbon.listOfServers";
+
+    static HttpServer instance;
+    static volatile int status = 200;
+
+    @Autowired WebApplicationContext webApplicationContext;
+
+    MockMvc mvc;
+
+    @BeforeClass
+    public static void startInstance() throws Exception {
+        instance = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        instance.createContext("/custom-reservations/_by-ids", exchange -> {
+            byte[] body = (status == 200 ? "[{\"name\":\"Jan\"},null]" : "{}").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        instance.start();
+        System.setProperty(SERVERS, "localhost:" + instance.getAddress().getPort());
+    }
+
+    @AfterClass
+    public static void stopInstance() {
+        System.clearProperty(SERVERS);
+        instance.stop(0);
+    }
+
+    @Before
+    public void setUp() {
+        mvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+        status = 200;
+    }
+
+    @Test
+    public void should_answer_found_reservations_by_id() throws Exception {
+        mvc.perform(get("/reservations/byId/{id}", 1))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("@.name").value("Jan"))
+            .andExpect(jsonPath("@._links.self.href").value("http://localhost/reservations/byId/1"))
+            .andExpect(jsonPath("@._links.reservation.href").value("http://localhost/reservations/byId/1"));
+    }
+
+    @Test
+    public void should_not_answer_not_found_when_the_lookup_failed() throws Exception {
+        // given
+        status = 500;
+
+        // when
+        mvc.perform(get("/reservations/byId/{id}", 1))
+
+        // then
+            .andExpect(status().isServiceUnavailable());
+    }
+
+    @Test
+    public void should_fail_the_callers_sharing_a_call_that_threw_an_error() throws Exception {
+        // given
+        CounterService counter = mock(CounterService.class);
+        CountDownLatch shared = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            shared.countDown();
+            return null;
+        }).when(counter).increment(SingleFlight.SHARED);
+        SingleFlight flights = new SingleFlight(counter);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Throwable> first = CompletableFuture.supplyAsync(() -> catchThrowable(() ->
+            flights.call("names", () -> {
+                started.countDown();
+                await(release);
+                throw new StackOverflowError();
+            })));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // when
+        CompletableFuture<Throwable> second = CompletableFuture.supplyAsync(() -> catchThrowable(() ->
+            flights.call("names", () -> "Not called")));
+        assertThat(shared.await(5, TimeUnit.SECONDS)).isTrue();
+        release.countDown();
+
+        // then
+        assertThat(first.get(5, TimeUnit.SECONDS)).isInstanceOf(StackOverflowError.class);
+        assertThat(second.get(5, TimeUnit.SECONDS)).isInstanceOf(StackOverflowError.class);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
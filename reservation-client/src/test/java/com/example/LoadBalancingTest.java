@@ -0,0 +1,120 @@
+package com.example;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Ribbon keeps the stub instances of this class in the context, which is dropped afterwards for the next class to
+ * start its own.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {
+    "ribbon.eureka.enabled=false",
+    "reservationservice.ribbon.NIWSServerListClassName=com.netflix.loadbalancer.ConfigurationBasedServerList",
+    "spring.zipkin.enabled=false"})
+@DirtiesContext
+public class LoadBalancingTest {
+
+    static final String SERVERS = "reservationservice.ribbon.listOfServers";
+
+    static StubInstance slow;
+    static List<StubInstance> fast = new ArrayList<>();
+
+    @Autowired WebApplicationContext webApplicationContext;
+
+    MockMvc mvc;
+
+    @BeforeClass
+    public static void startInstances() throws Exception {
+        slow = new StubInstance(200);
+        fast.add(new StubInstance(0));
+        fast.add(new StubInstance(0));
+        System.setProperty(SERVERS, slow.address() + "," + fast.get(0).address() + "," + fast.get(1).address());
+    }
+
+    @AfterClass
+    public static void stopInstances() {
+        System.clearProperty(SERVERS);
+        slow.stop();
+        fast.forEach(StubInstance::stop);
+    }
+
+    @Before
+    public void setUp() {
+        mvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+    }
+
+    @Test
+    public void should_steer_calls_away_from_slow_instance() throws Exception {
+        // when
+        for (int i = 0; i < 30; i++) {
+            mvc.perform(get("/reservations/byName/{name}", "Jan")).andExpect(status().isOk());
+            mvc.perform(get("/reservations/names")).andExpect(status().isOk());
+            mvc.perform(get("/reservations/feign-names")).andExpect(status().isOk());
+        }
+
+        // then
+        int fastCalls = fast.get(0).calls.get() + fast.get(1).calls.get();
+        assertThat(fastCalls).isGreaterThanOrEqualTo(90 - 10);
+        assertThat(slow.calls.get()).isLessThan(10);
+    }
+
+    static class StubInstance {
+
+        final AtomicInteger calls = new AtomicInteger();
+        final HttpServer server;
+
+        StubInstance(long delay) throws Exception {
+            server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            server.setExecutor(Executors.newCachedThreadPool());
+            server.createContext("/custom-reservations/", exchange -> {
+                calls.incrementAndGet();
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                byte[] body = (exchange.getRequestURI().getPath().endsWith("/_names")
+                    ? "[\"Jan\"]" : "{\"name\":\"Jan\"}").getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.start();
+        }
+
+        String address() {
+            return "localhost:" + server.getAddress().getPort();
+        }
+
+        void stop() {
+            server.stop(0);
+        }
+    }
+}
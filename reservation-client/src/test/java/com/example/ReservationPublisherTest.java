@@ -0,0 +1,178 @@
+package com.example;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.stream.messaging.Source;
+import org.springframework.cloud.stream.test.binder.MessageCollector;
+import org.springframework.http.MediaType;
+import org.springframework.integration.channel.AbstractMessageChannel;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.ChannelInterceptorAdapter;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+@Slf4j
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"reservations.client.publish.batch=true", "spring.sleuth.enabled=false"})
+public class ReservationPublisherTest {
+
+    static final int RESERVATIONS = 100_000;
+
+    @Autowired ReservationPublisher publisher;
+    @Autowired PublishConfig config;
+    @Autowired Source source;
+    @Autowired MessageCollector collector;
+    @Autowired ObjectMapper mapper;
+    @Autowired WebApplicationContext webApplicationContext;
+
+    MockMvc mvc;
+
+    @Before
+    public void setUp() {
+        mvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+    }
+
+    @Test
+    public void should_accept_reservation_once_enqueued() throws Exception {
+        // when
+        mvc.perform(post("/reservations")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"name\":\"Accepted\"}"))
+
+        // then
+            .andExpect(status().isAccepted());
+        Message<?> message = collector.forChannel(source.output()).poll(1, TimeUnit.SECONDS);
+        assertThat(message).isNotNull();
+        assertThat(names(message)).containsExactly("Accepted");
+    }
+
+    @Test
+    public void should_publish_reservations_in_batches() throws Exception {
+        // when
+        long start = System.nanoTime();
+        for (int i = 0; i < RESERVATIONS; i++) {
+            while (!publisher.publish("Batched " + i)) {
+                Thread.yield();
+            }
+        }
+
+        // then
+        BlockingQueue<Message<?>> sent = collector.forChannel(source.output());
+        int messages = 0;
+        int published = 0;
+        while (published < RESERVATIONS) {
+            Message<?> message = sent.poll(1, TimeUnit.SECONDS);
+            assertThat(message).isNotNull();
+            assertThat(message.getHeaders().get(ReservationPublisher.BATCH_HEADER)).isEqualTo(true);
+            assertThat(message.getHeaders().get(MessageHeaders.CONTENT_TYPE).toString())
+                .isEqualTo(MediaType.APPLICATION_JSON_VALUE);
+            List<String> batch = names(message);
+            assertThat(batch).first().isEqualTo("Batched " + published);
+            published += batch.size();
+            messages++;
+        }
+        long elapsed = System.nanoTime() - start;
+        assertThat(published).isEqualTo(RESERVATIONS);
+        assertThat(messages).isLessThanOrEqualTo(RESERVATIONS / 10);
+        log.info("Published {} reservations in {} messages within {} ms ({} reservations/s)", published, messages,
+            TimeUnit.NANOSECONDS.toMillis(elapsed), (long) published * TimeUnit.SECONDS.toNanos(1) / elapsed);
+    }
+
+    @Test
+    public void should_retry_batches_the_broker_refused() throws Exception {
+        // given
+        AtomicInteger refused = new AtomicInteger();
+        ChannelInterceptor broker = refuse(2, refused);
+        output().addInterceptor(broker);
+
+        try {
+            // when
+            publisher.publish("Retried");
+
+            // then
+            Message<?> message = collector.forChannel(source.output()).poll(5, TimeUnit.SECONDS);
+            assertThat(message).isNotNull();
+            assertThat(names(message)).containsExactly("Retried");
+            assertThat(refused.get()).isEqualTo(2);
+            assertThat(metric(ReservationPublisher.RETRIED)).isGreaterThanOrEqualTo(2);
+        } finally {
+            output().removeInterceptor(broker);
+        }
+    }
+
+    @Test
+    public void should_count_reservations_given_up_on() throws Exception {
+        // given
+        long lost = metric(ReservationPublisher.LOST);
+        AtomicInteger refused = new AtomicInteger();
+        ChannelInterceptor broker = refuse(config.retries + 1, refused);
+        output().addInterceptor(broker);
+
+        try {
+            // when
+            publisher.publish("Lost");
+
+            // then
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (metric(ReservationPublisher.LOST) == lost && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(metric(ReservationPublisher.LOST)).isEqualTo(lost + 1);
+            assertThat(refused.get()).isEqualTo(config.retries + 1);
+        } finally {
+            output().removeInterceptor(broker);
+        }
+    }
+
+    private AbstractMessageChannel output() {
+        return (AbstractMessageChannel) source.output();
+    }
+
+    private static ChannelInterceptor refuse(int times, AtomicInteger refused) {
+        return new ChannelInterceptorAdapter() {
+
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                // Only ever called by the publisher's single sender thread
+                if (refused.get() < times) {
+                    refused.incrementAndGet();
+                    throw new MessageDeliveryException(message, "Broker unavailable");
+                }
+                return message;
+            }
+        };
+    }
+
+    private long metric(String name) {
+        return publisher.metrics().stream()
+            .filter(metric -> metric.getName().equals(name))
+            .mapToLong(metric -> metric.getValue().longValue())
+            .sum();
+    }
+
+    private List<String> names(Message<?> message) throws Exception {
+        return mapper.readValue((byte[]) message.getPayload(), new TypeReference<List<String>>() {});
+    }
+}
@@ -0,0 +1,128 @@
+package com.example;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hamcrest.Matchers;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Ribbon keeps the stub instances of this class in the context, which is dropped afterwards for the next class to
+ * start its own.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {
+    "ribbon.eureka.enabled=false",
+    "reservationservice.ribbon.NIWSServerListClassName=com.netflix.loadbalancer.ConfigurationBasedServerList",
+    "spring.zipkin.enabled=false",
+    "reservations.client.snapshot.refresh=200"})
+@DirtiesContext
+public class ReservationsSnapshotTest {
+
+    static final String SERVERS = "reservationservice.ribbon.listOfServers";
+
+    static HttpServer instance;
+    static final AtomicInteger calls = new AtomicInteger();
+    static volatile int status = 200;
+    static volatile String names = "[\"Jan\",\"Maria\"]";
+
+    @Autowired WebApplicationContext webApplicationContext;
+    @Autowired ReservationsSnapshot snapshot;
+
+    MockMvc mvc;
+
+    @BeforeClass
+    public static void startInstance() throws Exception {
+        instance = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        instance.createContext(ReservationsClient.NAMES_PATH, exchange -> {
+            calls.incrementAndGet();
+            byte[] body = (status == 200 ? names : "{}").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        instance.start();
+        System.setProperty(SERVERS, "localhost:" + instance.getAddress().getPort());
+    }
+
+    @AfterClass
+    public static void stopInstance() {
+        System.clearProperty(SERVERS);
+        instance.stop(0);
+    }
+
+    @Before
+    public void setUp() {
+        mvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+        status = 200;
+        names = "[\"Jan\",\"Maria\"]";
+    }
+
+    @Test
+    public void should_serve_the_snapshot_while_reservation_service_fails() throws Exception {
+        // given
+        awaitSnapshot("Jan", "Maria");
+        mvc.perform(get("/reservations/hystrix-names"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("@").value(Matchers.contains("Jan", "Maria")));
+        status = 500;
+        int before = calls.get();
+
+        // when
+        mvc.perform(get("/reservations/hystrix-names"))
+
+        // then
+            .andExpect(status().isOk())
+            .andExpect(header().string(HttpHeaders.AGE, Matchers.notNullValue()))
+            .andExpect(jsonPath("@").value(Matchers.contains("Jan", "Maria")));
+        assertThat(calls.get()).isGreaterThan(before);
+        assertThat(snapshot.metrics()).extracting("name").containsExactly(ReservationsSnapshot.AGE);
+    }
+
+    @Test
+    public void should_refresh_the_snapshot_without_requests() throws Exception {
+        // given
+        names = "[\"Jan\",\"Maria\",\"Kasia\"]";
+
+        // when
+        awaitSnapshot("Jan", "Maria", "Kasia");
+
+        // then
+        assertThat(snapshot.current().get().names).containsExactly("Jan", "Maria", "Kasia");
+        assertThat(snapshot.current().get().age()).isLessThan(TimeUnit.SECONDS.toMillis(5));
+    }
+
+    private void awaitSnapshot(String... names) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!snapshot.current().filter(current -> current.names.equals(asList(names))).isPresent()
+            && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.example;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.cloud.client.discovery.event.HeartbeatEvent;
+
+public class ServiceInstancesTest {
+
+    DiscoveryClient discovery = mock(DiscoveryClient.class);
+    ServiceInstances instances = new ServiceInstances(discovery);
+
+    @Test
+    public void should_answer_from_snapshot_of_last_refresh() throws Exception {
+        // given
+        ServiceInstance first = new DefaultServiceInstance("reservationservice", "localhost", 8081, false);
+        ServiceInstance second = new DefaultServiceInstance("reservationservice", "localhost", 8082, false);
+        when(discovery.getServices()).thenReturn(singletonList("reservationservice"));
+        when(discovery.getInstances("reservationservice")).thenReturn(singletonList(first));
+        instances.refresh(new HeartbeatEvent(this, 1L));
+
+        // when
+        when(discovery.getInstances("reservationservice")).thenReturn(asList(first, second));
+
+        // then
+        assertThat(instances.get("RESERVATIONSERVICE")).containsExactly(first);
+        assertThat(instances.get("configservice")).isEmpty();
+        verify(discovery).getInstances("reservationservice");
+
+        // and when Eureka refreshed its cache
+        instances.refresh(new HeartbeatEvent(this, 2L));
+
+        // then
+        assertThat(instances.get("reservationservice")).containsExactly(first, second);
+        assertThat(instances.metrics()).extracting("name")
+            .containsExactly(ServiceInstances.AGE, ServiceInstances.LAG);
+    }
+}
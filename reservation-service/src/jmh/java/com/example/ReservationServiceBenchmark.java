@@ -0,0 +1,125 @@
+package com.example;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.SpringApplication;
+import org.springframework.cloud.stream.messaging.Sink;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.hateoas.Resource;
+import org.springframework.hateoas.ResourceProcessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Hot paths of reservation-service, measured against the embedded H2 and the Stream test binder.
+ * Run with {@code mvn -Pjmh integration-test}, results end up in {@code target/jmh-result.json}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReservationServiceBenchmark {
+
+    static final String NAME = "Benchmark";
+
+    /** Default of {@code reservations.batch.size}. */
+    static final int BATCH = 100;
+
+    @State(Scope.Benchmark)
+    public static class Service {
+
+        ConfigurableApplicationContext context;
+        ReservationRepository reservations;
+        MockMvc mvc;
+        ObjectMapper halMapper;
+        ResourceProcessor<Resource<Reservation>> processor;
+        Sink sink;
+        ReservationBatchWriter writer;
+        Reservation reservation;
+
+        final AtomicLong messages = new AtomicLong();
+
+        @Setup
+        @SuppressWarnings("unchecked")
+        public void start() {
+            context = SpringApplication.run(ReservationServiceApplication.class,
+                "--server.port=0",
+                "--eureka.client.enabled=false",
+                "--spring.cloud.config.enabled=false",
+                "--spring.cloud.config.discovery.enabled=false",
+                "--spring.zipkin.enabled=false",
+                "--graphite.enabled=false");
+            reservations = context.getBean(ReservationRepository.class);
+            mvc = MockMvcBuilders.webAppContextSetup((WebApplicationContext) context).build();
+            halMapper = context.getBean("halObjectMapper", ObjectMapper.class);
+            processor = context.getBean(ReservationResourceProcessor.class);
+            sink = context.getBean(Sink.class);
+            writer = context.getBean(ReservationBatchWriter.class);
+            reservation = reservations.save(new Reservation(NAME));
+        }
+
+        @TearDown
+        public void stop() {
+            context.close();
+        }
+    }
+
+    @Benchmark
+    public Reservation findByName(Service service) {
+        return service.reservations.findByName(NAME);
+    }
+
+    @Benchmark
+    public MvcResult controllerGet(Service service) throws Exception {
+        return service.mvc.perform(get("/custom-reservations/{name}", NAME)).andReturn();
+    }
+
+    @Benchmark
+    public byte[] halSerialization(Service service) throws Exception {
+        Resource<Reservation> resource = service.processor.process(new Resource<>(service.reservation));
+        return service.halMapper.writeValueAsBytes(resource);
+    }
+
+    /**
+     * Only hands the name to the batcher, which persists it later on its own thread, see {@link #batchWrite}.
+     */
+    @Benchmark
+    public boolean messageEnqueue(Service service) {
+        return service.sink.input().send(
+            MessageBuilder.withPayload(NAME + " " + service.messages.incrementAndGet()).build());
+    }
+
+    /**
+     * What the batcher does with a full batch of new names: one existence check and one JDBC batch insert.
+     */
+    @Benchmark
+    public int batchWrite(Service service) {
+        List<String> names = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            names.add(NAME + " " + service.messages.incrementAndGet());
+        }
+        return service.writer.writeBatch(names);
+    }
+}
@@ -0,0 +1,326 @@
+package com.example;
+
+import static java.util.Collections.singleton;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.codahale.metrics.Timer;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+@Configuration
+@EnableConfigurationProperties(BatchConfig.class)
+public class BatchingConfiguration {
+}
+
+@Data
+@ConfigurationProperties(prefix = "reservations.batch")
+class BatchConfig {
+
+    /** Maximum number of names persisted in one transaction. */
+    int size = 100;
+
+    /** How long to wait for a batch to fill up, in milliseconds. */
+    long timeout = 50;
+
+    /** Pending names buffered before the message consumer gets blocked. */
+    int capacity = 10_000;
+}
+
+/**
+ * Told once a buffered name is written, or could not be.
+ */
+interface NameCallback {
+
+    void done(boolean written);
+}
+
+/**
+ * Collects reservation names coming from the message channel and hands them over
+ * to {@link ReservationBatchWriter} once {@code size} names are gathered or
+ * {@code timeout} elapses, whichever comes first. The callback of every name runs
+ * only after its batch is committed, so that a message is acknowledged no earlier.
+ */
+@Slf4j
+@Component
+class ReservationBatcher {
+
+    static final String BATCH_TIMER = "latency.messages.batch";
+
+    private final ReservationBatchWriter writer;
+    private final BatchConfig config;
+    private final Timer batchTimer;
+    private final BlockingQueue<Pending> pending;
+    private final Thread worker;
+
+    private volatile boolean running;
+
+    public ReservationBatcher(ReservationBatchWriter writer, BatchConfig config, LatencyTimers timers) {
+        this.writer = writer;
+        this.config = config;
+        this.batchTimer = timers.timer(BATCH_TIMER);
+        this.pending = new ArrayBlockingQueue<>(config.capacity);
+        this.worker = new Thread(this::run, "reservation-batcher");
+    }
+
+    public void add(String name) throws InterruptedException {
+        add(name, null);
+    }
+
+    /**
+     * Blocks when the buffer is full, which pushes back on the message consumer.
+     */
+    public void add(String name, NameCallback callback) throws InterruptedException {
+        pending.put(new Pending(name, callback));
+    }
+
+    @PostConstruct
+    void start() {
+        running = true;
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        worker.join(TimeUnit.SECONDS.toMillis(10));
+        List<Pending> rest = new ArrayList<>();
+        pending.drainTo(rest);
+        if (!rest.isEmpty()) {
+            flush(rest);
+        }
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(config.size);
+        while (running) {
+            try {
+                collect(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void collect(List<Pending> batch) throws InterruptedException {
+        Pending first = pending.poll(config.timeout, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.timeout);
+        while (batch.size() < config.size) {
+            if (pending.drainTo(batch, config.size - batch.size()) > 0) {
+                continue;
+            }
+            long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                return;
+            }
+            Pending next = pending.poll(left, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void flush(List<Pending> batch) {
+        Timer.Context timer = batchTimer.time();
+        try {
+            List<String> names = new ArrayList<>(batch.size());
+            batch.forEach(entry -> names.add(entry.name));
+            int created = writer.writeBatch(names);
+            log.info("Created {} reservations from batch of {} messages", created, batch.size());
+            batch.forEach(entry -> entry.done(true));
+        } catch (RuntimeException e) {
+            log.warn("Batch of {} reservations failed, falling back to one by one", batch.size(), e);
+            batch.forEach(entry -> entry.done(flushOne(entry.name)));
+        } finally {
+            timer.stop();
+        }
+    }
+
+    private boolean flushOne(String name) {
+        try {
+            writer.writeOne(name);
+            return true;
+        } catch (RuntimeException e) {
+            log.error("Could not create reservation for {}", name, e);
+            return false;
+        }
+    }
+
+    @AllArgsConstructor
+    private static class Pending {
+
+        final String name;
+        final NameCallback callback;
+
+        void done(boolean written) {
+            if (callback != null) {
+                callback.done(written);
+            }
+        }
+    }
+}
+
+@Slf4j
+@Component
+class ReservationBatchWriter {
+
+    static final String INSERT = "insert into reservation (name) values (?)";
+
+    /** Keeps IN lists within what common databases accept. */
+    static final int LOOKUP_CHUNK = 1000;
+
+    private final ReservationRepository reservations;
+    private final ReservationCache cache;
+    private final JdbcTemplate jdbc;
+    private final ReservationEventHandler events;
+
+    public ReservationBatchWriter(ReservationRepository reservations, ReservationCache cache, JdbcTemplate jdbc,
+                                  ReservationEventHandler events) {
+        this.reservations = reservations;
+        this.cache = cache;
+        this.jdbc = jdbc;
+        this.events = events;
+    }
+
+    /**
+     * Inserts all names not taken yet with a single JDBC batch.
+     *
+     * @return number of reservations actually created
+     */
+    @Transactional
+    public int writeBatch(Collection<String> names) {
+        return (int) createAll(names).stream()
+            .filter(result -> result.status == BulkStatus.CREATED)
+            .count();
+    }
+
+    /**
+     * Creates reservations for all given names in one transaction: one existence check per
+     * {@link #LOOKUP_CHUNK} names and a single JDBC batch insert.
+     * Ids are database generated (identity), which rules out Hibernate insert batching,
+     * hence plain JDBC here.
+     *
+     * @return status of every name, in input order
+     */
+    @Transactional
+    public List<BulkResult> createAll(Collection<String> names) {
+        Set<String> existing = findExisting(names);
+        Set<String> created = new LinkedHashSet<>();
+        List<BulkResult> results = new ArrayList<>(names.size());
+        for (String name : names) {
+            if (ReservationController.isReserved(name)) {
+                results.add(new BulkResult(name, BulkStatus.RESERVED));
+            } else if (existing.contains(name)) {
+                results.add(new BulkResult(name, BulkStatus.EXISTS));
+            } else if (!created.add(name)) {
+                results.add(new BulkResult(name, BulkStatus.DUPLICATE));
+            } else {
+                results.add(new BulkResult(name, BulkStatus.CREATED));
+            }
+        }
+        if (!created.isEmpty()) {
+            List<Object[]> rows = new ArrayList<>(created.size());
+            created.forEach(name -> rows.add(new Object[] { name }));
+            jdbc.batchUpdate(INSERT, rows);
+            cache.evictAll(created);
+            events.createdAll(created);
+        }
+        return results;
+    }
+
+    /**
+     * Removes reservations for all given names with one DELETE statement per {@link #LOOKUP_CHUNK} names.
+     *
+     * @return status of every name, in input order
+     */
+    @Transactional
+    public List<BulkResult> deleteAll(Collection<String> names) {
+        Set<String> existing = findExisting(names);
+        if (!existing.isEmpty()) {
+            forEachChunk(existing, reservations::deleteByNames);
+            cache.evictAll(existing);
+            events.deletedAll(existing);
+        }
+        Set<String> seen = new HashSet<>();
+        List<BulkResult> results = new ArrayList<>(names.size());
+        for (String name : names) {
+            boolean deleted = existing.contains(name) && seen.add(name);
+            results.add(new BulkResult(name, deleted ? BulkStatus.DELETED : BulkStatus.NOT_FOUND));
+        }
+        return results;
+    }
+
+    private Set<String> findExisting(Collection<String> names) {
+        Set<String> existing = new HashSet<>();
+        forEachChunk(new LinkedHashSet<>(names), chunk -> existing.addAll(reservations.findExistingNames(chunk)));
+        return existing;
+    }
+
+    private static void forEachChunk(Collection<String> names, Consumer<List<String>> action) {
+        List<String> unique = new ArrayList<>(names);
+        for (int from = 0; from < unique.size(); from += LOOKUP_CHUNK) {
+            action.accept(unique.subList(from, Math.min(from + LOOKUP_CHUNK, unique.size())));
+        }
+    }
+
+    /**
+     * Inserts with plain JDBC too, whose translation tells a name taken apart from any other
+     * constraint violated, which still fails.
+     */
+    public void writeOne(String name) {
+        try {
+            jdbc.update(INSERT, name);
+            cache.evict(name);
+            events.createdAll(singleton(name));
+        } catch (DuplicateKeyException e) {
+            log.info("Reservation for {} already exists, skipping", name);
+        }
+    }
+}
+
+enum BulkStatus {
+    CREATED, EXISTS, DUPLICATE, RESERVED, DELETED, NOT_FOUND
+}
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+class BulkResult {
+
+    String name;
+
+    BulkStatus status;
+}
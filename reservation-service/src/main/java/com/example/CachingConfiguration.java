@@ -0,0 +1,203 @@
+package com.example;
+
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singleton;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.codahale.metrics.Timer;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheWriter;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import lombok.Data;
+
+@Configuration
+@EnableConfigurationProperties(CacheConfig.class)
+public class CachingConfiguration {
+
+    static final String FIND_BY_NAME_TIMER = "latency.repository.findByName";
+
+    @Bean
+    ReservationCache reservationCache(ReservationRepository reservations, CounterService counter, CacheConfig cache,
+                                      ApplicationEventPublisher publisher, LatencyTimers timers) {
+        return new ReservationCache(reservations, counter, cache, publisher, timers.timer(FIND_BY_NAME_TIMER));
+    }
+}
+
+@Data
+@ConfigurationProperties(prefix = "reservations.cache")
+class CacheConfig {
+
+    /** Maximum number of names kept, misses included. */
+    long size = 10_000;
+
+    /** How long an entry is trusted after it was loaded, in milliseconds. */
+    long ttl = 60_000;
+}
+
+/**
+ * Bounded name to reservation lookup in front of {@link ReservationRepository#findByName(String)}.
+ * Misses are cached as well, so repeated 404s don't hit the database either.
+ * Writers are expected to {@link #evict} the names they touch, once their transaction commits;
+ * every eviction is also published as a {@link ReservationInvalidation} so that other instances
+ * can follow.
+ */
+class ReservationCache {
+
+    static final String HIT = "reservations.cache.hit";
+    static final String MISS = "reservations.cache.miss";
+    static final String EVICTION = "reservations.cache.eviction";
+
+    private final ReservationRepository reservations;
+    private final CounterService counter;
+    private final ApplicationEventPublisher publisher;
+    private final Timer findByName;
+    private final Cache<String, Optional<Reservation>> cache;
+
+    /** Names each cached reservation is held under, so an id is invalidated without a scan. */
+    private final ConcurrentMap<Long, Set<String>> namesById = new ConcurrentHashMap<>();
+
+    ReservationCache(ReservationRepository reservations, CounterService counter, CacheConfig config,
+                     ApplicationEventPublisher publisher, Timer findByName) {
+        this.reservations = reservations;
+        this.counter = counter;
+        this.publisher = publisher;
+        this.findByName = findByName;
+        this.cache = Caffeine.newBuilder()
+            .maximumSize(config.size)
+            .expireAfterWrite(config.ttl, TimeUnit.MILLISECONDS)
+            .removalListener((String name, Optional<Reservation> value, RemovalCause cause) -> {
+                if (cause.wasEvicted()) {
+                    counter.increment(EVICTION);
+                }
+            })
+            .writer(new CacheWriter<String, Optional<Reservation>>() {
+                @Override
+                public void write(String name, Optional<Reservation> value) {
+                }
+
+                @Override
+                public void delete(String name, Optional<Reservation> value, RemovalCause cause) {
+                    // Called within the removal, unlike the removal listener, so it can't race a reload
+                    if (value != null) {
+                        value.ifPresent(reservation -> forget(reservation.id, name));
+                    }
+                }
+            })
+            .build();
+    }
+
+    public Reservation findByName(String name) {
+        Optional<Reservation> cached = cache.getIfPresent(name);
+        if (cached != null) {
+            counter.increment(HIT);
+        } else {
+            counter.increment(MISS);
+            cached = cache.get(name, this::load);
+        }
+        return cached.orElse(null);
+    }
+
+    private Optional<Reservation> load(String name) {
+        Timer.Context timer = findByName.time();
+        try {
+            Optional<Reservation> loaded = Optional.ofNullable(reservations.findByName(name));
+            loaded.ifPresent(reservation -> remember(reservation.id, name));
+            return loaded;
+        } finally {
+            timer.stop();
+        }
+    }
+
+    private void remember(Long id, String name) {
+        if (id != null) {
+            namesById.compute(id, (key, names) -> {
+                Set<String> updated = names != null ? names : new HashSet<>();
+                updated.add(name);
+                return updated;
+            });
+        }
+    }
+
+    private void forget(Long id, String name) {
+        if (id != null) {
+            namesById.computeIfPresent(id, (key, names) -> {
+                names.remove(name);
+                return names.isEmpty() ? null : names;
+            });
+        }
+    }
+
+    public void evict(String name) {
+        evict(new ReservationInvalidation(singleton(name), emptySet()));
+    }
+
+    public void evictAll(Collection<String> names) {
+        evict(new ReservationInvalidation(new HashSet<>(names), emptySet()));
+    }
+
+    /**
+     * Drops the entry for the reservation's name and any entry still holding it under
+     * a previous name, which is what a rename leaves behind.
+     */
+    public void evict(Reservation reservation) {
+        evict(new ReservationInvalidation(singleton(reservation.name),
+            reservation.id != null ? singleton(reservation.id) : emptySet()));
+    }
+
+    /**
+     * Within a transaction the eviction waits for the commit: evicted any earlier, a concurrent
+     * lookup here or on another instance could still read the old state and cache it again.
+     */
+    private void evict(ReservationInvalidation invalidation) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            evictNow(invalidation);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                evictNow(invalidation);
+            }
+        });
+    }
+
+    private void evictNow(ReservationInvalidation invalidation) {
+        evictLocally(invalidation);
+        publisher.publishEvent(invalidation);
+    }
+
+    /**
+     * Applies an invalidation without publishing it again.
+     */
+    public void evictLocally(ReservationInvalidation invalidation) {
+        cache.invalidateAll(invalidation.names);
+        for (Long id : invalidation.ids) {
+            Set<String> names = namesById.remove(id);
+            if (names != null) {
+                cache.invalidateAll(names);
+            }
+        }
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+        namesById.clear();
+    }
+}
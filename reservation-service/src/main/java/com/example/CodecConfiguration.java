@@ -0,0 +1,112 @@
+package com.example;
+
+import static java.util.Arrays.asList;
+import static java.util.function.Function.identity;
+import static java.util.stream.Collectors.toMap;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.AbstractJackson2HttpMessageConverter;
+import org.springframework.util.MimeType;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+@Configuration
+public class CodecConfiguration extends WebMvcConfigurerAdapter {
+
+    static final String SMILE_VALUE = "application/x-jackson-smile";
+    static final MediaType SMILE = MediaType.valueOf(SMILE_VALUE);
+
+    private final ObjectMapper smileMapper = new ObjectMapper(new SmileFactory())
+        .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    @Bean
+    NamesCodecs namesCodecs(ObjectMapper mapper) {
+        return new NamesCodecs(asList(
+            new JacksonNamesCodec(MediaType.APPLICATION_JSON, mapper),
+            new JacksonNamesCodec(SMILE, smileMapper)));
+    }
+
+    /**
+     * Appended after the JSON converter, so that only an explicit {@code Accept} gets Smile. Spring Data REST keeps
+     * converters of its own for HAL, so only {@code /custom-reservations} answers in Smile.
+     */
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(new SmileHttpMessageConverter(smileMapper));
+    }
+}
+
+/**
+ * Decoding of a batch of reservation names from a message payload, encoded by the reservation client.
+ */
+interface NamesCodec {
+
+    MimeType contentType();
+
+    List<String> decode(byte[] payload) throws IOException;
+}
+
+class JacksonNamesCodec implements NamesCodec {
+
+    static final TypeReference<List<String>> NAMES = new TypeReference<List<String>>() {};
+
+    private final MimeType contentType;
+    private final ObjectMapper mapper;
+
+    JacksonNamesCodec(MimeType contentType, ObjectMapper mapper) {
+        this.contentType = contentType;
+        this.mapper = mapper;
+    }
+
+    @Override
+    public MimeType contentType() {
+        return contentType;
+    }
+
+    @Override
+    public List<String> decode(byte[] payload) throws IOException {
+        return mapper.readValue(payload, NAMES);
+    }
+}
+
+/**
+ * Picks the {@link NamesCodec} by the message's content type, JSON when there is none.
+ */
+class NamesCodecs {
+
+    private final Map<String, NamesCodec> codecs;
+
+    NamesCodecs(List<NamesCodec> codecs) {
+        this.codecs = codecs.stream().collect(toMap(codec -> codec.contentType().toString(), identity()));
+    }
+
+    public List<String> decode(Object payload, Object contentType) throws IOException {
+        MimeType type = contentType != null ? MimeType.valueOf(contentType.toString()) : MediaType.APPLICATION_JSON;
+        NamesCodec codec = codecs.get(type.getType() + "/" + type.getSubtype());
+        if (codec == null) {
+            throw new IllegalArgumentException("No codec for reservation names in " + type);
+        }
+        return codec.decode(payload instanceof byte[]
+            ? (byte[]) payload
+            : payload.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
+
+class SmileHttpMessageConverter extends AbstractJackson2HttpMessageConverter {
+
+    SmileHttpMessageConverter(ObjectMapper mapper) {
+        super(mapper, CodecConfiguration.SMILE);
+    }
+}
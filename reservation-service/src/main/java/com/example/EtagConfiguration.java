@@ -0,0 +1,22 @@
+package com.example;
+
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.filter.ShallowEtagHeaderFilter;
+
+@Configuration
+public class EtagConfiguration {
+
+    /**
+     * ETags for reservation collections and items, so that clients revalidating with
+     * {@code If-None-Match} get an empty 304 while nothing changed. Streaming endpoints are
+     * left out on purpose, the filter would buffer them whole.
+     */
+    @Bean
+    FilterRegistrationBean etagFilter() {
+        FilterRegistrationBean registration = new FilterRegistrationBean(new ShallowEtagHeaderFilter());
+        registration.addUrlPatterns("/reservations/*", "/custom-reservations/_names");
+        return registration;
+    }
+}
@@ -1,17 +1,35 @@
 package com.example;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.graphite.Graphite;
 import com.codahale.metrics.graphite.GraphiteReporter;
+import com.codahale.metrics.graphite.GraphiteSender;
 import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
 
 @Configuration
 @ConditionalOnProperty(name = "graphite.enabled", havingValue = "true", matchIfMissing = true)
@@ -19,13 +37,25 @@ import lombok.Data;
 public class GraphiteConfiguration {
 
 	@Bean
-	GraphiteReporter graphiteReporter(MetricRegistry registry, GraphiteConfig graphite) {
+	GraphiteReporter graphiteReporter(MetricRegistry registry, GraphiteConfig graphite, GraphiteSender sender) {
 		GraphiteReporter reporter = GraphiteReporter.forRegistry(registry)
 				.prefixedWith("reservations")
-				.build(new Graphite(graphite.host, graphite.port));
-		reporter.start(2, TimeUnit.SECONDS);
+				.build(sender);
+		reporter.start(graphite.interval, TimeUnit.MILLISECONDS);
 		return reporter;
 	}
+
+	@Bean
+	@ConditionalOnProperty(name = "graphite.async", havingValue = "false")
+	GraphiteSender graphite(GraphiteConfig graphite) {
+		return new Graphite(graphite.host, graphite.port);
+	}
+
+	@Bean
+	@ConditionalOnProperty(name = "graphite.async", havingValue = "true", matchIfMissing = true)
+	BufferedGraphite bufferedGraphite(GraphiteConfig graphite, MetricRegistry registry) {
+		return new BufferedGraphite(graphite, registry);
+	}
 }
 
 @Data
@@ -35,4 +65,211 @@ class GraphiteConfig {
 	String host;
 
 	int port;
+
+	/** How often metrics are reported, in milliseconds. */
+	long interval = 2_000;
+
+	/** Send from a dedicated thread instead of blocking the reporter on the socket. */
+	boolean async = true;
+
+	/** Maximum number of points written to the socket at once. */
+	int batchSize = 500;
+
+	/** Points buffered while Graphite is slow or away; the oldest are dropped beyond that. */
+	int bufferSize = 10_000;
+
+	/** First delay before reconnecting, doubled after each failed attempt, in milliseconds. */
+	long reconnectDelay = 500;
+
+	/** Upper bound for the reconnect delay, in milliseconds. */
+	long maxReconnectDelay = 30_000;
+
+	/** How long to wait for a connection to Graphite, in milliseconds. */
+	int connectTimeout = 2_000;
+}
+
+/**
+ * {@link GraphiteSender} that only formats points into a bounded buffer; a dedicated thread
+ * writes them in batches of plaintext lines and reconnects with backoff when the socket fails.
+ * A full buffer drops its oldest points, so the reporter never waits for Graphite.
+ * Queue depth and drops are reported as {@code graphite.queue.depth} and {@code graphite.dropped}.
+ */
+@Slf4j
+class BufferedGraphite implements GraphiteSender {
+
+	static final String QUEUE_DEPTH = "graphite.queue.depth";
+	static final String DROPPED = "graphite.dropped";
+
+	private final GraphiteConfig config;
+	private final BlockingQueue<String> points;
+	private final Counter dropped;
+	private final Thread sender;
+
+	private volatile boolean running;
+	private volatile int failures;
+
+	private Socket socket;
+	private Writer writer;
+
+	BufferedGraphite(GraphiteConfig config, MetricRegistry registry) {
+		this.config = config;
+		this.points = new ArrayBlockingQueue<>(config.bufferSize);
+		this.dropped = registry.counter(DROPPED);
+		registry.register(QUEUE_DEPTH, (Gauge<Integer>) points::size);
+		this.sender = new Thread(this::run, "graphite-sender");
+	}
+
+	@PostConstruct
+	void start() {
+		running = true;
+		sender.setDaemon(true);
+		sender.start();
+	}
+
+	@PreDestroy
+	void stop() throws InterruptedException {
+		running = false;
+		sender.interrupt();
+		sender.join(TimeUnit.SECONDS.toMillis(5));
+		disconnect();
+	}
+
+	/**
+	 * Nothing to do, the sender thread owns the connection.
+	 */
+	@Override
+	public void connect() {
+	}
+
+	@Override
+	public void send(String name, String value, long timestamp) {
+		String point = sanitize(name) + ' ' + sanitize(value) + ' ' + timestamp + '\n';
+		while (!points.offer(point)) {
+			if (points.poll() != null) {
+				dropped.inc();
+			}
+		}
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	/**
+	 * Always {@code true}, so that the reporter keeps handing points over while disconnected.
+	 */
+	@Override
+	public boolean isConnected() {
+		return true;
+	}
+
+	@Override
+	public int getFailures() {
+		return failures;
+	}
+
+	/**
+	 * Called by the reporter after every failed report; the connection lives on until {@link #stop()}.
+	 */
+	@Override
+	public void close() {
+	}
+
+	private void run() {
+		List<String> batch = new ArrayList<>(config.batchSize);
+		while (running) {
+			try {
+				if (batch.isEmpty()) {
+					collect(batch);
+				}
+				if (!batch.isEmpty()) {
+					write(batch);
+					batch.clear();
+					failures = 0;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				running = false;
+			} catch (IOException | RuntimeException e) {
+				disconnect();
+				failures++;
+				backOff(e);
+			}
+		}
+	}
+
+	private void collect(List<String> batch) throws InterruptedException {
+		String first = points.poll(config.interval, TimeUnit.MILLISECONDS);
+		if (first != null) {
+			batch.add(first);
+			points.drainTo(batch, config.batchSize - 1);
+		}
+	}
+
+	private void write(List<String> batch) throws IOException {
+		if (writer == null) {
+			socket = new Socket();
+			socket.connect(new InetSocketAddress(config.host, config.port), config.connectTimeout);
+			writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+		}
+		for (String point : batch) {
+			writer.write(point);
+		}
+		writer.flush();
+	}
+
+	private void backOff(Exception e) {
+		long delay = Math.min(config.reconnectDelay << Math.min(failures - 1, 16), config.maxReconnectDelay);
+		log.warn("Unable to send metrics to Graphite at {}:{}, retrying in {} ms: {}",
+				config.host, config.port, delay, e.getMessage());
+		try {
+			Thread.sleep(delay);
+		} catch (InterruptedException interrupted) {
+			Thread.currentThread().interrupt();
+			running = false;
+		}
+	}
+
+	private void disconnect() {
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				log.debug("Failed to close Graphite connection", e);
+			}
+		}
+		socket = null;
+		writer = null;
+	}
+
+	/**
+	 * Replaces every run of whitespace by a dash. Runs for every point, so names and values without whitespace, nearly
+	 * all of them, come back as they are without a copy.
+	 */
+	private static String sanitize(String s) {
+		int index = 0;
+		while (index < s.length() && !whitespace(s.charAt(index))) {
+			index++;
+		}
+		if (index == s.length()) {
+			return s;
+		}
+		StringBuilder sanitized = new StringBuilder(s.length()).append(s, 0, index);
+		boolean run = false;
+		for (; index < s.length(); index++) {
+			char c = s.charAt(index);
+			if (!whitespace(c)) {
+				sanitized.append(c);
+			} else if (!run) {
+				sanitized.append('-');
+			}
+			run = whitespace(c);
+		}
+		return sanitized.toString();
+	}
+
+	/** What {@code \s} matches. */
+	private static boolean whitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
 }
@@ -0,0 +1,106 @@
+package com.example;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.cloud.stream.annotation.Input;
+import org.springframework.cloud.stream.annotation.Output;
+import org.springframework.cloud.stream.annotation.StreamListener;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Channels carrying cache invalidations between reservation-service instances.
+ * Both are bound to the same destination; the input has no consumer group,
+ * so every instance gets every invalidation.
+ */
+interface InvalidationChannels {
+
+    String INPUT = "invalidationsIn";
+    String OUTPUT = "invalidationsOut";
+
+    @Input(INPUT)
+    SubscribableChannel input();
+
+    @Output(OUTPUT)
+    MessageChannel output();
+}
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+class ReservationInvalidation {
+
+    /** Instance which made the change, filled in when the invalidation leaves it. */
+    String origin;
+
+    Set<String> names = new HashSet<>();
+
+    Set<Long> ids = new HashSet<>();
+
+    ReservationInvalidation(Set<String> names, Set<Long> ids) {
+        this.names = names;
+        this.ids = ids;
+    }
+}
+
+@Slf4j
+@Component
+class ClusterInvalidationBridge {
+
+    static final String PUBLISH_FAILED = "reservations.cache.invalidation.failed";
+
+    private final ReservationCache cache;
+    private final InvalidationChannels channels;
+    private final CounterService counter;
+    private final String instanceId;
+
+    public ClusterInvalidationBridge(ReservationCache cache,
+                                     InvalidationChannels channels,
+                                     CounterService counter,
+                                     @Value("${info.instanceId}") String instanceId) {
+        this.cache = cache;
+        this.channels = channels;
+        this.counter = counter;
+        this.instanceId = instanceId;
+    }
+
+    /**
+     * Runs on the writer's thread, once its transaction committed (see {@link ReservationCache}).
+     * The other instances' entries expire with their TTL anyway, so a broker that can't be
+     * reached is logged and counted as {@value #PUBLISH_FAILED}, never failing the write.
+     */
+    @EventListener
+    public void publish(ReservationInvalidation invalidation) {
+        if (invalidation.origin != null) {
+            return;
+        }
+        ReservationInvalidation outgoing =
+            new ReservationInvalidation(instanceId, invalidation.names, invalidation.ids);
+        try {
+            channels.output().send(MessageBuilder.withPayload(outgoing).build());
+        } catch (RuntimeException e) {
+            counter.increment(PUBLISH_FAILED);
+            log.warn("Could not publish invalidation of {}: {}", invalidation.names, e.toString());
+        }
+    }
+
+    @StreamListener(InvalidationChannels.INPUT)
+    public void receive(ReservationInvalidation invalidation) {
+        if (instanceId.equals(invalidation.origin)) {
+            return;
+        }
+        log.debug("Evicting {} on behalf of {}", invalidation.names, invalidation.origin);
+        cache.evictLocally(invalidation);
+    }
+}
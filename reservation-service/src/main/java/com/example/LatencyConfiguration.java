@@ -0,0 +1,336 @@
+package com.example;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
+import org.HdrHistogram.Recorder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.rest.core.mapping.MethodResourceMapping;
+import org.springframework.data.rest.core.mapping.ResourceMappings;
+import org.springframework.data.rest.core.mapping.ResourceMetadata;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import lombok.Data;
+
+@Configuration
+@EnableConfigurationProperties(LatencyConfig.class)
+public class LatencyConfiguration {
+
+    @Bean
+    LatencyTimers latencyTimers(MetricRegistry registry, LatencyConfig latency) {
+        return new LatencyTimers(registry, latency);
+    }
+
+    @Bean
+    LatencyFilter latencyFilter(LatencyTimers timers, ObjectProvider<ResourceMappings> mappings) {
+        return new LatencyFilter(timers, mappings);
+    }
+
+    @Bean
+    LatencyEndpoint latencyEndpoint(LatencyTimers timers) {
+        return new LatencyEndpoint(timers);
+    }
+}
+
+@Data
+@ConfigurationProperties(prefix = "latency")
+class LatencyConfig {
+
+    /** How long one histogram window lasts before percentiles start over, in milliseconds. */
+    long window = 10_000;
+
+    /** Precision of recorded latencies, as a number of significant decimal digits. */
+    int precision = 3;
+}
+
+/**
+ * Hands out {@link Timer}s backed by {@link HdrHistogramReservoir}, registered in the shared
+ * {@link MetricRegistry} so that they are reported to Graphite along with everything else.
+ */
+class LatencyTimers {
+
+    private final MetricRegistry registry;
+    private final LatencyConfig config;
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+
+    LatencyTimers(MetricRegistry registry, LatencyConfig config) {
+        this.registry = registry;
+        this.config = config;
+    }
+
+    public Timer timer(String name) {
+        Timer timer = timers.get(name);
+        return timer != null ? timer : timers.computeIfAbsent(name, this::register);
+    }
+
+    private Timer register(String name) {
+        Timer existing = registry.getTimers().get(name);
+        if (existing != null) {
+            return existing;
+        }
+        return registry.register(name, new Timer(
+            new HdrHistogramReservoir(config.precision, config.window, Clock.defaultClock())));
+    }
+
+    public Map<String, Timer> all() {
+        return timers;
+    }
+}
+
+/**
+ * Times every request that got mapped to a handler, under a name derived from the matched
+ * pattern, e.g. {@code latency.http.get.custom-reservations.name} or
+ * {@code latency.http.get.reservations.search.by-name}. Async requests are skipped,
+ * their duration says nothing about the handler.
+ */
+class LatencyFilter extends OncePerRequestFilter {
+
+    static final String REPOSITORY = "repository";
+    static final String SEARCH = "search";
+
+    private final LatencyTimers timers;
+    private final ObjectProvider<ResourceMappings> mappings;
+
+    LatencyFilter(LatencyTimers timers, ObjectProvider<ResourceMappings> mappings) {
+        this.timers = timers;
+        this.mappings = mappings;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        long start = System.nanoTime();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            if (pattern != null && !request.isAsyncStarted()) {
+                timers.timer(name(request, response.getStatus(), pattern.toString()))
+                    .update(System.nanoTime() - start, NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * Spring Data REST's {@code {repository}} and {@code {search}} are replaced by their values, which tell the handlers
+     * apart, unlike ids and names which would make a timer per value. Only the values of exported repositories and
+     * searches are, made up ones match the pattern all the same and would make a timer each before turning out not
+     * found. Without Spring Data REST, as in web slice tests, nothing is replaced.
+     */
+    @SuppressWarnings("unchecked")
+    String name(HttpServletRequest request, int status, String pattern) {
+        Map<String, String> variables =
+            (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        ResourceMetadata repository = variables == null || status == HttpStatus.NOT_FOUND.value()
+            ? null : exported(variables.get(REPOSITORY));
+        if (repository != null) {
+            pattern = pattern.replace("{" + REPOSITORY + "}", variables.get(REPOSITORY));
+            String search = variables.get(SEARCH);
+            if (search != null && isExported(repository, search)) {
+                pattern = pattern.replace("{" + SEARCH + "}", search);
+            }
+        }
+        String path = pattern.replaceAll("[{}*]", "").replace('/', '.').replaceAll("\\.+", ".");
+        return MetricRegistry.name("latency.http", request.getMethod().toLowerCase() + path);
+    }
+
+    private ResourceMetadata exported(String path) {
+        ResourceMappings resources = mappings.getIfAvailable();
+        if (path == null || resources == null) {
+            return null;
+        }
+        for (ResourceMetadata repository : resources) {
+            if (repository.isExported() && repository.getPath().matches(path)) {
+                return repository;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isExported(ResourceMetadata repository, String path) {
+        for (MethodResourceMapping search : repository.getSearchResourceMappings()) {
+            if (search.isExported() && search.getPath().matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
+
+/**
+ * Percentiles of all latency timers, in milliseconds.
+ */
+class LatencyEndpoint extends AbstractEndpoint<Map<String, Object>> {
+
+    private final LatencyTimers timers;
+
+    LatencyEndpoint(LatencyTimers timers) {
+        super("latency");
+        this.timers = timers;
+    }
+
+    @Override
+    public Map<String, Object> invoke() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        timers.all().entrySet().stream()
+            .sorted(Map.Entry.comparingByKey())
+            .forEach(entry -> result.put(entry.getKey(), describe(entry.getValue())));
+        return result;
+    }
+
+    private Map<String, Object> describe(Timer timer) {
+        Snapshot snapshot = timer.getSnapshot();
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("count", timer.getCount());
+        values.put("p50", millis(snapshot.getMedian()));
+        values.put("p95", millis(snapshot.get95thPercentile()));
+        values.put("p99", millis(snapshot.get99thPercentile()));
+        values.put("p999", millis(snapshot.get999thPercentile()));
+        values.put("max", millis(snapshot.getMax()));
+        return values;
+    }
+
+    private static double millis(double nanos) {
+        return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
+
+/**
+ * Records into an HdrHistogram {@link Recorder}, which is wait-free for writers. Readers get the
+ * values recorded during the last complete window; every reader within a window sees the same
+ * snapshot, so Graphite and the actuator endpoint don't steal values from each other.
+ */
+class HdrHistogramReservoir implements Reservoir {
+
+    private final Recorder recorder;
+    private final long window;
+    private final Clock clock;
+
+    private Histogram interval;
+    private Snapshot snapshot;
+    private long windowStart;
+
+    HdrHistogramReservoir(int precision, long windowMillis, Clock clock) {
+        this.recorder = new Recorder(precision);
+        this.window = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.clock = clock;
+        this.interval = recorder.getIntervalHistogram();
+        this.snapshot = new HdrSnapshot(interval.copy());
+        this.windowStart = clock.getTick();
+    }
+
+    @Override
+    public int size() {
+        return getSnapshot().size();
+    }
+
+    @Override
+    public void update(long value) {
+        recorder.recordValue(value);
+    }
+
+    @Override
+    public synchronized Snapshot getSnapshot() {
+        long now = clock.getTick();
+        if (now - windowStart >= window) {
+            interval = recorder.getIntervalHistogram(interval);
+            snapshot = new HdrSnapshot(interval.copy());
+            windowStart = now;
+        }
+        return snapshot;
+    }
+}
+
+class HdrSnapshot extends Snapshot {
+
+    private final Histogram histogram;
+
+    HdrSnapshot(Histogram histogram) {
+        this.histogram = histogram;
+    }
+
+    @Override
+    public double getValue(double quantile) {
+        return histogram.getValueAtPercentile(quantile * 100);
+    }
+
+    /**
+     * Distinct recorded values only; a full expansion could hold millions of entries.
+     */
+    @Override
+    public long[] getValues() {
+        int count = 0;
+        for (HistogramIterationValue ignored : histogram.recordedValues()) {
+            count++;
+        }
+        long[] values = new long[count];
+        int i = 0;
+        for (HistogramIterationValue value : histogram.recordedValues()) {
+            values[i++] = value.getValueIteratedTo();
+        }
+        return values;
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(histogram.getTotalCount(), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public long getMax() {
+        return histogram.getTotalCount() == 0 ? 0 : histogram.getMaxValue();
+    }
+
+    @Override
+    public double getMean() {
+        return histogram.getTotalCount() == 0 ? 0 : histogram.getMean();
+    }
+
+    @Override
+    public long getMin() {
+        return histogram.getTotalCount() == 0 ? 0 : histogram.getMinValue();
+    }
+
+    @Override
+    public double getStdDev() {
+        return histogram.getTotalCount() == 0 ? 0 : histogram.getStdDeviation();
+    }
+
+    @Override
+    public void dump(OutputStream output) {
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+            for (long value : getValues()) {
+                out.printf("%d%n", value);
+            }
+        }
+    }
+}
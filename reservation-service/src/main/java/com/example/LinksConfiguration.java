@@ -0,0 +1,30 @@
+package com.example;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import lombok.Data;
+
+@Configuration
+@EnableConfigurationProperties(LinkConfig.class)
+public class LinksConfiguration {
+}
+
+@Data
+@ConfigurationProperties(prefix = "reservations.links")
+class LinkConfig {
+
+    /** Extra links added to every reservation resource: rel to URI template with a {name} variable. */
+    Map<String, String> templates = new LinkedHashMap<>();
+
+    /** Number of names whose expanded links are kept around. */
+    long cacheSize = 10_000;
+
+    LinkConfig() {
+        templates.put("photo", "https://www.google.pl/search?tbm=isch&q={name}");
+    }
+}
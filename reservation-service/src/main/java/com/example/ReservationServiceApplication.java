@@ -1,23 +1,47 @@
 package com.example;
 
-import static java.lang.String.format;
+import static java.lang.Math.min;
 import static java.lang.System.currentTimeMillis;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.unmodifiableList;
+import static java.util.function.Function.identity;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
 import static org.springframework.http.HttpStatus.BAD_REQUEST;
 import static org.springframework.http.HttpStatus.NO_CONTENT;
+import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
 import static org.springframework.web.bind.annotation.RequestMethod.DELETE;
 import static org.springframework.web.bind.annotation.RequestMethod.GET;
 import static org.springframework.web.bind.annotation.RequestMethod.POST;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
+import javax.persistence.EntityManager;
 import javax.persistence.Id;
+import javax.persistence.PersistenceContext;
+import javax.persistence.QueryHint;
 import javax.persistence.Table;
 import javax.persistence.UniqueConstraint;
 
+import org.springframework.amqp.support.AmqpHeaders;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
@@ -32,7 +56,12 @@ import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
 import org.springframework.cloud.stream.annotation.EnableBinding;
 import org.springframework.cloud.stream.messaging.Sink;
 import org.springframework.core.env.Environment;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.data.rest.core.annotation.HandleAfterCreate;
 import org.springframework.data.rest.core.annotation.HandleAfterDelete;
@@ -44,15 +73,36 @@ import org.springframework.hateoas.Link;
 import org.springframework.hateoas.Resource;
 import org.springframework.hateoas.ResourceProcessor;
 import org.springframework.hateoas.mvc.ControllerLinkBuilder;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.integration.annotation.MessageEndpoint;
 import org.springframework.integration.annotation.ServiceActivator;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.util.UriTemplate;
+
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.rabbitmq.client.Channel;
 
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -61,7 +111,7 @@ import lombok.extern.slf4j.Slf4j;
 
 @SpringBootApplication
 @EnableDiscoveryClient
-@EnableBinding(Sink.class)
+@EnableBinding({Sink.class, InvalidationChannels.class})
 public class ReservationServiceApplication {
 
 	public static void main(String[] args) {
@@ -69,17 +119,103 @@ public class ReservationServiceApplication {
 	}
 }
 
+/**
+ * Consumes with manual acknowledgements (see {@code application.yml}): a message is acked once
+ * the batch holding its names is committed, so names still buffered when the instance goes down
+ * are redelivered rather than lost. Creating a reservation twice only reports it as existing.
+ */
 @Slf4j
 @MessageEndpoint
 class ReservationServiceActivator {
 
+    static final String CONSUME_TIMER = "latency.messages.consume";
+
+    /** Marks messages carrying a batch of names, encoded as their content type says. */
+    static final String BATCH_HEADER = "reservationBatch";
+
+    @Autowired
+    private ReservationBatcher batcher;
+
     @Autowired
-    private ReservationRepository reservationRepository;
+    private LatencyTimers timers;
+
+    @Autowired
+    private NamesCodecs codecs;
 
     @ServiceActivator(inputChannel = Sink.INPUT)
-    public void createReservation(String reservationName) {
-        log.info("Creating reservation from message {}", reservationName);
-        reservationRepository.save(new Reservation(reservationName));
+    public void createReservation(@Payload Object payload,
+                                  @Header(name = BATCH_HEADER, required = false) Boolean batch,
+                                  @Header(name = MessageHeaders.CONTENT_TYPE, required = false) Object contentType,
+                                  @Header(name = AmqpHeaders.CHANNEL, required = false) Channel channel,
+                                  @Header(name = AmqpHeaders.DELIVERY_TAG, required = false) Long deliveryTag,
+                                  @Header(name = AmqpHeaders.REDELIVERED, required = false) Boolean redelivered)
+            throws InterruptedException, IOException {
+        log.debug("Creating reservation from message {}", payload);
+        Timer.Context timer = timers.timer(CONSUME_TIMER).time();
+        try {
+            List<String> names = Boolean.TRUE.equals(batch)
+                ? codecs.decode(payload, contentType)
+                : singletonList(payload instanceof byte[]
+                    ? new String((byte[]) payload, StandardCharsets.UTF_8)
+                    : payload.toString());
+            MessageAcknowledgement ack = channel != null && deliveryTag != null
+                ? new MessageAcknowledgement(channel, deliveryTag, Boolean.TRUE.equals(redelivered), names.size())
+                : null;
+            for (String name : names) {
+                batcher.add(name, ack);
+            }
+            if (ack != null && names.isEmpty()) {
+                ack.settle();
+            }
+        } finally {
+            timer.stop();
+        }
+    }
+}
+
+/**
+ * Acks a message once every one of its names is written. When one of them could not be, the
+ * message goes back to the queue once, in case the failure was passing, and is rejected when it
+ * fails again, so that a message that never gets written is not redelivered forever. Rejected
+ * messages go to the dead letter queue, see {@code application.yml}.
+ */
+@Slf4j
+class MessageAcknowledgement implements NameCallback {
+
+    private final Channel channel;
+    private final long deliveryTag;
+    private final boolean redelivered;
+    private final AtomicInteger remaining;
+    private volatile boolean failed;
+
+    MessageAcknowledgement(Channel channel, long deliveryTag, boolean redelivered, int names) {
+        this.channel = channel;
+        this.deliveryTag = deliveryTag;
+        this.redelivered = redelivered;
+        this.remaining = new AtomicInteger(names);
+    }
+
+    @Override
+    public void done(boolean written) {
+        if (!written) {
+            failed = true;
+        }
+        if (remaining.decrementAndGet() == 0) {
+            settle();
+        }
+    }
+
+    void settle() {
+        try {
+            if (failed) {
+                channel.basicNack(deliveryTag, false, !redelivered);
+            } else {
+                channel.basicAck(deliveryTag, false);
+            }
+        } catch (IOException | RuntimeException e) {
+            // The channel is gone, so is the delivery: the broker redelivers the message anyway
+            log.warn("Could not acknowledge message {}: {}", deliveryTag, e.toString());
+        }
     }
 }
 
@@ -89,14 +225,17 @@ class ReservationServiceActivator {
 class ReservationEventHandler {
 
     private final CounterService counter;
+    private final ReservationCache cache;
 
-    public ReservationEventHandler(CounterService counter) {
+    public ReservationEventHandler(CounterService counter, ReservationCache cache) {
         this.counter = counter;
+        this.cache = cache;
     }
 
     @HandleAfterCreate
     public void create(Reservation reservation) {
         log.info("Created redervation for {}.", reservation.name);
+        cache.evict(reservation.name);
         counter.increment("count");
         counter.increment("create");
     }
@@ -104,15 +243,54 @@ class ReservationEventHandler {
     @HandleAfterSave
     public void save(Reservation reservation) {
         log.info("Updated redervation for {}.", reservation.name);
+        cache.evict(reservation);
         counter.increment("save");
     }
 
     @HandleAfterDelete
     public void delete(Reservation reservation) {
         log.info("Removed redervation for {}.", reservation.name);
+        cache.evict(reservation);
         counter.decrement("count");
         counter.increment("delete");
     }
+
+    /**
+     * Counts reservations written past Spring Data REST, by the bulk endpoints and the message
+     * listener, once their transaction commits.
+     */
+    public void createdAll(Collection<String> names) {
+        afterCommit(() -> {
+            log.info("Created {} reservations in bulk.", names.size());
+            for (int i = 0; i < names.size(); i++) {
+                counter.increment("count");
+                counter.increment("create");
+            }
+        });
+    }
+
+    public void deletedAll(Collection<String> names) {
+        afterCommit(() -> {
+            log.info("Removed {} reservations in bulk.", names.size());
+            for (int i = 0; i < names.size(); i++) {
+                counter.decrement("count");
+                counter.increment("delete");
+            }
+        });
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
 }
 
 @Component
@@ -133,16 +311,48 @@ class ReservationInfo implements InfoContributor {
     }
 }
 
+/**
+ * Adds the links configured under {@code reservations.links.templates} to every reservation.
+ * Templates are parsed once and links expanded once per name; clients not interested in them
+ * can pass {@code ?links=none}.
+ */
 @Component
 class ReservationResourceProcessor implements ResourceProcessor<Resource<Reservation>> {
 
+    static final String LINKS_PARAM = "links";
+    static final String NO_LINKS = "none";
+
+    private final Map<String, UriTemplate> templates = new LinkedHashMap<>();
+    private final Cache<String, List<Link>> links;
+
+    public ReservationResourceProcessor(LinkConfig config) {
+        config.templates.forEach((rel, template) -> templates.put(rel, new UriTemplate(template)));
+        links = Caffeine.newBuilder()
+            .maximumSize(config.cacheSize)
+            .build();
+    }
+
     @Override
     public Resource<Reservation> process(Resource<Reservation> resource) {
-        Reservation reservation = resource.getContent();
-        String url = format("https://www.google.pl/search?tbm=isch&q=%s", reservation.getName());
-        resource.add(new Link(url, "photo"));
+        String name = resource.getContent().getName();
+        if (name != null && !templates.isEmpty() && linksRequested()) {
+            resource.add(links.get(name, this::expand));
+        }
         return resource;
     }
+
+    private List<Link> expand(String name) {
+        List<Link> expanded = new ArrayList<>(templates.size());
+        templates.forEach((rel, template) ->
+            expanded.add(new Link(template.expand(name).toString(), rel)));
+        return unmodifiableList(expanded);
+    }
+
+    private boolean linksRequested() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        return !(attributes instanceof ServletRequestAttributes)
+            || !NO_LINKS.equals(((ServletRequestAttributes) attributes).getRequest().getParameter(LINKS_PARAM));
+    }
 }
 
 @Slf4j
@@ -180,28 +390,162 @@ class ReservationsInitializer implements ApplicationRunner {
 @RequestMapping("/custom-reservations")
 class ReservationController {
 
-    private final ReservationRepository reservations;
+    static final String NDJSON_VALUE = "application/x-ndjson";
 
-    public ReservationController(ReservationRepository reservations) {
+    static final int DEFAULT_PAGE_SIZE = 100;
+    static final int MAX_PAGE_SIZE = 1000;
+
+    /**
+     * Starts the paths next to {@code /{name}}, so no reservation may be named like that,
+     * or it could not be read or removed.
+     */
+    static final String RESERVED_PREFIX = "_";
+
+    /** Names handled per transaction when bulk creating from an NDJSON stream. */
+    static final int BULK_CHUNK = 1000;
+
+    private final ReservationRepository reservations;
+    private final ReservationCache cache;
+    private final ReservationStreamer streamer;
+    private final ReservationBatchWriter writer;
+    private final ObjectMapper mapper;
+
+    public ReservationController(ReservationRepository reservations,
+                                 ReservationCache cache,
+                                 ReservationStreamer streamer,
+                                 ReservationBatchWriter writer,
+                                 ObjectMapper mapper) {
         this.reservations = reservations;
+        this.cache = cache;
+        this.streamer = streamer;
+        this.writer = writer;
+        this.mapper = mapper;
     }
 
     @RequestMapping(method = GET)
-	public Collection<Reservation> list() {
-        return reservations.findAll();
+	public ResponseEntity<Collection<Reservation>> list(@RequestParam(name = "after", required = false) Long after,
+                                                        @RequestParam(name = "limit", required = false) Integer limit) {
+        if (after == null && limit == null) {
+            return ResponseEntity.ok(reservations.findAll());
+        }
+
+        int size = pageSize(limit);
+        List<Reservation> page = reservations.findByIdGreaterThanOrderByIdAsc(
+            after != null ? after : 0L, new PageRequest(0, size));
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.size() == size) {
+            Long last = page.get(page.size() - 1).id;
+            response.header(HttpHeaders.LINK, ControllerLinkBuilder.linkTo(
+                ControllerLinkBuilder.methodOn(ReservationController.class).list(last, size))
+                .withRel("next").toString());
+        }
+        return response.body(page);
 	}
 
+    /**
+     * Just the names, for clients that have no use for the rest of a reservation.
+     */
+    @RequestMapping(path = "/_names", method = GET)
+    public List<String> names(@RequestParam(name = "page", defaultValue = "0") int page,
+                              @RequestParam(name = "size", required = false) Integer size) {
+        return reservations.findNames(new PageRequest(page, pageSize(size)));
+    }
+
+    /**
+     * One entry per requested id, in the same order, {@code null} where there is no such reservation.
+     */
+    @RequestMapping(path = "/_by-ids", method = GET)
+    public List<Reservation> byIds(@RequestParam("ids") List<Long> ids) {
+        if (ids.size() > MAX_PAGE_SIZE) {
+            throw new TooManyIds();
+        }
+        Map<Long, Reservation> found = reservations.findAll(ids).stream()
+            .collect(toMap(Reservation::getId, identity()));
+        return ids.stream().map(found::get).collect(toList());
+    }
+
+    private static int pageSize(Integer requested) {
+        return min(requested != null && requested > 0 ? requested : DEFAULT_PAGE_SIZE, MAX_PAGE_SIZE);
+    }
+
+    @RequestMapping(method = GET, produces = NDJSON_VALUE)
+    public StreamingResponseBody stream() {
+        return out -> streamer.forEach(reservation -> writeLine(out, reservation));
+    }
+
+    private void writeLine(OutputStream out, Reservation reservation) {
+        try {
+            out.write(mapper.writeValueAsBytes(reservation));
+            out.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     @RequestMapping(method = POST)
 	public ResponseEntity<Void> create(@RequestBody Reservation reservation) {
-        if (reservations.findByName(reservation.name) != null) {
+        if (isReserved(reservation.name)) {
+            throw new ReservedName();
+        }
+        if (cache.findByName(reservation.name) != null) {
             throw new ReservationAlreadyExists();
         }
 
         reservations.save(reservation);
+        cache.evict(reservation.name);
 
         return ResponseEntity.created(selfURI(reservation)).build();
     }
 
+    @RequestMapping(path = "/_bulk", method = POST, consumes = {APPLICATION_JSON_VALUE, CodecConfiguration.SMILE_VALUE})
+    public List<BulkResult> createAll(@RequestBody List<Reservation> batch) {
+        return writer.createAll(batch.stream().map(Reservation::getName).collect(toList()));
+    }
+
+    /**
+     * Same as {@link #createAll(List)}, but reads the body as it goes, commits every
+     * {@link #BULK_CHUNK} names and writes their results back as NDJSON right away,
+     * so arbitrarily large imports don't have to fit in memory, neither coming in nor going out.
+     */
+    @RequestMapping(path = "/_bulk", method = POST, consumes = NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> createAll(InputStream body) {
+        return ResponseEntity.ok()
+            .contentType(MediaType.parseMediaType(NDJSON_VALUE))
+            .body(out -> {
+                List<String> chunk = new ArrayList<>(BULK_CHUNK);
+                try (MappingIterator<Reservation> batch = mapper.readerFor(Reservation.class).readValues(body)) {
+                    while (batch.hasNextValue()) {
+                        chunk.add(batch.nextValue().name);
+                        if (chunk.size() == BULK_CHUNK) {
+                            writeLines(out, writer.createAll(chunk));
+                            chunk.clear();
+                        }
+                    }
+                }
+                if (!chunk.isEmpty()) {
+                    writeLines(out, writer.createAll(chunk));
+                }
+            });
+    }
+
+    private void writeLines(OutputStream out, List<BulkResult> results) throws IOException {
+        for (BulkResult result : results) {
+            out.write(mapper.writeValueAsBytes(result));
+            out.write('\n');
+        }
+        out.flush();
+    }
+
+    @RequestMapping(path = "/_bulk", method = DELETE)
+    public List<BulkResult> deleteAll(@RequestBody List<String> names) {
+        return writer.deleteAll(names);
+    }
+
+    static boolean isReserved(String name) {
+        return name != null && name.startsWith(RESERVED_PREFIX);
+    }
+
     private URI selfURI(Reservation reservation) {
         return ControllerLinkBuilder.linkTo(
             ControllerLinkBuilder.methodOn(ReservationController.class).get(reservation.name))
@@ -211,7 +555,7 @@ class ReservationController {
     @RequestMapping(path = "/{name}", method = GET)
     public ResponseEntity<?> get(@PathVariable("name") String name) {
         log.info("get");
-        Reservation reservation = reservations.findByName(name);
+        Reservation reservation = cache.findByName(name);
         if (reservation != null) {
             log.info("found");
             return ResponseEntity.ok()
@@ -226,9 +570,37 @@ class ReservationController {
     @RequestMapping(path = "/{name}", method = DELETE)
     @ResponseStatus(NO_CONTENT)
     public void delete(@PathVariable("name") String name) {
-        Reservation reservation = reservations.findByName(name);
+        Reservation reservation = cache.findByName(name);
         if (reservation != null) {
             reservations.delete(reservation);
+            cache.evict(reservation);
+        }
+    }
+}
+
+@Component
+class ReservationStreamer {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final ReservationRepository reservations;
+
+    public ReservationStreamer(ReservationRepository reservations) {
+        this.reservations = reservations;
+    }
+
+    /**
+     * Walks all reservations in id order without materializing the whole table.
+     * Entities are detached once handed over, so the persistence context stays small.
+     */
+    @Transactional(readOnly = true)
+    public void forEach(Consumer<Reservation> action) {
+        try (Stream<Reservation> stream = reservations.streamAllOrderedById()) {
+            stream.forEach(reservation -> {
+                action.accept(reservation);
+                entityManager.detach(reservation);
+            });
         }
     }
 }
@@ -237,12 +609,41 @@ class ReservationController {
 class ReservationAlreadyExists extends RuntimeException {
 }
 
+@ResponseStatus(value = BAD_REQUEST, reason = "Names can't start with " + ReservationController.RESERVED_PREFIX)
+class ReservedName extends RuntimeException {
+}
+
+@ResponseStatus(value = BAD_REQUEST, reason = "Too many ids!")
+class TooManyIds extends RuntimeException {
+}
+
 @RepositoryRestResource
 interface ReservationRepository extends JpaRepository<Reservation, Long> {
 
     @RestResource(path = "by-name", rel = "find-by-name")
     Reservation findByName(@Param("name")String name);
 
+    @RestResource(exported = false)
+    @Query("select r.name from Reservation r where r.name in :names")
+    Set<String> findExistingNames(@Param("names") Collection<String> names);
+
+    @RestResource(exported = false)
+    @Modifying
+    @Query("delete from Reservation r where r.name in :names")
+    int deleteByNames(@Param("names") Collection<String> names);
+
+    @RestResource(exported = false)
+    List<Reservation> findByIdGreaterThanOrderByIdAsc(Long id, Pageable page);
+
+    @RestResource(exported = false)
+    @Query("select r.name from Reservation r order by r.id")
+    List<String> findNames(Pageable page);
+
+    @RestResource(exported = false)
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "500"))
+    @Query("select r from Reservation r order by r.id")
+    Stream<Reservation> streamAllOrderedById();
+
     @RestResource(exported = false)
     @Override
     void delete(Long id);
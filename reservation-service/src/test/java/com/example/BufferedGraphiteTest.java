@@ -0,0 +1,99 @@
+package com.example;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class BufferedGraphiteTest {
+
+    MetricRegistry registry = new MetricRegistry();
+    BufferedGraphite graphite;
+
+    @After
+    public void tearDown() throws Exception {
+        if (graphite != null) {
+            graphite.stop();
+        }
+    }
+
+    @Test
+    public void should_send_buffered_points_as_plaintext_lines() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            // given
+            graphite = new BufferedGraphite(config(server.getLocalPort(), 100), registry);
+            graphite.start();
+
+            // when
+            graphite.send("reservations.count", "42", 1000);
+            graphite.send("reservations.with space", "1", 1001);
+            graphite.send("reservations.with \t spaces ", "2", 1002);
+
+            // then
+            try (Socket client = server.accept();
+                 BufferedReader in = new BufferedReader(
+                     new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8))) {
+                assertThat(in.readLine()).isEqualTo("reservations.count 42 1000");
+                assertThat(in.readLine()).isEqualTo("reservations.with-space 1 1001");
+                assertThat(in.readLine()).isEqualTo("reservations.with-spaces- 2 1002");
+            }
+        }
+    }
+
+    @Test
+    public void should_drop_oldest_points_while_graphite_is_away() throws Exception {
+        // given
+        int port;
+        try (ServerSocket unused = new ServerSocket(0)) {
+            port = unused.getLocalPort();
+        }
+        graphite = new BufferedGraphite(config(port, 10), registry);
+
+        // when
+        for (int i = 0; i < 15; i++) {
+            graphite.send("point", String.valueOf(i), i);
+        }
+
+        // then
+        assertThat(registry.counter(BufferedGraphite.DROPPED).getCount()).isEqualTo(5);
+        assertThat(registry.getGauges().get(BufferedGraphite.QUEUE_DEPTH).getValue()).isEqualTo(10);
+
+        // and when Graphite comes back
+        try (ServerSocket server = new ServerSocket(port)) {
+            graphite.start();
+            List<String> lines = new ArrayList<>();
+            try (Socket client = server.accept();
+                 BufferedReader in = new BufferedReader(
+                     new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8))) {
+                for (int i = 0; i < 10; i++) {
+                    lines.add(in.readLine());
+                }
+            }
+
+            // then
+            assertThat(lines).first().isEqualTo("point 5 5");
+            assertThat(lines).last().isEqualTo("point 14 14");
+        }
+    }
+
+    private static GraphiteConfig config(int port, int bufferSize) {
+        GraphiteConfig config = new GraphiteConfig();
+        config.host = "localhost";
+        config.port = port;
+        config.interval = 50;
+        config.batchSize = 4;
+        config.bufferSize = bufferSize;
+        config.reconnectDelay = 10;
+        return config;
+    }
+}
@@ -0,0 +1,286 @@
+package com.example;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.stream.messaging.Sink;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.Channel;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import lombok.extern.slf4j.Slf4j;
+
+@Slf4j
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"graphite.enabled=false", "spring.sleuth.enabled=false"})
+public class ReservationsBatchingTest {
+
+    static final int MESSAGES = 20_000;
+
+    @Autowired Sink sink;
+    @Autowired ReservationBatchWriter writer;
+    @Autowired ReservationRepository reservations;
+    @Autowired JdbcTemplate jdbc;
+    @Autowired MetricRegistry registry;
+    @Autowired WebApplicationContext webApplicationContext;
+
+    MockMvc mvc;
+
+    @Before
+    public void setUp() {
+        mvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+    }
+
+    @Test
+    public void should_create_reservations_from_message_burst() throws Exception {
+        // when
+        long start = System.nanoTime();
+        for (int i = 0; i < MESSAGES; i++) {
+            sink.input().send(MessageBuilder.withPayload("Burst " + i).build());
+            sink.input().send(MessageBuilder.withPayload("Burst " + i).build());
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (burstCount() < MESSAGES && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        // then
+        assertThat(burstCount()).isEqualTo(MESSAGES);
+        log.info("Consumed {} messages in {} ms ({} msg/s)", 2 * MESSAGES, TimeUnit.NANOSECONDS.toMillis(elapsed),
+            2L * MESSAGES * TimeUnit.SECONDS.toNanos(1) / elapsed);
+    }
+
+    @Test
+    public void should_create_reservations_from_batch_message() throws Exception {
+        // when
+        sink.input().send(MessageBuilder.withPayload("[\"Batched 1\",\"Batched 2\",\"Batched 3\"]")
+            .setHeader(ReservationServiceActivator.BATCH_HEADER, true)
+            .build());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (batchedCount() < 3 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        // then
+        assertThat(batchedCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void should_create_reservations_from_smile_batch_message() throws Exception {
+        // given
+        byte[] payload = new ObjectMapper(new SmileFactory()).writeValueAsBytes(asList("Smiled 1", "Smiled 2"));
+
+        // when
+        sink.input().send(MessageBuilder.withPayload(payload)
+            .setHeader(ReservationServiceActivator.BATCH_HEADER, true)
+            .setHeader(MessageHeaders.CONTENT_TYPE, CodecConfiguration.SMILE_VALUE)
+            .build());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (smiledCount() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        // then
+        assertThat(smiledCount()).isEqualTo(2);
+    }
+
+    private int smiledCount() {
+        return jdbc.queryForObject("select count(*) from reservation where name like 'Smiled %'", Integer.class);
+    }
+
+    private int batchedCount() {
+        return jdbc.queryForObject("select count(*) from reservation where name like 'Batched %'", Integer.class);
+    }
+
+    private int burstCount() {
+        return jdbc.queryForObject("select count(*) from reservation where name like 'Burst %'", Integer.class);
+    }
+
+    @Test
+    public void should_skip_names_already_taken() throws Exception {
+        // given
+        reservations.save(new Reservation("Taken"));
+
+        // when
+        int created = writer.writeBatch(asList("Fresh", "Fresh", "Taken"));
+
+        // then
+        assertThat(created).isEqualTo(1);
+        assertThat(reservations.findByName("Fresh")).isNotNull();
+    }
+
+    @Test
+    public void should_ack_a_message_only_once_its_name_is_written() throws Exception {
+        // given
+        Channel channel = mock(Channel.class);
+        AtomicInteger writtenWhenAcked = new AtomicInteger(-1);
+        CountDownLatch acked = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            writtenWhenAcked.set(jdbc.queryForObject(
+                "select count(*) from reservation where name = 'Acknowledged'", Integer.class));
+            acked.countDown();
+            return null;
+        }).when(channel).basicAck(7L, false);
+
+        // when
+        sink.input().send(MessageBuilder.withPayload("Acknowledged")
+            .setHeader(AmqpHeaders.CHANNEL, channel)
+            .setHeader(AmqpHeaders.DELIVERY_TAG, 7L)
+            .build());
+
+        // then
+        assertThat(acked.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(writtenWhenAcked.get()).isEqualTo(1);
+        verify(channel, never()).basicNack(7L, false, true);
+    }
+
+    @Test
+    public void should_skip_a_name_taken_but_fail_on_other_violations() throws Exception {
+        // given
+        writer.writeOne("Written once");
+        char[] tooLong = new char[300];
+        Arrays.fill(tooLong, 'x');
+
+        // when
+        writer.writeOne("Written once");
+        Throwable violation = catchThrowable(() -> writer.writeOne(new String(tooLong)));
+
+        // then
+        assertThat(violation).isInstanceOf(DataIntegrityViolationException.class);
+    }
+
+    @Test
+    public void should_reject_a_message_failing_again_after_redelivery() throws Exception {
+        // given
+        Channel channel = mock(Channel.class);
+        CountDownLatch rejected = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            rejected.countDown();
+            return null;
+        }).when(channel).basicNack(8L, false, false);
+        char[] tooLong = new char[300];
+        Arrays.fill(tooLong, 'x');
+
+        // when
+        sink.input().send(MessageBuilder.withPayload(new String(tooLong))
+            .setHeader(AmqpHeaders.CHANNEL, channel)
+            .setHeader(AmqpHeaders.DELIVERY_TAG, 8L)
+            .setHeader(AmqpHeaders.REDELIVERED, true)
+            .build());
+
+        // then
+        assertThat(rejected.await(5, TimeUnit.SECONDS)).isTrue();
+        verify(channel, never()).basicNack(8L, false, true);
+    }
+
+    @Test
+    public void should_report_status_of_every_bulk_item() throws Exception {
+        // given
+        reservations.save(new Reservation("Bulk taken"));
+
+        // when
+        List<BulkResult> created = writer.createAll(asList("Bulk new", "Bulk new", "Bulk taken", "_bulk"));
+        List<BulkResult> deleted = writer.deleteAll(asList("Bulk new", "Bulk missing"));
+
+        // then
+        assertThat(created).extracting("status")
+            .containsExactly(BulkStatus.CREATED, BulkStatus.DUPLICATE, BulkStatus.EXISTS, BulkStatus.RESERVED);
+        assertThat(deleted).extracting("status")
+            .containsExactly(BulkStatus.DELETED, BulkStatus.NOT_FOUND);
+        assertThat(reservations.findByName("Bulk new")).isNull();
+        assertThat(reservations.findByName("Bulk taken")).isNotNull();
+        assertThat(reservations.findByName("_bulk")).isNull();
+    }
+
+    @Test
+    public void should_count_bulk_writes_like_single_ones() throws Exception {
+        // given
+        long count = registry.counter("counter.count").getCount();
+        long created = registry.counter("counter.create").getCount();
+        long deleted = registry.counter("counter.delete").getCount();
+
+        // when
+        writer.createAll(asList("Counted 1", "Counted 2", "Counted 2"));
+        writer.deleteAll(asList("Counted 2", "Counted missing"));
+
+        // then
+        assertThat(registry.counter("counter.count").getCount() - count).isEqualTo(1);
+        assertThat(registry.counter("counter.create").getCount() - created).isEqualTo(2);
+        assertThat(registry.counter("counter.delete").getCount() - deleted).isEqualTo(1);
+    }
+
+    @Test
+    public void should_bulk_create_from_ndjson() throws Exception {
+        // given
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 2500; i++) {
+            body.append("{\"name\":\"Imported ").append(i).append("\"}\n");
+        }
+
+        // when
+        MvcResult result = mvc.perform(post("/custom-reservations/_bulk")
+                .contentType(ReservationController.NDJSON_VALUE)
+                .content(body.toString()))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+        // then
+        result.getAsyncResult();
+        String[] lines = result.getResponse().getContentAsString().split("\n");
+        assertThat(lines).hasSize(2500);
+        assertThat(lines[2499]).isEqualTo("{\"name\":\"Imported 2499\",\"status\":\"CREATED\"}");
+        assertThat(result.getResponse().getContentType()).isEqualTo(ReservationController.NDJSON_VALUE);
+        assertThat(jdbc.queryForObject("select count(*) from reservation where name like 'Imported %'", Integer.class))
+            .isEqualTo(2500);
+    }
+
+    @Test
+    public void should_bulk_delete_more_names_than_fit_one_statement() throws Exception {
+        // given
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 2 * ReservationBatchWriter.LOOKUP_CHUNK + 1; i++) {
+            names.add("Deleted " + i);
+        }
+        writer.createAll(names);
+
+        // when
+        List<BulkResult> deleted = writer.deleteAll(names);
+
+        // then
+        assertThat(deleted).extracting("status").containsOnly(BulkStatus.DELETED);
+        assertThat(jdbc.queryForObject("select count(*) from reservation where name like 'Deleted %'", Integer.class))
+            .isZero();
+    }
+}
@@ -1,27 +1,61 @@
 package com.example;
 
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.util.List;
+
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.autoconfigure.MetricsDropwizardAutoConfiguration;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cloud.stream.test.binder.TestSupportBinderAutoConfiguration;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
 @RunWith(SpringRunner.class)
 @WebMvcTest
+@ImportAutoConfiguration({TestSupportBinderAutoConfiguration.class, MetricsDropwizardAutoConfiguration.class})
+@Import({CachingConfiguration.class, LatencyConfiguration.class, EtagConfiguration.class})
 public class ReservationsControllerTest {
 
     @MockBean ReservationRepository reservations;
+    @MockBean ReservationStreamer streamer;
+    @MockBean ReservationBatchWriter writer;
+    @MockBean CounterService counter;
 
+    @Autowired ReservationCache cache;
     @Autowired MockMvc mvc;
 
+    @Before
+    public void setUp() {
+        cache.clear();
+    }
+
     @Test
     public void should_not_get_not_existing_reservation() throws Exception {
         // when: MockMvcRequestBuilders...
@@ -49,4 +83,105 @@ public class ReservationsControllerTest {
             .andExpect(jsonPath("@.id").value("5"))
             .andExpect(jsonPath("@.name").value("Krzysiek"));
     }
+
+    @Test
+    public void should_serve_repeated_lookups_from_cache() throws Exception {
+        // given
+        when(reservations.findByName("Krzysiek"))
+            .thenReturn(new Reservation(5L, "Krzysiek"));
+
+        // when
+        mvc.perform(get("/custom-reservations/Krzysiek")).andExpect(status().isOk());
+        mvc.perform(get("/custom-reservations/Krzysiek")).andExpect(status().isOk());
+        mvc.perform(get("/custom-reservations/Nobody")).andExpect(status().isNotFound());
+        mvc.perform(get("/custom-reservations/Nobody")).andExpect(status().isNotFound());
+
+        // then
+        verify(reservations, times(1)).findByName("Krzysiek");
+        verify(reservations, times(1)).findByName("Nobody");
+        verify(counter, times(2)).increment(ReservationCache.HIT);
+        verify(counter, times(2)).increment(ReservationCache.MISS);
+    }
+
+    @Test
+    public void should_revalidate_names_with_etag() throws Exception {
+        // given
+        when(reservations.findNames(new PageRequest(0, ReservationController.DEFAULT_PAGE_SIZE)))
+            .thenReturn(asList("Jan", "Maria"));
+        String etag = mvc.perform(get("/custom-reservations/_names"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("@[1]").value("Maria"))
+            .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        // when
+        mvc.perform(get("/custom-reservations/_names").header(HttpHeaders.IF_NONE_MATCH, etag))
+
+        // then
+            .andExpect(status().isNotModified())
+            .andExpect(content().string(""));
+    }
+
+    @Test
+    public void should_answer_smile_only_when_asked() throws Exception {
+        // given
+        when(reservations.findNames(new PageRequest(0, ReservationController.DEFAULT_PAGE_SIZE)))
+            .thenReturn(asList("Jan", "Maria"));
+
+        // when
+        byte[] smile = mvc.perform(get("/custom-reservations/_names").accept(CodecConfiguration.SMILE))
+
+        // then
+            .andExpect(status().isOk())
+            .andExpect(content().contentTypeCompatibleWith(CodecConfiguration.SMILE))
+            .andReturn().getResponse().getContentAsByteArray();
+        List<String> names = new ObjectMapper(new SmileFactory()).readValue(smile, new TypeReference<List<String>>() {});
+        assertThat(names).containsExactly("Jan", "Maria");
+        mvc.perform(get("/custom-reservations/_names"))
+            .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON));
+    }
+
+    @Test
+    public void should_answer_id_batch_in_request_order() throws Exception {
+        // given
+        when(reservations.findAll(asList(7L, 5L)))
+            .thenReturn(asList(new Reservation(5L, "Krzysiek")));
+
+        // when
+        mvc.perform(get("/custom-reservations/_by-ids").param("ids", "7", "5"))
+
+        // then
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("@.length()").value(2))
+            .andExpect(jsonPath("@[0]").doesNotExist())
+            .andExpect(jsonPath("@[1].name").value("Krzysiek"));
+    }
+
+    @Test
+    public void should_get_reservations_named_like_the_other_paths() throws Exception {
+        // given
+        when(reservations.findByName("names")).thenReturn(new Reservation(5L, "names"));
+        when(reservations.findByName("bulk")).thenReturn(new Reservation(6L, "bulk"));
+
+        // when
+        mvc.perform(get("/custom-reservations/names"))
+
+        // then
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("@.id").value("5"));
+        mvc.perform(get("/custom-reservations/bulk"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("@.id").value("6"));
+    }
+
+    @Test
+    public void should_refuse_names_starting_like_the_other_paths() throws Exception {
+        // when
+        mvc.perform(post("/custom-reservations")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"name\":\"_names\"}"))
+
+        // then
+            .andExpect(status().isBadRequest());
+        verify(reservations, never()).save(any(Reservation.class));
+    }
 }
@@ -0,0 +1,123 @@
+package com.example;
+
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.stream.test.binder.MessageCollector;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "graphite.enabled=false")
+public class ReservationsInvalidationTest {
+
+    @Autowired ReservationCache cache;
+    @Autowired InvalidationChannels channels;
+    @Autowired MessageCollector collector;
+    @Autowired JdbcTemplate jdbc;
+    @Autowired ReservationBatchWriter writer;
+    @Autowired PlatformTransactionManager transactions;
+
+    @Test
+    public void should_publish_local_evictions() throws Exception {
+        // given
+        collector.forChannel(channels.output()).clear();
+
+        // when
+        cache.evict("Someone");
+
+        // then
+        Message<?> message = collector.forChannel(channels.output()).poll(1, TimeUnit.SECONDS);
+        assertThat(message).isNotNull();
+        assertThat(message.getPayload().toString())
+            .contains("\"Someone\"")
+            .contains("\"origin\":\"reservationservice-");
+    }
+
+    @Test
+    public void should_evict_on_remote_invalidation() throws Exception {
+        // given
+        assertThat(cache.findByName("Remote")).isNull();
+        jdbc.update("insert into reservation (name) values ('Remote')");
+        assertThat(cache.findByName("Remote")).isNull();
+
+        // when
+        channels.input().send(MessageBuilder
+            .withPayload("{\"origin\":\"other-instance\",\"names\":[\"Remote\"],\"ids\":[]}")
+            .setHeader(MessageHeaders.CONTENT_TYPE, "application/json")
+            .build());
+
+        // then
+        assertThat(cache.findByName("Remote")).isNotNull();
+    }
+
+    @Test
+    public void should_evict_only_once_the_insert_is_committed() throws Exception {
+        // given
+        assertThat(cache.findByName("Uncommitted")).isNull();
+
+        // when another thread reads through the cache while the insert is not committed yet
+        Reservation meanwhile = new TransactionTemplate(transactions).execute(status -> {
+            writer.createAll(singletonList("Uncommitted"));
+            return CompletableFuture.supplyAsync(() -> cache.findByName("Uncommitted")).join();
+        });
+
+        // then
+        assertThat(meanwhile).isNull();
+        assertThat(cache.findByName("Uncommitted")).isNotNull();
+    }
+
+    @Test
+    public void should_not_fail_the_write_when_the_broker_is_down() throws Exception {
+        // given
+        MessageChannel broken = mock(MessageChannel.class);
+        when(broken.send(any())).thenThrow(new MessageDeliveryException("Broker down"));
+        InvalidationChannels down = mock(InvalidationChannels.class);
+        when(down.output()).thenReturn(broken);
+        CounterService counter = mock(CounterService.class);
+        ClusterInvalidationBridge bridge = new ClusterInvalidationBridge(cache, down, counter, "this-instance");
+
+        // when
+        bridge.publish(new ReservationInvalidation(singleton("Someone"), emptySet()));
+
+        // then
+        verify(counter).increment(ClusterInvalidationBridge.PUBLISH_FAILED);
+    }
+
+    @Test
+    public void should_evict_the_previous_name_of_a_renamed_reservation() throws Exception {
+        // given
+        jdbc.update("insert into reservation (name) values ('Before rename')");
+        Reservation cached = cache.findByName("Before rename");
+        jdbc.update("update reservation set name = 'After rename' where id = ?", cached.id);
+        assertThat(cache.findByName("Before rename")).isNotNull();
+
+        // when
+        cache.evictLocally(new ReservationInvalidation(singleton("After rename"), singleton(cached.id)));
+
+        // then
+        assertThat(cache.findByName("Before rename")).isNull();
+        assertThat(cache.findByName("After rename")).isNotNull();
+    }
+}
@@ -0,0 +1,138 @@
+package com.example;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.servlet.HandlerMapping;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"graphite.enabled=false", "latency.window=0"})
+public class ReservationsLatencyTest {
+
+    @Autowired MetricRegistry registry;
+    @Autowired LatencyFilter filter;
+    @Autowired WebApplicationContext webApplicationContext;
+    @Autowired ReservationRepository reservations;
+
+    MockMvc mvc;
+
+    @Before
+    public void setUp() {
+        mvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).addFilters(filter).build();
+    }
+
+    @Test
+    public void should_time_requests_by_matched_pattern() throws Exception {
+        // given
+        Reservation timed = reservations.save(new Reservation("Timed"));
+
+        // when
+        mvc.perform(get("/custom-reservations/{name}", "Nobody"));
+        try {
+            mvc.perform(get("/reservations/search/by-name").param("name", "Timed"));
+        } finally {
+            reservations.delete(timed);
+        }
+
+        // then
+        assertThat(registry.getTimers()).containsKeys(
+            "latency.http.get.custom-reservations.name",
+            "latency.http.get.reservations.search.by-name",
+            CachingConfiguration.FIND_BY_NAME_TIMER);
+        mvc.perform(get("/latency"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$['latency.http.get.custom-reservations.name'].count").value(1))
+            .andExpect(jsonPath("$['latency.http.get.custom-reservations.name'].p99").isNumber());
+    }
+
+    @Test
+    public void should_name_timers_after_the_repository_and_search_not_their_arguments() throws Exception {
+        // given
+        MockHttpServletRequest request = request("reservations", "by-name");
+
+        // when
+        String search = filter.name(request, 200, "/{repository}/search/{search}");
+        String item = filter.name(request, 200, "/{repository}/{id}");
+
+        // then
+        assertThat(search).isEqualTo("latency.http.get.reservations.search.by-name");
+        assertThat(item).isEqualTo("latency.http.get.reservations.id");
+    }
+
+    @Test
+    public void should_not_name_timers_after_made_up_repositories_and_searches() throws Exception {
+        // when
+        String search = filter.name(request("reservations", "made-up"), 404, "/{repository}/search/{search}");
+        String repository = filter.name(request("made-up", "by-name"), 404, "/{repository}/search/{search}");
+        String notFound = filter.name(request("reservations", "by-name"), 404, "/{repository}/search/{search}");
+        String unknown = filter.name(request("reservations", "made-up"), 200, "/{repository}/search/{search}");
+
+        // then
+        assertThat(search).isEqualTo("latency.http.get.repository.search.search");
+        assertThat(repository).isEqualTo(search);
+        assertThat(notFound).isEqualTo(search);
+        assertThat(unknown).isEqualTo("latency.http.get.reservations.search.search");
+    }
+
+    @Test
+    public void should_report_percentiles_of_last_window() throws Exception {
+        // given
+        ManualClock clock = new ManualClock();
+        HdrHistogramReservoir reservoir = new HdrHistogramReservoir(3, 1000, clock);
+        for (long value = 1; value <= 1000; value++) {
+            reservoir.update(value);
+        }
+
+        // when
+        Snapshot before = reservoir.getSnapshot();
+        clock.tick += TimeUnit.SECONDS.toNanos(1);
+        Snapshot after = reservoir.getSnapshot();
+
+        // then
+        assertThat(before.size()).isZero();
+        assertThat(after.size()).isEqualTo(1000);
+        assertThat(after.getMedian()).isEqualTo(500);
+        assertThat(after.get99thPercentile()).isEqualTo(990);
+        assertThat(after.getMax()).isEqualTo(1000);
+    }
+
+    private static MockHttpServletRequest request(String repository, String search) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/" + repository + "/search/" + search);
+        Map<String, String> variables = new HashMap<>();
+        variables.put(LatencyFilter.REPOSITORY, repository);
+        variables.put(LatencyFilter.SEARCH, search);
+        variables.put("id", "42");
+        request.setAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE, variables);
+        return request;
+    }
+
+    static class ManualClock extends Clock {
+
+        long tick;
+
+        @Override
+        public long getTick() {
+            return tick;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.example;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+/**
+ * Seeds its own database, dropped along with its context, so that the rows don't show up in other tests.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"graphite.enabled=false", "spring.datasource.name=listing"})
+@DirtiesContext
+public class ReservationsListingTest {
+
+    /** A few fetches of {@code streamAllOrderedById}, whose fetch size is 500. */
+    static final int SEEDED = 1_200;
+
+    static boolean seeded;
+
+    @Autowired WebApplicationContext webApplicationContext;
+    @Autowired JdbcTemplate jdbc;
+
+    MockMvc mvc;
+
+    @Before
+    public void setUp() {
+        mvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+        if (!seeded) {
+            seed();
+            seeded = true;
+        }
+    }
+
+    private void seed() {
+        List<Object[]> batch = new ArrayList<>();
+        for (int i = 0; i < SEEDED; i++) {
+            batch.add(new Object[] { "Seeded " + i });
+            if (batch.size() == 500 || i == SEEDED - 1) {
+                jdbc.batchUpdate("insert into reservation (name) values (?)", batch);
+                batch.clear();
+            }
+        }
+    }
+
+    @Test
+    public void should_stream_whole_table_as_ndjson() throws Exception {
+        // given
+        int total = jdbc.queryForObject("select count(*) from reservation", Integer.class);
+
+        // when
+        MvcResult result = mvc.perform(get("/custom-reservations").accept(ReservationController.NDJSON_VALUE))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+        // then
+        result.getAsyncResult();
+        String body = result.getResponse().getContentAsString();
+        String[] lines = body.split("\n");
+        assertThat(lines).hasSize(total);
+        assertThat(lines[lines.length - 1]).contains("\"name\":\"Seeded " + (SEEDED - 1) + "\"");
+    }
+
+    @Test
+    public void should_page_by_key() throws Exception {
+        // given
+        long first = jdbc.queryForObject("select min(id) from reservation", Long.class);
+
+        // when
+        mvc.perform(get("/custom-reservations").param("after", String.valueOf(first)).param("limit", "3"))
+
+        // then
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("@.length()").value(3))
+            .andExpect(jsonPath("@[0].id").value(first + 1))
+            .andExpect(header().string("Link", containsString("after=" + (first + 3))))
+            .andExpect(header().string("Link", containsString("limit=3")));
+    }
+
+    @Test
+    public void should_skip_extra_links_when_asked_to() throws Exception {
+        mvc.perform(get("/reservations"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("@._embedded.reservations[0]._links.photo").exists());
+
+        mvc.perform(get("/reservations").param("links", "none"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("@._embedded.reservations[0]._links.photo").doesNotExist());
+    }
+}
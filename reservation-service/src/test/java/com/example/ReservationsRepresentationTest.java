@@ -5,14 +5,17 @@ import static org.assertj.core.api.Assertions.assertThat;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
 import org.springframework.boot.test.autoconfigure.json.JsonTest;
 import org.springframework.boot.test.json.JacksonTester;
 import org.springframework.boot.test.json.JsonContent;
 import org.springframework.hateoas.Resource;
+import org.springframework.cloud.stream.test.binder.TestSupportBinderAutoConfiguration;
 import org.springframework.test.context.junit4.SpringRunner;
 
 @RunWith(SpringRunner.class)
 @JsonTest
+@ImportAutoConfiguration(TestSupportBinderAutoConfiguration.class)
 public class ReservationsRepresentationTest {
 
     @Autowired JacksonTester<Resource<Reservation>> json;
@@ -22,7 +25,7 @@ public class ReservationsRepresentationTest {
         // given
         Reservation reservation = new Reservation("John");
         Resource<Reservation> resource = new Resource<>(reservation);
-        resource = new ReservationResourceProcessor().process(resource);
+        resource = new ReservationResourceProcessor(new LinkConfig()).process(resource);
 
         // when
         JsonContent<Resource<Reservation>> result = json.write(resource);
@@ -32,4 +35,18 @@ public class ReservationsRepresentationTest {
         assertThat(result).extractingJsonPathStringValue("@.links[0].href")
             .isEqualTo("https://www.google.pl/search?tbm=isch&q=John");
     }
+
+    @Test
+    public void should_encode_names_in_links() throws Exception {
+        // given
+        Resource<Reservation> resource = new Resource<>(new Reservation("Jan & Maria"));
+        resource = new ReservationResourceProcessor(new LinkConfig()).process(resource);
+
+        // when
+        JsonContent<Resource<Reservation>> result = json.write(resource);
+
+        // then
+        assertThat(result).extractingJsonPathStringValue("@.links[0].href")
+            .isEqualTo("https://www.google.pl/search?tbm=isch&q=Jan%20%26%20Maria");
+    }
 }
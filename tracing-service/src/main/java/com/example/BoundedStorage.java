@@ -0,0 +1,665 @@
+package com.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractCollection;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import zipkin.Annotation;
+import zipkin.BinaryAnnotation;
+import zipkin.DependencyLink;
+import zipkin.Endpoint;
+import zipkin.Span;
+import zipkin.internal.ApplyTimestampAndDuration;
+import zipkin.internal.CorrectForClockSkew;
+import zipkin.internal.DependencyLinker;
+import zipkin.internal.MergeById;
+import zipkin.storage.AsyncSpanConsumer;
+import zipkin.storage.AsyncSpanStore;
+import zipkin.storage.QueryRequest;
+import zipkin.storage.SpanStore;
+import zipkin.storage.StorageAdapters;
+import zipkin.storage.StorageComponent;
+
+/**
+ * Span storage within a fixed memory budget, in place of Zipkin's in-memory storage which grows without bound and
+ * scans every trace to answer a query. Spans are kept in {@link SpanSegments}; when the oldest segment is reused, the
+ * traces that started in it are dropped whole.
+ * <p>
+ * Traces are indexed by service, span name, annotation, binary annotation and duration, each index ordered newest
+ * first and holding a trace once, at the earliest timestamp of its spans found there. A query walks the smallest index
+ * matching it within the time window and checks only the traces found there. The index lives on the heap beside the
+ * segments, its size estimated from the traces and entries it holds; once that's over its share of the budget, the
+ * oldest traces are dropped ahead of their segment.
+ */
+class BoundedStorage implements StorageComponent, SpanStore, StorageAdapters.SpanConsumer, PublicMetrics {
+
+	/** Rough heap taken by a trace, an index entry and an index, beside its key. */
+	private static final int TRACE_BYTES = 160;
+	private static final int ENTRY_BYTES = 96;
+	private static final int INDEX_BYTES = 160;
+
+	private static final Comparator<List<Span>> NEWEST_FIRST = (left, right) ->
+			Long.compare(timestamp(right), timestamp(left));
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Executor callingThread = Runnable::run;
+	private final SpanSegments segments;
+
+	private final Map<Long, Trace> traces = new HashMap<>();
+	private final NavigableMap<Long, Deque<Trace>> tracesBySegment = new TreeMap<>();
+	private final Index all = new Index(() -> {
+	});
+	private final NavigableMap<String, Index> byService = new TreeMap<>();
+	private final Map<String, NavigableMap<String, Index>> bySpanName = new HashMap<>();
+	private final Map<String, NavigableMap<Integer, Index>> byDuration = new HashMap<>();
+	private final Map<String, Index> byAnnotation = new HashMap<>();
+	private final Map<String, Index> byBinaryAnnotation = new HashMap<>();
+
+	private final long indexSize;
+
+	private volatile long spans;
+	private volatile long evicted;
+	private volatile long indexBytes;
+
+	/**
+	 * @param size bytes the segments and the index take together
+	 * @param indexShare part of the size set aside for the index
+	 * @param directory where to keep the segments across restarts, or null to keep them on the heap only
+	 */
+	BoundedStorage(long size, double indexShare, int segments, File directory) throws IOException {
+		this.indexSize = (long) (size * indexShare);
+		this.segments = new SpanSegments(segments, (int) Math.min((size - indexSize) / segments, Integer.MAX_VALUE),
+				directory, this::evict);
+		this.segments.forEach(this::store);
+		fitIndex();
+	}
+
+	@Override
+	public SpanStore spanStore() {
+		return this;
+	}
+
+	@Override
+	public AsyncSpanStore asyncSpanStore() {
+		return StorageAdapters.blockingToAsync((SpanStore) this, callingThread);
+	}
+
+	@Override
+	public AsyncSpanConsumer asyncSpanConsumer() {
+		return StorageAdapters.blockingToAsync((StorageAdapters.SpanConsumer) this, callingThread);
+	}
+
+	@Override
+	public CheckResult check() {
+		return CheckResult.OK;
+	}
+
+	@Override
+	public void close() {
+		lock.writeLock().lock();
+		try {
+			segments.close();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void accept(List<Span> spans) {
+		lock.writeLock().lock();
+		try {
+			for (Span span : spans) {
+				long location = segments.append(span);
+				if (location != -1) {
+					store(location, span);
+				}
+			}
+			fitIndex();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public List<List<Span>> getTraces(QueryRequest request) {
+		lock.readLock().lock();
+		try {
+			NavigableSet<Ref> index = narrowest(request);
+			if (index == null) {
+				return Collections.emptyList();
+			}
+			Set<Long> seen = new HashSet<>();
+			List<List<Span>> result = new ArrayList<>();
+			for (Ref ref : window(index, request.endTs, request.lookback)) {
+				if (!seen.add(ref.trace.id)) {
+					continue;
+				}
+				List<Span> trace = merged(ref.trace);
+				if (!trace.isEmpty() && test(request, trace)) {
+					result.add(trace);
+					if (result.size() == request.limit) {
+						break;
+					}
+				}
+			}
+			result.sort(NEWEST_FIRST);
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<Span> getTrace(long traceId) {
+		lock.readLock().lock();
+		try {
+			Trace trace = traces.get(traceId);
+			return trace == null ? null : merged(trace);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<Span> getRawTrace(long traceId) {
+		lock.readLock().lock();
+		try {
+			Trace trace = traces.get(traceId);
+			return trace == null ? null : raw(trace);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<String> getServiceNames() {
+		lock.readLock().lock();
+		try {
+			return new ArrayList<>(byService.keySet());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<String> getSpanNames(String serviceName) {
+		if (serviceName == null) {
+			return Collections.emptyList();
+		}
+		lock.readLock().lock();
+		try {
+			NavigableMap<String, Index> names = bySpanName.get(serviceName.toLowerCase());
+			return names == null ? Collections.emptyList() : new ArrayList<>(names.keySet());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<DependencyLink> getDependencies(long endTs, Long lookback) {
+		lock.readLock().lock();
+		try {
+			Set<Long> seen = new HashSet<>();
+			DependencyLinker linker = new DependencyLinker();
+			for (Ref ref : window(all, endTs, lookback != null ? lookback : endTs)) {
+				if (seen.add(ref.trace.id)) {
+					linker.putTrace(merged(ref.trace));
+				}
+			}
+			return linker.link();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		return Arrays.asList(
+				new Metric<>("tracing.storage.spans", spans),
+				new Metric<>("tracing.storage.traces", traces()),
+				new Metric<>("tracing.storage.evicted", evicted),
+				new Metric<>("tracing.storage.capacity", segments.capacity()),
+				new Metric<>("tracing.storage.index", indexBytes));
+	}
+
+	long spans() {
+		return spans;
+	}
+
+	long traces() {
+		lock.readLock().lock();
+		try {
+			return traces.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/** Traces dropped to make room for new ones. */
+	long evicted() {
+		return evicted;
+	}
+
+	/** Estimated heap taken by the index. */
+	long indexBytes() {
+		return indexBytes;
+	}
+
+	long indexSize() {
+		return indexSize;
+	}
+
+	private void store(long location, Span span) {
+		Trace trace = traces.get(span.traceId);
+		if (trace == null) {
+			trace = new Trace(span.traceId);
+			traces.put(span.traceId, trace);
+			indexBytes += TRACE_BYTES;
+			tracesBySegment.computeIfAbsent(location >>> 32, sequence -> new ArrayDeque<>()).add(trace);
+		}
+		trace.add(location);
+		spans++;
+
+		long timestamp = indexedTimestamp(span);
+		Long duration = indexedDuration(span);
+		index(trace, all, timestamp);
+		for (String serviceName : span.serviceNames()) {
+			index(trace, index(byService, serviceName), timestamp);
+			index(trace, index(bySpanName, serviceName, span.name), timestamp);
+			if (duration != null) {
+				index(trace, index(byDuration, serviceName, bucket(duration)), timestamp);
+			}
+		}
+		for (Annotation annotation : span.annotations) {
+			index(trace, index(byAnnotation, annotation.value), timestamp);
+		}
+		for (BinaryAnnotation annotation : span.binaryAnnotations) {
+			index(trace, index(byAnnotation, annotation.key), timestamp);
+			if (annotation.type == BinaryAnnotation.Type.STRING) {
+				index(trace, index(byBinaryAnnotation, binaryAnnotation(annotation.key,
+						new String(annotation.value, StandardCharsets.UTF_8))), timestamp);
+			}
+		}
+	}
+
+	private void index(Trace trace, Index index, long timestamp) {
+		if (trace.index(index, timestamp)) {
+			indexBytes += ENTRY_BYTES;
+		}
+	}
+
+	private <K> Index index(Map<K, Index> indexes, K key) {
+		Index index = indexes.get(key);
+		if (index == null) {
+			index = new Index(() -> {
+				indexes.remove(key);
+				indexBytes -= indexBytes(key);
+			});
+			indexes.put(key, index);
+			indexBytes += indexBytes(key);
+		}
+		return index;
+	}
+
+	/**
+	 * @return the index of a key within those of a service, which go along with their last index
+	 */
+	private <K> Index index(Map<String, NavigableMap<K, Index>> indexes, String serviceName, K key) {
+		NavigableMap<K, Index> ofService = indexes.computeIfAbsent(serviceName, name -> new TreeMap<>());
+		Index index = ofService.get(key);
+		if (index == null) {
+			index = new Index(() -> {
+				ofService.remove(key);
+				indexBytes -= indexBytes(key);
+				if (ofService.isEmpty()) {
+					indexes.remove(serviceName);
+				}
+			});
+			ofService.put(key, index);
+			indexBytes += indexBytes(key);
+		}
+		return index;
+	}
+
+	/**
+	 * Drops the oldest traces until the index fits its share of the budget again. Their spans stay in the segments
+	 * until those are reused, already accounted for.
+	 */
+	private void fitIndex() {
+		if (indexBytes <= indexSize) {
+			return;
+		}
+		while (indexBytes > indexSize && !tracesBySegment.isEmpty()) {
+			Map.Entry<Long, Deque<Trace>> oldest = tracesBySegment.firstEntry();
+			drop(oldest.getValue().poll());
+			if (oldest.getValue().isEmpty()) {
+				tracesBySegment.remove(oldest.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Server halves of a call leave timestamp and duration to the client, their annotations are as good for the index.
+	 */
+	private static long indexedTimestamp(Span span) {
+		Long timestamp = ApplyTimestampAndDuration.guessTimestamp(span);
+		if (timestamp == null && !span.annotations.isEmpty()) {
+			timestamp = span.annotations.get(0).timestamp;
+		}
+		return timestamp != null ? timestamp : 0L;
+	}
+
+	private static Long indexedDuration(Span span) {
+		if (span.duration != null || span.annotations.size() < 2) {
+			return span.duration;
+		}
+		return span.annotations.get(span.annotations.size() - 1).timestamp - span.annotations.get(0).timestamp;
+	}
+
+	/**
+	 * Drops the traces that started in a segment about to be reused.
+	 */
+	private void evict(long sequence) {
+		Deque<Trace> dropped = tracesBySegment.remove(sequence);
+		if (dropped != null) {
+			dropped.forEach(this::drop);
+		}
+	}
+
+	private void drop(Trace trace) {
+		// Apart, as unindexing takes off the bytes of the indexes it removes
+		int entries = trace.unindex();
+		indexBytes -= TRACE_BYTES + (long) entries * ENTRY_BYTES;
+		traces.remove(trace.id, trace);
+		spans -= trace.size;
+		evicted++;
+	}
+
+	private static long indexBytes(Object key) {
+		return INDEX_BYTES + (key instanceof String ? 2L * ((String) key).length() : 0);
+	}
+
+	/**
+	 * @return the index holding the fewest traces that all queried ones are in, or null when no trace can match
+	 */
+	private NavigableSet<Ref> narrowest(QueryRequest request) {
+		List<Collection<Ref>> candidates = new ArrayList<>();
+		candidates.add(all);
+		if (request.serviceName != null) {
+			candidates.add(byService.get(request.serviceName));
+			if (request.spanName != null) {
+				NavigableMap<String, Index> names = bySpanName.get(request.serviceName);
+				candidates.add(names == null ? null : names.get(request.spanName));
+			}
+			if (request.minDuration != null) {
+				candidates.add(withDuration(request.serviceName, request.minDuration, request.maxDuration));
+			}
+		}
+		for (String annotation : request.annotations) {
+			candidates.add(byAnnotation.get(annotation));
+		}
+		for (Map.Entry<String, String> annotation : request.binaryAnnotations.entrySet()) {
+			candidates.add(byBinaryAnnotation.get(binaryAnnotation(annotation.getKey(), annotation.getValue())));
+		}
+		Collection<Ref> narrowest = all;
+		for (Collection<Ref> candidate : candidates) {
+			if (candidate == null) {
+				return null;
+			}
+			if (candidate.size() < narrowest.size()) {
+				narrowest = candidate;
+			}
+		}
+		return narrowest instanceof NavigableSet ? (NavigableSet<Ref>) narrowest : new TreeSet<>(narrowest);
+	}
+
+	/**
+	 * @return the entries of the duration buckets overlapping the range, only gathered when they are the narrowest
+	 */
+	private Collection<Ref> withDuration(String serviceName, long minDuration, Long maxDuration) {
+		NavigableMap<Integer, Index> buckets = byDuration.get(serviceName);
+		if (buckets == null) {
+			return null;
+		}
+		Collection<Index> matching = (maxDuration != null
+				? buckets.subMap(bucket(minDuration), true, bucket(maxDuration), true)
+				: buckets.tailMap(bucket(minDuration), true)).values();
+		int size = matching.stream().mapToInt(Set::size).sum();
+		return new AbstractCollection<Ref>() {
+
+			@Override
+			public Iterator<Ref> iterator() {
+				return matching.stream().flatMap(Set::stream).iterator();
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	private List<Span> raw(Trace trace) {
+		List<Span> spans = new ArrayList<>(trace.size);
+		for (int i = 0; i < trace.size; i++) {
+			Span span = segments.read(trace.locations[i]);
+			if (span != null) {
+				spans.add(span);
+			}
+		}
+		return spans;
+	}
+
+	private List<Span> merged(Trace trace) {
+		return CorrectForClockSkew.apply(MergeById.apply(raw(trace)));
+	}
+
+	private static Iterable<Ref> window(NavigableSet<Ref> index, long endTs, long lookback) {
+		return index.subSet(Ref.at(endTs * 1000), true, Ref.at((endTs - lookback) * 1000 - 1), true);
+	}
+
+	/**
+	 * Durations double from one bucket to the next.
+	 */
+	private static int bucket(long duration) {
+		return 64 - Long.numberOfLeadingZeros(Math.max(duration, 0));
+	}
+
+	private static String binaryAnnotation(String key, String value) {
+		return key + '=' + value;
+	}
+
+	private static long timestamp(List<Span> trace) {
+		Long timestamp = trace.get(0).timestamp;
+		return timestamp != null ? timestamp : 0L;
+	}
+
+	/**
+	 * Whether the trace matches every criterion, the way Zipkin's in-memory storage has it.
+	 */
+	static boolean test(QueryRequest request, List<Span> spans) {
+		Long timestamp = spans.get(0).timestamp;
+		if (timestamp == null || timestamp < (request.endTs - request.lookback) * 1000
+				|| timestamp > request.endTs * 1000) {
+			return false;
+		}
+		Set<String> serviceNames = new LinkedHashSet<>();
+		boolean testedDuration = request.minDuration == null && request.maxDuration == null;
+		String spanName = request.spanName;
+		Set<String> annotations = new LinkedHashSet<>(request.annotations);
+		Map<String, String> binaryAnnotations = new LinkedHashMap<>(request.binaryAnnotations);
+		Set<String> currentServiceNames = new LinkedHashSet<>();
+		for (Span span : spans) {
+			currentServiceNames.clear();
+			for (Annotation annotation : span.annotations) {
+				if (appliesToServiceName(annotation.endpoint, request.serviceName)) {
+					annotations.remove(annotation.value);
+				}
+				if (annotation.endpoint != null) {
+					serviceNames.add(annotation.endpoint.serviceName);
+					currentServiceNames.add(annotation.endpoint.serviceName);
+				}
+			}
+			for (BinaryAnnotation annotation : span.binaryAnnotations) {
+				if (appliesToServiceName(annotation.endpoint, request.serviceName)) {
+					annotations.remove(annotation.key);
+					if (annotation.type == BinaryAnnotation.Type.STRING && new String(annotation.value,
+							StandardCharsets.UTF_8).equals(binaryAnnotations.get(annotation.key))) {
+						binaryAnnotations.remove(annotation.key);
+					}
+				}
+				if (annotation.endpoint != null) {
+					serviceNames.add(annotation.endpoint.serviceName);
+					currentServiceNames.add(annotation.endpoint.serviceName);
+				}
+			}
+			if ((request.serviceName == null || currentServiceNames.contains(request.serviceName))
+					&& !testedDuration && span.duration != null) {
+				testedDuration = span.duration >= (request.minDuration != null ? request.minDuration : 0)
+						&& (request.maxDuration == null || span.duration <= request.maxDuration);
+			}
+			if (span.name.equals(spanName)) {
+				spanName = null;
+			}
+		}
+		return (request.serviceName == null || serviceNames.contains(request.serviceName))
+				&& spanName == null && annotations.isEmpty() && binaryAnnotations.isEmpty() && testedDuration;
+	}
+
+	private static boolean appliesToServiceName(Endpoint endpoint, String serviceName) {
+		return serviceName == null || endpoint == null || endpoint.serviceName.equals(serviceName);
+	}
+
+	/**
+	 * Where the spans of a trace are, and the index entries pointing at it.
+	 */
+	private static class Trace {
+
+		final long id;
+		long[] locations = new long[4];
+		int size;
+		/** Its entry in each index it's in. */
+		final Map<Index, Ref> refs = new IdentityHashMap<>();
+
+		Trace(long id) {
+			this.id = id;
+		}
+
+		void add(long location) {
+			if (size == locations.length) {
+				locations = Arrays.copyOf(locations, size * 2);
+			}
+			locations[size++] = location;
+		}
+
+		/**
+		 * Moves the trace's entry earlier when the span is, timestamps unknown coming last.
+		 *
+		 * @return whether the index gained an entry
+		 */
+		boolean index(Index index, long timestamp) {
+			Ref indexed = refs.get(index);
+			if (indexed != null) {
+				if (timestamp == 0 || indexed.timestamp != 0 && indexed.timestamp <= timestamp) {
+					return false;
+				}
+				index.remove(indexed);
+			}
+			Ref ref = new Ref(timestamp, this, index);
+			index.add(ref);
+			refs.put(index, ref);
+			return indexed == null;
+		}
+
+		/**
+		 * Removes the indexes it was the last entry of as well.
+		 *
+		 * @return how many entries it had
+		 */
+		int unindex() {
+			for (Ref ref : refs.values()) {
+				ref.index.remove(ref);
+				if (ref.index.isEmpty()) {
+					ref.index.removed.run();
+				}
+			}
+			int entries = refs.size();
+			refs.clear();
+			return entries;
+		}
+	}
+
+	/**
+	 * The entries of an index, which knows how to remove itself from where it's kept once it has none left.
+	 */
+	private static class Index extends TreeSet<Ref> {
+
+		final Runnable removed;
+
+		Index(Runnable removed) {
+			this.removed = removed;
+		}
+	}
+
+	/**
+	 * An index entry, newest first.
+	 */
+	private static class Ref implements Comparable<Ref> {
+
+		final long timestamp;
+		final Trace trace;
+		final Index index;
+
+		Ref(long timestamp, Trace trace, Index index) {
+			this.timestamp = timestamp;
+			this.trace = trace;
+			this.index = index;
+		}
+
+		/**
+		 * @return a bound for looking up entries by time, sorting before any entry at that time
+		 */
+		static Ref at(long timestamp) {
+			return new Ref(timestamp, null, null);
+		}
+
+		@Override
+		public int compareTo(Ref other) {
+			int byTime = Long.compare(other.timestamp, timestamp);
+			if (byTime != 0 || trace == other.trace) {
+				return byTime;
+			}
+			if (trace == null || other.trace == null) {
+				return trace == null ? -1 : 1;
+			}
+			return Long.compare(trace.id, other.trace.id);
+		}
+	}
+}
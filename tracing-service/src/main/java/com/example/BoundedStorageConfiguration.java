@@ -0,0 +1,47 @@
+package com.example;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import lombok.Data;
+
+/**
+ * Takes the place of Zipkin's in-memory storage, which steps back when a storage is defined.
+ */
+@Configuration
+@ConditionalOnProperty(name = "zipkin.storage.type", havingValue = "mem", matchIfMissing = true)
+@EnableConfigurationProperties(StorageConfig.class)
+public class BoundedStorageConfiguration {
+
+	@Bean
+	BoundedStorage storage(StorageConfig config) throws IOException {
+		return new BoundedStorage(config.size, config.indexShare, config.segments,
+				config.directory != null ? new File(config.directory) : null);
+	}
+}
+
+@Data
+@ConfigurationProperties(prefix = "tracing.storage")
+class StorageConfig {
+
+	/** Bytes of encoded spans and their index kept at most, the oldest traces go first once they are used up. */
+	long size = 128 * 1024 * 1024;
+
+	/**
+	 * Part of the size set aside for the index, whose heap is estimated from the traces and entries it holds. A trace
+	 * indexed takes a few times the bytes of its encoded spans.
+	 */
+	double indexShare = 0.75;
+
+	/** Parts the budget is split into, one of them is dropped at a time. */
+	int segments = 16;
+
+	/** Where to keep spans across restarts, only in memory when not set. */
+	String directory;
+}
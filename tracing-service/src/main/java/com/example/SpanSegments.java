@@ -0,0 +1,175 @@
+package com.example;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.function.LongConsumer;
+
+import zipkin.Codec;
+import zipkin.Span;
+
+/**
+ * A fixed ring of segments holding spans encoded with Thrift. Spans are appended to the newest segment; once it is full
+ * the oldest one is cleared and reused, so memory never grows past {@code count * segmentSize}. A span is found again
+ * by its location, the segment's sequence number in the upper half and the offset in the lower half.
+ * <p>
+ * With a directory the segments are files mapped into memory, so spans written before a restart are read back. The
+ * operating system writes them out, which survives the process but not the machine going down.
+ * <p>
+ * Not thread safe, {@link BoundedStorage} locks around it.
+ */
+class SpanSegments implements Closeable {
+
+	/** Sequence number, then the end of the spans written so far. */
+	private static final int HEADER = Long.BYTES + Integer.BYTES;
+
+	interface SpanConsumer {
+
+		void accept(long location, Span span);
+	}
+
+	private final ByteBuffer[] segments;
+	private final int segmentSize;
+	private final File directory;
+	private final LongConsumer onEvict;
+	private long sequence;
+
+	/**
+	 * @param onEvict called with the sequence number of a segment before it is cleared
+	 */
+	SpanSegments(int count, int segmentSize, File directory, LongConsumer onEvict) throws IOException {
+		if (count < 2 || segmentSize <= HEADER) {
+			throw new IllegalArgumentException("Need two segments of more than " + HEADER + " bytes at least");
+		}
+		this.segments = new ByteBuffer[count];
+		this.segmentSize = segmentSize;
+		this.directory = directory;
+		this.onEvict = onEvict;
+		if (directory != null) {
+			open();
+		}
+		if (sequence == 0) {
+			sequence = 1;
+			clear(segment(sequence), sequence);
+		}
+	}
+
+	/**
+	 * @return the location of the span, or -1 when it doesn't fit into a segment
+	 */
+	long append(Span span) {
+		byte[] bytes = Codec.THRIFT.writeSpan(span);
+		if (HEADER + Integer.BYTES + bytes.length > segmentSize) {
+			return -1;
+		}
+		ByteBuffer segment = segment(sequence);
+		int limit = segment.getInt(Long.BYTES);
+		if (limit + Integer.BYTES + bytes.length > segmentSize) {
+			roll();
+			segment = segment(sequence);
+			limit = HEADER;
+		}
+		ByteBuffer target = segment.duplicate();
+		target.position(limit);
+		target.putInt(bytes.length).put(bytes);
+		segment.putInt(Long.BYTES, target.position());
+		return sequence << 32 | limit;
+	}
+
+	/**
+	 * @return the span, or null when its segment has been reused since
+	 */
+	Span read(long location) {
+		long sequence = location >>> 32;
+		if (sequence <= this.sequence - segments.length || sequence > this.sequence) {
+			return null;
+		}
+		ByteBuffer segment = segments[index(sequence)].duplicate();
+		segment.position((int) location);
+		byte[] bytes = new byte[segment.getInt()];
+		segment.get(bytes);
+		return Codec.THRIFT.readSpan(bytes);
+	}
+
+	/**
+	 * Hands over the spans kept, oldest first.
+	 */
+	void forEach(SpanConsumer consumer) {
+		for (long sequence = Math.max(1, this.sequence - segments.length + 1); sequence <= this.sequence; sequence++) {
+			ByteBuffer segment = segments[index(sequence)];
+			if (segment == null || segment.getLong(0) != sequence) {
+				continue;
+			}
+			int limit = segment.getInt(Long.BYTES);
+			for (int offset = HEADER; offset < limit; offset += Integer.BYTES + segment.getInt(offset)) {
+				consumer.accept(sequence << 32 | offset, read(sequence << 32 | offset));
+			}
+		}
+	}
+
+	long capacity() {
+		return (long) segments.length * segmentSize;
+	}
+
+	@Override
+	public void close() {
+		for (ByteBuffer segment : segments) {
+			if (segment instanceof MappedByteBuffer) {
+				((MappedByteBuffer) segment).force();
+			}
+		}
+	}
+
+	private void roll() {
+		long next = sequence + 1;
+		if (next - segments.length >= 1) {
+			onEvict.accept(next - segments.length);
+		}
+		clear(segment(next), next);
+		sequence = next;
+	}
+
+	private ByteBuffer segment(long sequence) {
+		int index = index(sequence);
+		if (segments[index] == null) {
+			segments[index] = ByteBuffer.allocate(segmentSize);
+		}
+		return segments[index];
+	}
+
+	private int index(long sequence) {
+		return (int) (sequence % segments.length);
+	}
+
+	private static void clear(ByteBuffer segment, long sequence) {
+		segment.putLong(0, sequence).putInt(Long.BYTES, HEADER);
+	}
+
+	/**
+	 * Maps the segment files, keeping what they hold unless the segment size has changed since.
+	 */
+	private void open() throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create " + directory);
+		}
+		for (int index = 0; index < segments.length; index++) {
+			try (RandomAccessFile file = new RandomAccessFile(new File(directory, "spans-" + index + ".segment"), "rw")) {
+				boolean resized = file.length() != segmentSize;
+				file.setLength(segmentSize);
+				MappedByteBuffer segment = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+				long sequence = segment.getLong(0);
+				int limit = segment.getInt(Long.BYTES);
+				if (resized || sequence <= 0 || index(sequence) != index || limit < HEADER || limit > segmentSize) {
+					clear(segment, 0);
+				} else {
+					this.sequence = Math.max(this.sequence, sequence);
+				}
+				segments[index] = segment;
+			}
+		}
+	}
+}
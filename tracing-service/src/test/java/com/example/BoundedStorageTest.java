@@ -0,0 +1,211 @@
+package com.example;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import zipkin.Annotation;
+import zipkin.BinaryAnnotation;
+import zipkin.Constants;
+import zipkin.Endpoint;
+import zipkin.Span;
+import zipkin.storage.QueryRequest;
+
+public class BoundedStorageTest {
+
+	static final Endpoint CLIENT = Endpoint.builder().serviceName("reservationclient").ipv4(127 << 24 | 1).port(9999).build();
+	static final Endpoint SERVICE = Endpoint.builder().serviceName("reservationservice").ipv4(127 << 24 | 1).port(8000).build();
+	static final long NOW = TimeUnit.DAYS.toMillis(17_000);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void should_find_traces_by_service_span_name_annotation_and_duration() throws Exception {
+		// given
+		BoundedStorage storage = new BoundedStorage(1024 * 1024, 0.75, 4, null);
+		storage.accept(trace(1, "get", 10));
+		storage.accept(trace(2, "post", 2_000));
+		storage.accept(withError(trace(3, "get", 300)));
+
+		// when
+		List<List<Span>> byService = storage.getTraces(query().serviceName("reservationservice").build());
+		List<List<Span>> bySpanName = storage.getTraces(query().serviceName("reservationservice").spanName("get").build());
+		List<List<Span>> byAnnotation = storage.getTraces(query().addAnnotation(Constants.ERROR).build());
+		List<List<Span>> byTag = storage.getTraces(query().addBinaryAnnotation("http.method", "POST").build());
+		List<List<Span>> byDuration = storage.getTraces(query().serviceName("reservationservice")
+				.minDuration(1_000L).build());
+
+		// then
+		assertThat(traceIds(byService)).containsExactly(3L, 2L, 1L);
+		assertThat(traceIds(bySpanName)).containsExactly(3L, 1L);
+		assertThat(traceIds(byAnnotation)).containsExactly(3L);
+		assertThat(traceIds(byTag)).containsExactly(2L);
+		assertThat(traceIds(byDuration)).containsExactly(2L);
+		assertThat(storage.getServiceNames()).containsExactly("reservationclient", "reservationservice");
+		assertThat(storage.getSpanNames("reservationservice")).containsExactly("get", "post");
+		assertThat(storage.getTrace(1)).hasSize(2);
+		assertThat(storage.getDependencies(NOW, null)).extracting("parent", "child", "callCount")
+				.containsExactly(tuple("reservationclient", "reservationservice", 3L));
+	}
+
+	@Test
+	public void should_drop_oldest_traces_once_the_budget_is_used_up() throws Exception {
+		// given
+		BoundedStorage storage = new BoundedStorage(8 * 1024, 0.75, 4, null);
+
+		// when
+		for (long traceId = 1; traceId <= 200; traceId++) {
+			storage.accept(trace(traceId, "get", 10));
+		}
+
+		// then
+		List<Long> kept = traceIds(storage.getTraces(query().limit(1_000).build()));
+		assertThat(storage.evicted()).isGreaterThan(0);
+		assertThat(kept).hasSize((int) storage.traces()).contains(200L).doesNotContain(1L);
+		assertThat(storage.getTrace(1)).isNull();
+		assertThat(storage.getTrace(kept.get(kept.size() - 1))).hasSize(2);
+	}
+
+	@Test
+	public void should_read_spans_back_after_restart() throws Exception {
+		// given
+		File directory = folder.newFolder();
+		BoundedStorage storage = new BoundedStorage(64 * 1024, 0.75, 4, directory);
+		for (long traceId = 1; traceId <= 10; traceId++) {
+			storage.accept(trace(traceId, "get", 10));
+		}
+		storage.close();
+
+		// when
+		BoundedStorage restarted = new BoundedStorage(64 * 1024, 0.75, 4, directory);
+		restarted.accept(trace(11, "post", 10));
+
+		// then
+		assertThat(restarted.traces()).isEqualTo(11);
+		assertThat(restarted.getTrace(5)).isEqualTo(storage.getTrace(5));
+		assertThat(traceIds(restarted.getTraces(query().serviceName("reservationservice").spanName("post").build())))
+				.containsExactly(11L);
+	}
+
+	@Test
+	public void should_index_a_trace_once_at_its_earliest_span() throws Exception {
+		// given
+		BoundedStorage storage = new BoundedStorage(1024 * 1024, 0.75, 4, null);
+		List<Span> trace = trace(1, "get", 10);
+		Span root = trace.get(0);
+		Span server = trace.get(2);
+		storage.accept(Collections.singletonList(root.toBuilder().timestamp(root.timestamp + 5_000).build()));
+		storage.accept(trace);
+		long indexed = storage.indexBytes();
+
+		// when
+		for (long spanId = 100; spanId < 150; spanId++) {
+			storage.accept(Collections.singletonList(server.toBuilder().id(spanId).build()));
+		}
+
+		// then
+		assertThat(storage.indexBytes()).isEqualTo(indexed);
+		assertThat(traceIds(storage.getTraces(query().serviceName("reservationclient")
+				.endTs(TimeUnit.MICROSECONDS.toMillis(root.timestamp)).lookback(1L).build()))).containsExactly(1L);
+	}
+
+	@Test
+	public void should_drop_oldest_traces_once_the_index_is_over_its_share() throws Exception {
+		// given
+		BoundedStorage storage = new BoundedStorage(1024 * 1024, 0.02, 4, null);
+
+		// when every trace brings an index of its own, and few bytes of spans
+		for (long traceId = 1; traceId <= 200; traceId++) {
+			List<Span> trace = trace(traceId, "get", 10);
+			trace.set(0, trace.get(0).toBuilder()
+					.addBinaryAnnotation(BinaryAnnotation.create("http.url", "/reservations/" + traceId, CLIENT)).build());
+			storage.accept(trace);
+		}
+
+		// then traces went before any segment was reused
+		assertThat(storage.evicted()).isGreaterThan(0);
+		assertThat(storage.indexBytes()).isPositive().isLessThanOrEqualTo(storage.indexSize());
+		assertThat(storage.getTrace(1)).isNull();
+		assertThat(traceIds(storage.getTraces(query().addBinaryAnnotation("http.url", "/reservations/200").build())))
+				.containsExactly(200L);
+		assertThat(traceIds(storage.getTraces(query().addBinaryAnnotation("http.url", "/reservations/1").build())))
+				.isEmpty();
+	}
+
+	@Test
+	public void should_remove_the_indexes_of_dropped_traces() throws Exception {
+		// given
+		BoundedStorage storage = new BoundedStorage(1024 * 1024, 0.02, 4, null);
+		storage.accept(trace(1, "legacy", 10));
+
+		// when
+		for (long traceId = 2; traceId <= 200; traceId++) {
+			storage.accept(trace(traceId, "get", 10));
+		}
+
+		// then
+		assertThat(storage.getTrace(1)).isNull();
+		assertThat(storage.getSpanNames("reservationclient")).containsExactly("get");
+		assertThat(traceIds(storage.getTraces(query().addBinaryAnnotation("http.method", "LEGACY").build()))).isEmpty();
+		BoundedStorage kept = new BoundedStorage(1024 * 1024, 0.02, 4, null);
+		for (long traceId = 2; traceId <= 200; traceId++) {
+			if (storage.getTrace(traceId) != null) {
+				kept.accept(trace(traceId, "get", 10));
+			}
+		}
+		assertThat(storage.indexBytes()).isEqualTo(kept.indexBytes());
+	}
+
+	/**
+	 * A request to reservationclient calling reservationservice, both halves of the call reported as in Sleuth, starting
+	 * a millisecond apart for each trace id.
+	 */
+	private static List<Span> trace(long traceId, String name, long duration) {
+		long timestamp = TimeUnit.MILLISECONDS.toMicros(NOW - 60_000) + traceId * 1_000;
+		long callId = traceId + 1_000_000;
+		List<Span> spans = new ArrayList<>();
+		spans.add(Span.builder().traceId(traceId).id(traceId).name(name).timestamp(timestamp).duration(duration + 4)
+				.addAnnotation(Annotation.create(timestamp, Constants.SERVER_RECV, CLIENT))
+				.addAnnotation(Annotation.create(timestamp + duration + 4, Constants.SERVER_SEND, CLIENT))
+				.addBinaryAnnotation(BinaryAnnotation.create("http.method", name.toUpperCase(), CLIENT))
+				.build());
+		spans.add(Span.builder().traceId(traceId).parentId(traceId).id(callId).name(name)
+				.addAnnotation(Annotation.create(timestamp + 1, Constants.CLIENT_SEND, CLIENT))
+				.addAnnotation(Annotation.create(timestamp + duration + 3, Constants.CLIENT_RECV, CLIENT))
+				.build());
+		spans.add(Span.builder().traceId(traceId).parentId(traceId).id(callId).name(name)
+				.addAnnotation(Annotation.create(timestamp + 2, Constants.SERVER_RECV, SERVICE))
+				.addAnnotation(Annotation.create(timestamp + duration + 2, Constants.SERVER_SEND, SERVICE))
+				.build());
+		return spans;
+	}
+
+	private static List<Span> withError(List<Span> trace) {
+		Span server = trace.get(2);
+		trace.set(2, server.toBuilder().addBinaryAnnotation(BinaryAnnotation.create(Constants.ERROR, "boom", SERVICE))
+				.build());
+		return trace;
+	}
+
+	private static QueryRequest.Builder query() {
+		return QueryRequest.builder().endTs(NOW).lookback(TimeUnit.HOURS.toMillis(1)).limit(10);
+	}
+
+	private static List<Long> traceIds(List<List<Span>> traces) {
+		List<Long> ids = new ArrayList<>();
+		for (List<Span> trace : traces) {
+			ids.add(trace.get(0).traceId);
+		}
+		return ids;
+	}
+}
@@ -0,0 +1,184 @@
+package com.example.tracing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+import org.springframework.cloud.sleuth.Sampler;
+
+import zipkin.Annotation;
+import zipkin.BinaryAnnotation;
+import zipkin.Constants;
+import zipkin.Span;
+
+/**
+ * Samples a share of the traces sized to keep about {@code rate} of them per second, taken by trace
+ * id the same way in every service, so the traces kept are whole unless the services disagree a lot
+ * about their share.
+ * <p>
+ * As Sleuth's {@link Sampler} the share is taken when a trace starts, and the services called are
+ * told to record theirs or not. Sleuth never reports the spans of a trace it didn't sample, so
+ * keeping the slow and failed ones needs {@code alwaysTrace}: every trace is recorded, and only
+ * once a span finished is it decided whether it goes on to Zipkin. Then spans that failed or took
+ * longer than the latency threshold are kept too, along with the spans of the same trace finishing
+ * after them (their callers).
+ */
+class AdaptiveSampler implements Sampler {
+
+    private static final long WINDOW = TimeUnit.SECONDS.toNanos(1);
+    private static final int PINNED = 1024;
+
+    private final SamplingConfig config;
+    private final LongSupplier clock;
+    private final AtomicLong probability = new AtomicLong(Double.doubleToLongBits(1.0));
+    private final AtomicLong windowStart;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLongArray pinned = new AtomicLongArray(PINNED);
+    private final AtomicLong kept = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong keptSpans = new AtomicLong();
+    private final AtomicLong droppedSpans = new AtomicLong();
+
+    AdaptiveSampler(SamplingConfig config) {
+        this(config, System::nanoTime);
+    }
+
+    AdaptiveSampler(SamplingConfig config, LongSupplier clock) {
+        this.config = config;
+        this.clock = clock;
+        this.windowStart = new AtomicLong(clock.getAsLong());
+    }
+
+    /**
+     * Called by Sleuth for every trace starting here, not for those continued from a caller.
+     */
+    @Override
+    public boolean isSampled(org.springframework.cloud.sleuth.Span span) {
+        if (config.alwaysTrace) {
+            return true;
+        }
+        countRequest();
+        boolean sampled = share(span.getTraceId()) < probability();
+        (sampled ? kept : dropped).incrementAndGet();
+        return sampled;
+    }
+
+    /**
+     * Called for every span recorded once it finished.
+     */
+    boolean isKept(Span span) {
+        if (!config.alwaysTrace) {
+            // Sampled when its trace started already
+            return true;
+        }
+        if (isRequest(span)) {
+            countRequest();
+        }
+        boolean keep = Boolean.TRUE.equals(span.debug)
+            || isPinned(span.traceId)
+            || (isSlow(span) || config.keepErrors && isError(span)) && pin(span.traceId)
+            || share(span.traceId) < probability();
+        (keep ? keptSpans : droppedSpans).incrementAndGet();
+        return keep;
+    }
+
+    double probability() {
+        return Double.longBitsToDouble(probability.get());
+    }
+
+    /**
+     * @return traces sampled when they started here, without {@code alwaysTrace}
+     */
+    long kept() {
+        return kept.get();
+    }
+
+    long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return spans sent on to Zipkin once they finished, with {@code alwaysTrace}
+     */
+    long keptSpans() {
+        return keptSpans.get();
+    }
+
+    long droppedSpans() {
+        return droppedSpans.get();
+    }
+
+    /**
+     * Once a second, moves the probability halfway towards the one that would have kept {@code rate}
+     * of the requests seen since.
+     */
+    private void countRequest() {
+        requests.incrementAndGet();
+        long now = clock.getAsLong();
+        long start = windowStart.get();
+        long elapsed = now - start;
+        if (elapsed < WINDOW || !windowStart.compareAndSet(start, now)) {
+            return;
+        }
+        double seen = requests.getAndSet(0) * (double) WINDOW / elapsed;
+        double target = seen <= config.rate ? 1.0 : Math.max(config.rate, 0) / seen;
+        probability.set(Double.doubleToLongBits((probability() + target) / 2));
+    }
+
+    private boolean isPinned(long traceId) {
+        return pinned.get(slot(traceId)) == traceId;
+    }
+
+    private boolean pin(long traceId) {
+        pinned.set(slot(traceId), traceId);
+        return true;
+    }
+
+    private boolean isSlow(Span span) {
+        return span.duration != null && span.duration >= TimeUnit.MILLISECONDS.toMicros(config.latencyThreshold);
+    }
+
+    private static boolean isRequest(Span span) {
+        if (span.parentId == null) {
+            return true;
+        }
+        for (Annotation annotation : span.annotations) {
+            if (Constants.SERVER_RECV.equals(annotation.value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isError(Span span) {
+        for (BinaryAnnotation annotation : span.binaryAnnotations) {
+            if (Constants.ERROR.equals(annotation.key)) {
+                return true;
+            }
+            if ("http.status_code".equals(annotation.key) && annotation.type == BinaryAnnotation.Type.STRING
+                && new String(annotation.value, StandardCharsets.UTF_8).startsWith("5")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int slot(long traceId) {
+        return (int) (mix(traceId) & (PINNED - 1));
+    }
+
+    /**
+     * @return where the trace falls in {@code [0, 1)}, the same in every service
+     */
+    private static double share(long traceId) {
+        return (mix(traceId) >>> 11) * 0x1.0p-53;
+    }
+
+    private static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+        value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return value ^ (value >>> 33);
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.tracing;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.autoconfigure.AutoConfigureBefore;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.cloud.sleuth.metric.SpanMetricReporter;
+import org.springframework.cloud.sleuth.zipkin.HttpZipkinSpanReporter;
+import org.springframework.cloud.sleuth.zipkin.ZipkinAutoConfiguration;
+import org.springframework.cloud.sleuth.zipkin.ZipkinProperties;
+import org.springframework.cloud.sleuth.zipkin.ZipkinSpanReporter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import static java.util.Arrays.asList;
+
+import lombok.Data;
+import zipkin.Span;
+
+/**
+ * Replaces Sleuth's fixed percentage sampling with {@link AdaptiveSampler}, which also decides
+ * which finished spans go on to Zipkin's reporter when every trace is recorded. The reporter
+ * batches and sends them from its own thread.
+ */
+@Configuration
+@ConditionalOnClass(ZipkinSpanReporter.class)
+@ConditionalOnProperty(value = "spring.zipkin.enabled", matchIfMissing = true)
+@AutoConfigureBefore(ZipkinAutoConfiguration.class)
+@EnableConfigurationProperties({SamplingConfig.class, ZipkinProperties.class})
+public class AdaptiveSamplingAutoConfiguration {
+
+    @Bean
+    AdaptiveSampler adaptiveSampler(SamplingConfig config) {
+        return new AdaptiveSampler(config);
+    }
+
+    @Bean
+    SamplingSpanReporter samplingSpanReporter(AdaptiveSampler sampler, SpanMetricReporter metrics, ZipkinProperties zipkin) {
+        return new SamplingSpanReporter(sampler, new HttpZipkinSpanReporter(zipkin.getBaseUrl(),
+            zipkin.getFlushInterval(), zipkin.getCompression().isEnabled(), metrics));
+    }
+
+    @Configuration
+    @ConditionalOnClass(PublicMetrics.class)
+    // member classes get registered even when the enclosing class is skipped
+    @ConditionalOnProperty(value = "spring.zipkin.enabled", matchIfMissing = true)
+    static class SamplingMetricsConfiguration {
+
+        @Bean
+        PublicMetrics samplingMetrics(AdaptiveSampler sampler) {
+            return () -> asList(
+                new Metric<>("tracing.sampling.probability", sampler.probability()),
+                new Metric<>("tracing.sampling.kept", sampler.kept()),
+                new Metric<>("tracing.sampling.dropped", sampler.dropped()),
+                new Metric<>("tracing.sampling.spans.kept", sampler.keptSpans()),
+                new Metric<>("tracing.sampling.spans.dropped", sampler.droppedSpans()));
+        }
+    }
+}
+
+/**
+ * Read on every span, so that changes refreshed from config-service apply at once.
+ */
+@Data
+@ConfigurationProperties(prefix = "tracing.sampling")
+class SamplingConfig {
+
+    /** Traces kept per second of those every service instance starts, besides the slow and failed ones. */
+    double rate = 10;
+
+    /** Spans taking at least that long are always kept with {@code alwaysTrace}, in milliseconds. */
+    long latencyThreshold = 1_000;
+
+    /** Keep spans tagged with an error or a 5xx status with {@code alwaysTrace}. */
+    boolean keepErrors = true;
+
+    /**
+     * Record every trace, and keep the slow and failed ones besides the {@code rate}, rather than
+     * recording only the {@code rate} of them. That costs every request the recording of all its
+     * spans and their conversion for Zipkin, and every service called gets {@code X-B3-Sampled: 1},
+     * so records all of its spans too. Off by default: then the slow and failed traces are kept only
+     * when they fall in the {@code rate}, like any other.
+     */
+    boolean alwaysTrace = false;
+}
+
+class SamplingSpanReporter implements ZipkinSpanReporter, Flushable, Closeable {
+
+    private final AdaptiveSampler sampler;
+    private final HttpZipkinSpanReporter delegate;
+
+    SamplingSpanReporter(AdaptiveSampler sampler, HttpZipkinSpanReporter delegate) {
+        this.sampler = sampler;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void report(Span span) {
+        if (sampler.isKept(span)) {
+            delegate.report(span);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        delegate.flush();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.tracing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.springframework.cloud.sleuth.DefaultSpanNamer;
+import org.springframework.cloud.sleuth.Tracer;
+import org.springframework.cloud.sleuth.log.NoOpSpanLogger;
+import org.springframework.cloud.sleuth.trace.DefaultTracer;
+import org.springframework.cloud.sleuth.zipkin.ZipkinSpanListener;
+
+import zipkin.BinaryAnnotation;
+import zipkin.Constants;
+import zipkin.Endpoint;
+import zipkin.Span;
+
+public class AdaptiveSamplerTest {
+
+    SamplingConfig config = new SamplingConfig();
+    long now;
+    long traceIds = 1_000;
+    AdaptiveSampler sampler = new AdaptiveSampler(config, () -> now);
+
+    @Test
+    public void should_keep_slow_and_failed_spans_whatever_the_rate() {
+        // given
+        config.setAlwaysTrace(true);
+        config.setRate(0);
+        drive(1_000, 20);
+
+        // when
+        boolean slow = sampler.isKept(span(1, TimeUnit.SECONDS.toMicros(2)).build());
+        boolean failed = sampler.isKept(span(2, 100)
+            .addBinaryAnnotation(BinaryAnnotation.create(Constants.ERROR, "boom", null)).build());
+        boolean serverError = sampler.isKept(span(3, 100)
+            .addBinaryAnnotation(BinaryAnnotation.create("http.status_code", "503", null)).build());
+        boolean ok = sampler.isKept(span(4, 100).build());
+
+        // then
+        assertThat(sampler.probability()).isLessThan(0.01);
+        assertThat(slow).isTrue();
+        assertThat(failed).isTrue();
+        assertThat(serverError).isTrue();
+        assertThat(ok).isFalse();
+    }
+
+    @Test
+    public void should_keep_spans_of_a_trace_finishing_after_a_failed_one() {
+        // given
+        config.setAlwaysTrace(true);
+        config.setRate(0);
+        drive(1_000, 20);
+        sampler.isKept(span(7, 100).parentId(8L)
+            .addBinaryAnnotation(BinaryAnnotation.create(Constants.ERROR, "boom", null)).build());
+
+        // when
+        boolean caller = sampler.isKept(span(7, 200).build());
+
+        // then
+        assertThat(caller).isTrue();
+    }
+
+    @Test
+    public void should_keep_about_rate_traces_per_second() {
+        // given
+        config.setAlwaysTrace(true);
+        config.setRate(10);
+
+        // when a thousand requests a second for ten seconds
+        drive(1_000, 10);
+        long kept = sampler.keptSpans();
+        drive(1_000, 10);
+
+        // then
+        assertThat(sampler.probability()).isBetween(0.008, 0.012);
+        assertThat(sampler.keptSpans() - kept).isBetween(50L, 150L);
+    }
+
+    @Test
+    public void should_decide_the_same_for_every_span_of_a_trace() {
+        // given
+        config.setAlwaysTrace(true);
+        config.setRate(10);
+        drive(1_000, 10);
+
+        // when
+        for (long traceId = 1; traceId < 1_000; traceId++) {
+            boolean first = sampler.isKept(span(traceId, 100).parentId(traceId).build());
+            boolean second = sampler.isKept(span(traceId, 200).build());
+
+            // then
+            assertThat(second).isEqualTo(first);
+        }
+    }
+
+    @Test
+    public void should_record_only_about_rate_traces_per_second_on_request_threads() {
+        // given
+        config.setRate(10);
+        List<Span> converted = new ArrayList<>();
+        Tracer tracer = new DefaultTracer(sampler, new Random(), new DefaultSpanNamer(), new NoOpSpanLogger(),
+            new ZipkinSpanListener(converted::add, () -> Endpoint.create("test", 127 << 24 | 1)));
+        trace(tracer, 1_000, 10);
+        converted.clear();
+
+        // when
+        List<Boolean> propagated = trace(tracer, 1_000, 10);
+
+        // then only the spans sampled are converted for Zipkin, the others just logged
+        assertThat(sampler.probability()).isBetween(0.008, 0.012);
+        assertThat(converted.size()).isBetween(50, 150);
+        assertThat(propagated.stream().filter(Boolean::booleanValue).count()).isEqualTo(converted.size());
+        assertThat(sampler.kept() + sampler.dropped()).isEqualTo(20_000);
+        assertThat(sampler.keptSpans() + sampler.droppedSpans()).isZero();
+    }
+
+    @Test
+    public void should_sample_every_trace_when_always_tracing() {
+        // given
+        config.setRate(0);
+        config.setAlwaysTrace(true);
+        Tracer tracer = new DefaultTracer(sampler, new Random(), new DefaultSpanNamer(), new NoOpSpanLogger(),
+            span -> { });
+
+        // when
+        List<Boolean> propagated = trace(tracer, 1_000, 2);
+
+        // then
+        assertThat(propagated).containsOnly(true);
+    }
+
+    /**
+     * Starts and closes {@code perSecond} traces a second, as Sleuth does for requests.
+     *
+     * @return whether each was sampled, what {@code X-B3-Sampled} would tell the services called
+     */
+    private List<Boolean> trace(Tracer tracer, int perSecond, int seconds) {
+        List<Boolean> sampled = new ArrayList<>();
+        for (int second = 0; second < seconds; second++) {
+            for (int i = 0; i < perSecond; i++) {
+                now += TimeUnit.SECONDS.toNanos(1) / perSecond;
+                org.springframework.cloud.sleuth.Span span = tracer.createSpan("get");
+                sampled.add(span.isExportable());
+                tracer.close(span);
+            }
+        }
+        return sampled;
+    }
+
+    /**
+     * Reports {@code perSecond} quick root spans a second, each of a new trace.
+     */
+    private void drive(int perSecond, int seconds) {
+        for (int second = 0; second < seconds; second++) {
+            for (int i = 0; i < perSecond; i++) {
+                now += TimeUnit.SECONDS.toNanos(1) / perSecond;
+                sampler.isKept(span(traceIds++, 100).build());
+            }
+        }
+    }
+
+    private static Span.Builder span(long traceId, long duration) {
+        return Span.builder().traceId(traceId).id(traceId).name("get").timestamp(1L).duration(duration);
+    }
+}